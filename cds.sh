@@ -0,0 +1,18 @@
+#!/usr/bin/env bash
+# packs the compiled classes into a jar and records an AppCDS archive of
+# the classes a run of train.lox loads, so that run.sh can map them in
+# already parsed and verified. rerun it after rebuilding; run.sh ignores
+# the archive while it is older than the classes
+set -e
+cd "$(dirname "$0")"
+
+jar --create --file target/jlox.jar -C target/classes .
+cp train.lox target/train.lox
+rm -f target/train.lox.snapshot target/jlox.jsa
+
+# train.lox is the prelude as well as the script. the first run saves its
+# snapshot, so that the recorded run loads it
+java -cp target/jlox.jar lox.Lox --prelude target/train.lox target/train.lox \
+  > /dev/null
+java -XX:ArchiveClassesAtExit=target/jlox.jsa -cp target/jlox.jar \
+  lox.Lox --prelude target/train.lox target/train.lox > /dev/null
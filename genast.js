@@ -1,3 +1,4 @@
+const crypto = require('crypto');
 const fs = require('fs').promises;
 const path = require('path');
 
@@ -24,6 +25,10 @@ function fieldProperties(fields, indent) {
 const IMPLEMENTS = {
   'Lambda': ['CallableNode'],
   'Function': ['CallableNode'],
+  'Assign': ['VariableNode'],
+  'Super': ['VariableNode'],
+  'This': ['VariableNode'],
+  'Variable': ['VariableNode'],
 };
 function implements(className) {
   const implements = IMPLEMENTS[className];
@@ -45,15 +50,162 @@ const callableNodeGetters = `
     public Token getName() {
       return this.name;
     }
+
+    public boolean isGenerator() {
+      return this.isGenerator;
+    }
+
+    public boolean isAsync() {
+      return this.isAsync;
+    }
+
+    public int getFrameSize() {
+      return this.frameSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+      this.frameSize = frameSize;
+    }
+
+    public Token getSharedWrite() {
+      return this.sharedWrite;
+    }
+
+    public void setSharedWrite(Token sharedWrite) {
+      this.sharedWrite = sharedWrite;
+    }
+
+    // set by the resolver: how many slots a call's environment needs
+    int frameSize = 0;
+    // set by the resolver: the name in the first assignment to a variable
+    // from outside the function, if the body makes one
+    Token sharedWrite = null;
+`;
+const resolvedVariable = `
+    public void resolve(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    // set by the resolver: how many environments up the variable is, or -1
+    // for a global, and which slot it has there. the slot of a global is
+    // its symbol in Globals
+    int depth = -1;
+    int slot = 0;
 `;
 const EXTRA = {
   'Lambda': callableNodeGetters,
   'Function': callableNodeGetters,
+  'Assign': resolvedVariable,
+  'Super': resolvedVariable,
+  'This': resolvedVariable,
+  'Variable': resolvedVariable,
+  'Binary': `
+    // set by the resolver if this is a chain of string concatenations
+    Concatenation concatenation = null;
+`,
 };
 function extra(className) {
   return EXTRA[className] || '';
 }
 
+// the Snapshot.Writer and Snapshot.Reader methods for each type of field
+const SNAPSHOT_TYPES = {
+  'Token': 'Token',
+  'Expr': 'Expr',
+  'Stmt': 'Stmt',
+  'List<Token>': 'Tokens',
+  'List<Expr>': 'Exprs',
+  'List<Stmt>': 'Stmts',
+  'List<Stmt.Function>': 'Functions',
+  'Expr.Variable': 'Variable',
+  'boolean': 'Boolean',
+  'int': 'Int',
+  'Object': 'Literal',
+};
+// what the resolver left on a node, which a snapshot keeps as well
+const callableSnapshot = {
+  write: ['out.writeInt(frameSize);', 'out.writeToken(sharedWrite);'],
+  read: [
+    'node.frameSize = in.readInt();',
+    'node.sharedWrite = in.readToken();',
+  ],
+};
+const variableSnapshot = {
+  write: ['out.writeInt(depth);', 'out.writeInt(slot);'],
+  read: ['node.resolve(in.readInt(), in.readInt());'],
+};
+// symbols are numbered in the order a process first sees them, so a global
+// takes the symbol its name has in the process loading the snapshot
+const globalSnapshot = {
+  write: ['out.writeInt(depth);', 'out.writeInt(depth == -1 ? 0 : slot);'],
+  read: [
+    'int depth = in.readInt();',
+    'int slot = in.readInt();',
+    'if (depth == -1) {',
+    '  slot = Globals.symbol(node.name.lexeme);',
+    '}',
+    'node.resolve(depth, slot);',
+  ],
+};
+const SNAPSHOT_EXTRA = {
+  'Lambda': callableSnapshot,
+  'Function': callableSnapshot,
+  'Assign': globalSnapshot,
+  'Super': variableSnapshot,
+  'This': variableSnapshot,
+  'Variable': globalSnapshot,
+  'Binary': {
+    write: ['out.writeBoolean(concatenation != null);'],
+    read: [
+      'if (in.readBoolean()) {',
+      '  node.concatenation = Concatenation.flatten(node);',
+      '}',
+    ],
+  },
+};
+
+function snapshotWrite(className, fields, index) {
+  const extraWrites = (SNAPSHOT_EXTRA[className] || { write: [] }).write;
+  return printLines(
+    [
+      `out.writeNode(${index});`,
+      ...fields
+        .map(f => f.split(' '))
+        .map(([type, name]) => `out.write${SNAPSHOT_TYPES[type]}(${name});`),
+      ...extraWrites,
+    ],
+    3,
+  );
+}
+
+function snapshotRead(className, fields) {
+  const extraReads = (SNAPSHOT_EXTRA[className] || { read: [] }).read;
+  const args = fields
+    .map(f => f.split(' '))
+    .map(([type]) => `in.read${SNAPSHOT_TYPES[type]}()`);
+  return printLines(
+    [
+      `${className} node = new ${className}(`,
+      ...args.map((arg, i) => `  ${arg}${i < args.length - 1 ? ',' : ''}`),
+      ');',
+      ...extraReads,
+      'return node;',
+    ],
+    3,
+  );
+}
+
+// changes whenever the nodes or how they are saved do, so that snapshots
+// written by another version are ignored
+function schema(types) {
+  const hash = crypto
+    .createHash('sha256')
+    .update(JSON.stringify([types, SNAPSHOT_TYPES, SNAPSHOT_EXTRA]))
+    .digest('hex');
+  return `0x${hash.slice(0, 7)}`;
+}
+
 function defineAst(outputDir, baseName, types) {
   const outPath = path.join(outputDir, `${baseName}.java`);
 
@@ -77,9 +229,30 @@ ${Object.entries(types)
 
   abstract <R> R accept(Visitor<R> visitor);
 
+  // identifies this version of the nodes in snapshots
+  static final int SCHEMA = ${schema(types)};
+
+  abstract void write(Snapshot.Writer out);
+
+  // the node write() saved in a snapshot, given the number it wrote first
+  static ${baseName} read(Snapshot.Reader in, int node) {
+    switch (node) {
+${Object.keys(types)
+    .map(
+      (className, index) => `\
+      case ${index}:
+        return ${className}.read(in);\
+`,
+    )
+    .join('\n')}
+      default:
+        throw new IllegalStateException("Unknown ${baseName} node " + node);
+    }
+  }
+
 ${Object.entries(types)
     .map(
-      ([className, fields]) => `\
+      ([className, fields], index) => `\
   static class ${className} extends ${baseName}${implements(className)} {
     ${fieldProperties(fields, 2)}
 
@@ -90,6 +263,14 @@ ${Object.entries(types)
     <R> R accept(Visitor<R> visitor) {
       return visitor.visit${className + baseName}(this);
     }
+
+    void write(Snapshot.Writer out) {
+      ${snapshotWrite(className, fields, index)}
+    }
+
+    static ${className} read(Snapshot.Reader in) {
+      ${snapshotRead(className, fields)}
+    }
   }
 `,
     )
@@ -124,10 +305,18 @@ ${Object.entries(types)
     Expression: [
       'Expr expression',
     ],
+    ForIn: [
+      'Token name',
+      'Token in',
+      'Expr iterable',
+      'List<Stmt> body',
+    ],
     Function: [
       'Token name',
       'List<Token> params',
       'List<Stmt> body',
+      'boolean isGenerator',
+      'boolean isAsync',
     ],
     If: [
       'Expr condition',
@@ -146,14 +335,26 @@ ${Object.entries(types)
       'Expr condition',
       'Stmt body',
     ],
+    Yield: [
+      'Token keyword',
+      'Expr value',
+    ],
   });
 
   console.log('Generating Expr class...'); // eslint-disable-line
   await defineAst(process.argv[2], 'Expr', {
+    Array: [
+      'Token bracket',
+      'List<Expr> elements',
+    ],
     Assign: [
       'Token name',
       'Expr value',
     ],
+    Await: [
+      'Token keyword',
+      'Expr value',
+    ],
     Call: [
       'Expr callee',
       'Token paren',
@@ -171,10 +372,17 @@ ${Object.entries(types)
     Grouping: [
       'Expr expression',
     ],
+    Index: [
+      'Expr object',
+      'Token bracket',
+      'Expr index',
+    ],
     Lambda: [
       'Token name',
       'List<Token> params',
       'List<Stmt> body',
+      'boolean isGenerator',
+      'boolean isAsync',
     ],
     Literal: [
       'Object value',
@@ -189,6 +397,12 @@ ${Object.entries(types)
       'Token name',
       'Expr value',
     ],
+    SetIndex: [
+      'Expr object',
+      'Token bracket',
+      'Expr index',
+      'Expr value',
+    ],
     Super: [
       'Token keyword',
       'Token method',
@@ -0,0 +1,119 @@
+package lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// each phase of running a script, on its own, over the workloads in
+// src/main/resources/corpus. it lives in package lox to reach the
+// scanner, parser and resolver. with the interpreter installed
+// (mvn install in the parent directory):
+//
+//   mvn package
+//   java -jar target/benchmarks.jar -prof gc
+//
+// -prof gc adds the allocation rate, and gc.alloc.rate.norm the bytes
+// allocated per operation, next to the throughput of every phase
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PipelineBenchmark {
+  private static final PrintStream NOWHERE = new PrintStream(
+    OutputStream.nullOutputStream()
+  );
+
+  @Param({
+    "fib",
+    "binary_trees",
+    "method_dispatch",
+    "string_building",
+    "closures",
+    "super_chain"
+  })
+  public String workload;
+
+  private Diagnostics diagnostics;
+  private String source;
+  private List<Token> tokens;
+  private List<Stmt> statements;
+  private Program program;
+
+  @Setup
+  public void compile() throws IOException {
+    String path = "/corpus/" + workload + ".lox";
+    try (InputStream in = PipelineBenchmark.class.getResourceAsStream(path)) {
+      if (in == null) {
+        throw new IOException("No workload " + path);
+      }
+      source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    diagnostics = new Diagnostics(
+      System.err,
+      new Output(OutputStream.nullOutputStream(), false)
+    );
+    tokens = new Scanner(source, diagnostics).scanTokens();
+    statements = new Parser(tokens, diagnostics).parse();
+    new Resolver(diagnostics).resolve(statements);
+    if (diagnostics.hadError()) {
+      throw new IllegalStateException(workload + " doesn't compile");
+    }
+    program = new Program(statements);
+
+    // fail here rather than measure a script that stops early
+    Isolate isolate = isolate(System.err);
+    isolate.run(program);
+    if (isolate.hadRuntimeError()) {
+      throw new IllegalStateException(workload + " fails at runtime");
+    }
+  }
+
+  @Benchmark
+  public List<Token> scan() {
+    return new Scanner(source, diagnostics).scanTokens();
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(tokens, diagnostics).parse();
+  }
+
+  // the resolver only ever stores what it works out on the nodes, so
+  // resolving the same statements again repeats all of its work
+  @Benchmark
+  public List<Stmt> resolve() {
+    new Resolver(diagnostics).resolve(statements);
+    return statements;
+  }
+
+  // a fresh isolate each time, as a script gets. setting up its globals is
+  // small next to running any of the workloads
+  @Benchmark
+  public Isolate interpret() {
+    Isolate isolate = isolate(NOWHERE);
+    isolate.run(program);
+    return isolate;
+  }
+
+  private static Isolate isolate(PrintStream err) {
+    return new Isolate(OutputStream.nullOutputStream(), err, false);
+  }
+}
@@ -1,2 +1,15 @@
 #!/usr/bin/env bash
+# scripts go to the daemon started by `./run.sh --daemon` when it's running
+# as this user. the client checks the directory the socket is in as well
+socket="${LOX_SOCKET:-${XDG_RUNTIME_DIR:-/tmp/jlox-$(id -un)}/jlox.sock}"
+if [ $# -eq 1 ] && [ "$1" != "--daemon" ] && [ -S "$socket" ] \
+  && [ -O "$socket" ]; then
+  exec java -XX:TieredStopAtLevel=1 -cp target/classes lox.Lox --client "$1"
+fi
+# the class data archive from cds.sh, unless the classes have changed since
+if [ -f target/jlox.jsa ] \
+  && [ -z "$(find target/classes -newer target/jlox.jar -print -quit)" ]; then
+  exec java -XX:SharedArchiveFile=target/jlox.jsa -cp target/jlox.jar \
+    lox.Lox "$@"
+fi
 java -cp target/classes lox.Lox "$@"
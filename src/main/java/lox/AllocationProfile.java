@@ -0,0 +1,211 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// counts what the interpreter allocates on behalf of a script, by kind and
+// by the node that made it allocate, so that script authors can see which
+// lines make garbage. sizes are estimates for a 64-bit JVM with compressed
+// references, and leave out storage that grows later, like the slots a
+// frame adds for numbers or the table of an instance's fields
+class AllocationProfile {
+  static final int BLOCK_ENVIRONMENT = 0;
+  static final int CALL_ENVIRONMENT = 1;
+  static final int BOUND_METHOD = 2;
+  static final int ARGUMENTS = 3;
+  static final int INSTANCE = 4;
+  static final int STRING = 5;
+  static final int BOXED_DOUBLE = 6;
+  static final int BOXED_LONG = 7;
+  private static final String[] KINDS = {
+    "block environment",
+    "call environment",
+    "bound method",
+    "argument array",
+    "instance",
+    "string",
+    "boxed Double",
+    "boxed Long",
+  };
+
+  private static final int HEADER = 12;
+  private static final int REFERENCE = 4;
+  // an Environment and its fields
+  private static final int ENVIRONMENT = 32;
+  // a LoxFunction, its environment holding "this" and that one's slots
+  private static final int BOUND = 32 + ENVIRONMENT + 24;
+  // a LoxInstance and the HashMap of its fields
+  private static final int OBJECT = 24 + 48;
+  private static final int BOX = 24;
+  // a rope and the string appended to it, whose length isn't known here
+  private static final int ROPE = 24 + 40;
+
+  private static final int TOP = 20;
+
+  private static final class Tally {
+    final LongAdder count = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+  }
+
+  // by node, then by kind. tasks and parallel workers count into the same
+  // profile as the main script
+  private final Map<Object, Tally[]> tallies = new ConcurrentHashMap<>();
+
+  private void count(Object node, int kind, long bytes) {
+    Tally[] kinds = tallies.get(node);
+    if (kinds == null) {
+      kinds = tallies.computeIfAbsent(node, key -> new Tally[KINDS.length]);
+    }
+    Tally tally = kinds[kind];
+    if (tally == null) {
+      synchronized (kinds) {
+        if (kinds[kind] == null) {
+          kinds[kind] = new Tally();
+        }
+        tally = kinds[kind];
+      }
+    }
+    tally.count.increment();
+    tally.bytes.add(bytes);
+  }
+
+  private static long array(int length) {
+    return length == 0 ? 0 : align(HEADER + 4 + (long) length * REFERENCE);
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  public void block(Stmt node, int slots) {
+    count(node, BLOCK_ENVIRONMENT, ENVIRONMENT + array(slots));
+  }
+
+  // what calling a callee is about to allocate, before it does
+  public void call(Expr.Call node, LoxCallable callee) {
+    if (callee instanceof LoxFunction) {
+      int frameSize = ((LoxFunction) callee).getFrameSize();
+      count(node, CALL_ENVIRONMENT, ENVIRONMENT + array(frameSize));
+    }
+    else if (callee instanceof LoxClass) {
+      count(node, INSTANCE, OBJECT);
+      LoxFunction initializer = ((LoxClass) callee).getMethods().get("init");
+      if (initializer != null) {
+        count(node, BOUND_METHOD, BOUND);
+        count(
+          node,
+          CALL_ENVIRONMENT,
+          ENVIRONMENT + array(initializer.getFrameSize())
+        );
+      }
+    }
+  }
+
+  public void arguments(Expr.Call node, int count) {
+    if (count > 0) {
+      count(node, ARGUMENTS, array(count));
+    }
+  }
+
+  // a method looked up on an instance is bound to it, unless it came from
+  // a field
+  public void property(Expr.Get node, Object object, Object value) {
+    if (
+      object instanceof LoxInstance
+      && value instanceof LoxFunction
+      && !((LoxInstance) object).getFields().containsKey(node.name.lexeme)
+    ) {
+      count(node, BOUND_METHOD, BOUND);
+    }
+  }
+
+  public void bound(Expr.Super node) {
+    count(node, BOUND_METHOD, BOUND);
+  }
+
+  public void string(Expr node, Object value) {
+    if (value instanceof LoxRope) {
+      count(node, STRING, ROPE);
+    }
+    else if (value instanceof String) {
+      // compact strings take a byte a character when they can
+      int length = ((String) value).length();
+      count(node, STRING, 24 + align(HEADER + 4 + length));
+    }
+  }
+
+  public void boxed(Expr node, Object value) {
+    if (value instanceof Double) {
+      count(node, BOXED_DOUBLE, BOX);
+    }
+    else if (value instanceof Long) {
+      // Long.valueOf() keeps the small ones
+      long number = (Long) value;
+      if (number < -128 || number > 127) {
+        count(node, BOXED_LONG, BOX);
+      }
+    }
+  }
+
+  public void printOnExit(PrintStream stream) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> print(stream)));
+  }
+
+  // the totals of each kind, then the sites that allocated the most bytes
+  public void print(PrintStream stream) {
+    long[] counts = new long[KINDS.length];
+    long[] bytes = new long[KINDS.length];
+    List<Object[]> sites = new ArrayList<>();
+    for (Map.Entry<Object, Tally[]> entry : tallies.entrySet()) {
+      Tally[] kinds = entry.getValue();
+      for (int kind = 0; kind < KINDS.length; kind++) {
+        if (kinds[kind] == null) {
+          continue;
+        }
+        long count = kinds[kind].count.sum();
+        long size = kinds[kind].bytes.sum();
+        counts[kind] += count;
+        bytes[kind] += size;
+        sites.add(new Object[] { entry.getKey(), kind, count, size });
+      }
+    }
+    sites.sort((a, b) -> Long.compare((long) b[3], (long) a[3]));
+
+    stream.println();
+    stream.printf("%-18s %14s %16s%n", "kind", "allocations", "bytes");
+    for (int kind = 0; kind < KINDS.length; kind++) {
+      if (counts[kind] > 0) {
+        stream.printf(
+          "%-18s %14d %16d%n",
+          KINDS[kind],
+          counts[kind],
+          bytes[kind]
+        );
+      }
+    }
+
+    stream.println();
+    stream.printf(
+      "%-10s %-18s %14s %16s%n",
+      "line",
+      "kind",
+      "allocations",
+      "bytes"
+    );
+    for (Object[] site : sites.subList(0, Math.min(TOP, sites.size()))) {
+      Token token = Positions.at(site[0]);
+      stream.printf(
+        "%-10s %-18s %14d %16d%n",
+        token == null ? "?" : token.line + ":" + token.column,
+        KINDS[(int) site[1]],
+        (long) site[2],
+        (long) site[3]
+      );
+    }
+    stream.flush();
+  }
+}
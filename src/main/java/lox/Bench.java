@@ -0,0 +1,126 @@
+package lox;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+// the bench() native: runs a function of no arguments repeatedly and
+// reports how long a call takes, in nanoseconds, and how much it allocates
+class Bench {
+  private static final int DEFAULT_WARMUP = 1000;
+  private static final int DEFAULT_ITERATIONS = 10000;
+  // every iteration keeps its time until the end, so this bounds the
+  // memory the times take to 128 MB
+  private static final int MAX_ITERATIONS = 1 << 24;
+
+  private Bench() {}
+
+  public static LoxMap run(
+    Interpreter interpreter,
+    LoxCallable function,
+    LoxMap options
+  ) {
+    if (function.arity() != 0) {
+      throw new RuntimeError(
+        null,
+        "Benchmarked function must take no arguments"
+      );
+    }
+
+    int warmup = option(options, "warmup", DEFAULT_WARMUP, Integer.MAX_VALUE);
+    int iterations = option(
+      options,
+      "iterations",
+      DEFAULT_ITERATIONS,
+      MAX_ITERATIONS
+    );
+    if (iterations < 1) {
+      throw new RuntimeError(null, "Benchmark needs at least one iteration");
+    }
+
+    for (int i = 0; i < warmup; i++) {
+      function.call0(interpreter);
+    }
+
+    long[] times = new long[iterations];
+    long allocatedBefore = allocatedBytes();
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      function.call0(interpreter);
+      times[i] = System.nanoTime() - start;
+    }
+    long allocatedAfter = allocatedBytes();
+
+    long total = 0;
+    for (long time : times) {
+      total += time;
+    }
+    Arrays.sort(times);
+
+    LoxMap result = new LoxMap(5);
+    result.put("iterations", (long) iterations);
+    result.put("mean", (double) total / iterations);
+    result.put("p50", percentile(times, 0.50));
+    result.put("p99", percentile(times, 0.99));
+    if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+      result.put(
+        "bytesPerOp",
+        (double) (allocatedAfter - allocatedBefore) / iterations
+      );
+    }
+    else {
+      result.put("bytesPerOp", null);
+    }
+    return result;
+  }
+
+  // a count from the options, which has to be a whole number from 0 to max
+  private static int option(
+    LoxMap options,
+    String name,
+    int otherwise,
+    int max
+  ) {
+    if (options == null || !options.has(name)) {
+      return otherwise;
+    }
+
+    Object value = options.get(name);
+    double number = value instanceof Number
+      ? ((Number) value).doubleValue()
+      : Double.NaN;
+    if (!(number >= 0 && number <= max && number == Math.rint(number))) {
+      throw new RuntimeError(
+        null,
+        "Benchmark option '"
+        + name
+        + "' must be a whole number from 0 to "
+        + max
+      );
+    }
+    return (int) number;
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(index, 0)];
+  }
+
+  // bytes allocated by this thread so far, or -1 if the JVM can't tell
+  private static long allocatedBytes() {
+    // the HotSpot bean extends the standard one with allocation counts
+    Object threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof ThreadMXBean)) {
+      return -1;
+    }
+
+    ThreadMXBean hotspot = (ThreadMXBean) threads;
+    if (!hotspot.isThreadAllocatedMemorySupported()) {
+      return -1;
+    }
+    if (!hotspot.isThreadAllocatedMemoryEnabled()) {
+      hotspot.setThreadAllocatedMemoryEnabled(true);
+    }
+    return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -6,4 +6,10 @@ interface CallableNode {
   public List<Token> getParams();
   public List<Stmt> getBody();
   public Token getName();
+  public boolean isGenerator();
+  public boolean isAsync();
+  public int getFrameSize();
+  public void setFrameSize(int frameSize);
+  public Token getSharedWrite();
+  public void setSharedWrite(Token sharedWrite);
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// a left-associative chain of '+' that contains a string literal, flattened
+// by the resolver so it can be built with a single StringBuilder
+class Concatenation {
+  final Expr[] operands;
+  // operators[i] is the '+' between operands[i] and operands[i + 1]
+  final Token[] operators;
+  // length of the last string this chain produced, used to presize the next.
+  // a program can run on many threads at once, so this is only a hint that
+  // may be stale or lost; an int write can't tear and nothing relies on it
+  int lengthHint;
+
+  public Concatenation(List<Expr> operands, List<Token> operators) {
+    this.operands = operands.toArray(new Expr[0]);
+    this.operators = operators.toArray(new Token[0]);
+
+    int estimate = 0;
+    for (Expr operand : operands) {
+      if (
+        operand instanceof Expr.Literal
+        && ((Expr.Literal) operand).value instanceof String
+      ) {
+        estimate += ((String) ((Expr.Literal) operand).value).length();
+      }
+      else {
+        estimate += 8;
+      }
+    }
+    this.lengthHint = estimate;
+  }
+
+  // the chain of '+' that ends at this expression, or null if none of its
+  // operands is a string literal
+  public static Concatenation flatten(Expr.Binary expr) {
+    List<Expr> operands = new ArrayList<>();
+    List<Token> operators = new ArrayList<>();
+    boolean hasString = false;
+
+    // walk down the left spine of the chain, collecting it right to left
+    Expr current = expr;
+    while (
+      current instanceof Expr.Binary
+      && ((Expr.Binary) current).operator.type == TokenType.PLUS
+    ) {
+      Expr.Binary binary = (Expr.Binary) current;
+      operands.add(binary.right);
+      operators.add(binary.operator);
+      hasString |= isStringLiteral(binary.right);
+      current = binary.left;
+    }
+    operands.add(current);
+    hasString |= isStringLiteral(current);
+
+    if (!hasString) {
+      return null;
+    }
+
+    Collections.reverse(operands);
+    Collections.reverse(operators);
+    return new Concatenation(operands, operators);
+  }
+
+  private static boolean isStringLiteral(Expr expr) {
+    return expr instanceof Expr.Literal
+      && ((Expr.Literal) expr).value instanceof String;
+  }
+}
@@ -0,0 +1,89 @@
+package lox;
+
+// an interpreter that counts how many times each node runs and how long
+// it takes, leaving out the time spent in the nodes under it. it wraps the
+// methods every node goes through; while this class isn't loaded the JIT
+// knows those methods have no overrides and calls them directly, so
+// scripts that aren't being counted don't pay for any of it
+class CountingInterpreter extends Interpreter {
+  private final NodeProfile profile;
+  // the time spent so far in the nodes under the one that is running
+  private long inner = 0;
+
+  CountingInterpreter(
+    Output output,
+    Diagnostics diagnostics,
+    NodeProfile profile
+  ) {
+    super(output, diagnostics);
+    this.profile = profile;
+  }
+
+  private CountingInterpreter(CountingInterpreter parent) {
+    super(parent);
+    this.profile = parent.profile;
+  }
+
+  @Override
+  Interpreter fork() {
+    return new CountingInterpreter(this);
+  }
+
+  @Override
+  Object evaluate(Expr expr) {
+    long start = System.nanoTime();
+    long outer = inner;
+    inner = 0;
+    try {
+      return super.evaluate(expr);
+    }
+    finally {
+      count(expr, start, outer);
+    }
+  }
+
+  @Override
+  int evaluateNumber(Expr expr) {
+    long start = System.nanoTime();
+    long outer = inner;
+    inner = 0;
+    try {
+      return super.evaluateNumber(expr);
+    }
+    finally {
+      count(expr, start, outer);
+    }
+  }
+
+  @Override
+  void assignUnboxed(Expr.Assign expr) {
+    long start = System.nanoTime();
+    long outer = inner;
+    inner = 0;
+    try {
+      super.assignUnboxed(expr);
+    }
+    finally {
+      count(expr, start, outer);
+    }
+  }
+
+  @Override
+  void execute(Stmt stmt) {
+    long start = System.nanoTime();
+    long outer = inner;
+    inner = 0;
+    try {
+      super.execute(stmt);
+    }
+    finally {
+      count(stmt, start, outer);
+    }
+  }
+
+  private void count(Object node, long start, long outer) {
+    long elapsed = System.nanoTime() - start;
+    profile.count(node, elapsed - inner);
+    inner = outer + elapsed;
+  }
+}
@@ -0,0 +1,389 @@
+package lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// a long-running interpreter that scripts are sent to over a Unix domain
+// socket, so that they don't each pay for starting a JVM and warming up
+// the tree-walker. every script runs in a fresh isolate; compiled programs
+// are cached by their source, and the JIT stays warm between them.
+//
+// a client sends its working directory and the source of a script, and
+// the daemon sends back frames of stdout and stderr followed by the exit
+// code. each frame is a type byte, a length and that many bytes. relative
+// paths in the script are relative to the client's working directory.
+//
+// anyone who can connect to the socket can run scripts as the user the
+// daemon runs as, so it lives in a directory only that user can get into,
+// which both ends check before they bind or connect
+class Daemon {
+  private static final byte REQUEST = 0;
+  private static final byte STDOUT = 1;
+  private static final byte STDERR = 2;
+  private static final byte EXIT = 3;
+  private static final byte DIRECTORY = 4;
+
+  private static final int CACHED_PROGRAMS = 256;
+
+  // the most recently run programs, by source
+  private final Map<String, Program> programs = new LinkedHashMap<
+    String,
+    Program
+  >(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+      return size() > CACHED_PROGRAMS;
+    }
+  };
+
+  private Daemon() {}
+
+  // where the daemon listens unless LOX_SOCKET says otherwise: the user's
+  // runtime directory, or a directory of their own in the temporary one
+  public static Path socketPath() {
+    String path = System.getenv("LOX_SOCKET");
+    if (path != null && !path.isEmpty()) {
+      return Paths.get(path);
+    }
+    String runtime = System.getenv("XDG_RUNTIME_DIR");
+    if (runtime != null && !runtime.isEmpty()) {
+      return Paths.get(runtime, "jlox.sock");
+    }
+    return Paths.get(
+      System.getProperty("java.io.tmpdir"),
+      "jlox-" + System.getProperty("user.name"),
+      "jlox.sock"
+    );
+  }
+
+  // fails unless the directory of the socket belongs to the user and no
+  // one else can get into it, creating it that way if it doesn't exist
+  private static void checkDirectory(Path path) throws IOException {
+    Path directory = path.toAbsolutePath().getParent();
+    if (Files.notExists(directory, LinkOption.NOFOLLOW_LINKS)) {
+      try {
+        Files.createDirectory(
+          directory,
+          PosixFilePermissions.asFileAttribute(
+            PosixFilePermissions.fromString("rwx------")
+          )
+        );
+      }
+      catch (FileAlreadyExistsException error) {
+        // someone else made it first, which the checks below catch
+      }
+    }
+
+    PosixFileAttributes attributes = Files.readAttributes(
+      directory,
+      PosixFileAttributes.class,
+      LinkOption.NOFOLLOW_LINKS
+    );
+    Set<PosixFilePermission> permissions = attributes.permissions();
+    permissions.removeAll(EnumSet.of(
+      PosixFilePermission.OWNER_READ,
+      PosixFilePermission.OWNER_WRITE,
+      PosixFilePermission.OWNER_EXECUTE
+    ));
+    if (
+      !attributes.isDirectory()
+      || !attributes.owner().equals(user(directory))
+      || !permissions.isEmpty()
+    ) {
+      throw new IOException(
+        directory + " must be a directory that only "
+          + System.getProperty("user.name") + " can access"
+      );
+    }
+  }
+
+  private static UserPrincipal user(Path path) throws IOException {
+    return path.getFileSystem().getUserPrincipalLookupService()
+      .lookupPrincipalByName(System.getProperty("user.name"));
+  }
+
+  public static void serve(Path path) throws IOException {
+    checkDirectory(path);
+    if (Files.exists(path)) {
+      if (isListening(path)) {
+        throw new IOException("A daemon is already listening on " + path);
+      }
+      // left behind by a daemon that didn't shut down cleanly
+      Files.delete(path);
+    }
+
+    ServerSocketChannel server = ServerSocketChannel.open(
+      StandardProtocolFamily.UNIX
+    );
+    server.bind(UnixDomainSocketAddress.of(path));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        Files.deleteIfExists(path);
+      }
+      catch (IOException error) {
+        // nothing to be done while exiting
+      }
+    }));
+    Metrics.register();
+    System.err.println("jlox daemon listening on " + path);
+
+    Daemon daemon = new Daemon();
+    for (;;) {
+      SocketChannel client = server.accept();
+      Threads.start("client", () -> daemon.handle(client));
+    }
+  }
+
+  private static boolean isListening(Path path) {
+    try {
+      SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+      return true;
+    }
+    catch (IOException error) {
+      return false;
+    }
+  }
+
+  private void handle(SocketChannel client) {
+    try (SocketChannel channel = client) {
+      Frames frames = new Frames(channel);
+      byte[] directory = frames.read(DIRECTORY);
+      byte[] request = directory == null ? null : frames.read(REQUEST);
+      if (request == null) {
+        return;
+      }
+      String source = new String(request, Charset.defaultCharset());
+
+      int status;
+      PrintStream err = new PrintStream(
+        new FrameStream(frames, STDERR),
+        true,
+        Charset.defaultCharset().name()
+      );
+      try {
+        status = run(
+          Paths.get(new String(directory, StandardCharsets.UTF_8)),
+          source,
+          new FrameStream(frames, STDOUT),
+          err
+        );
+      }
+      catch (Throwable error) {
+        // the script brought down its isolate, not the daemon
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        err.print(trace);
+        err.flush();
+        status = 1;
+      }
+      frames.write(EXIT, ByteBuffer.allocate(4).putInt(status).array());
+    }
+    catch (IOException error) {
+      // the client went away; there is no one left to tell
+    }
+  }
+
+  private int run(
+    Path directory,
+    String source,
+    OutputStream out,
+    PrintStream err
+  ) {
+    Isolate isolate = new Isolate(out, err, false);
+    isolate.setDirectory(directory);
+    try {
+      Program program;
+      synchronized (programs) {
+        program = programs.get(source);
+      }
+      Metrics.program(program != null);
+      if (program == null) {
+        program = isolate.compile(source);
+        if (program == null) {
+          return 65;
+        }
+        synchronized (programs) {
+          programs.put(source, program);
+        }
+      }
+
+      isolate.run(program);
+      if (isolate.hadError()) {
+        return 65;
+      }
+      if (isolate.hadRuntimeError()) {
+        return 70;
+      }
+      return 0;
+    }
+    finally {
+      isolate.close();
+    }
+  }
+
+  // sends a script to the daemon and copies what comes back to stdout and
+  // stderr, returning the exit code. only needs the JDK, so a client
+  // starts about as fast as a JVM can
+  public static int submit(Path path, String script) throws IOException {
+    byte[] source = Files.readAllBytes(Paths.get(script));
+    checkDirectory(path);
+    if (!Files.getOwner(path).equals(user(path))) {
+      throw new IOException(path + " belongs to someone else");
+    }
+    try (SocketChannel channel = SocketChannel.open(
+      UnixDomainSocketAddress.of(path)
+    )) {
+      Frames frames = new Frames(channel);
+      frames.write(
+        DIRECTORY,
+        Paths.get("").toAbsolutePath().toString()
+          .getBytes(StandardCharsets.UTF_8)
+      );
+      frames.write(REQUEST, source);
+
+      OutputStream out = new FileOutputStream(FileDescriptor.out);
+      OutputStream err = new FileOutputStream(FileDescriptor.err);
+      for (;;) {
+        byte type = frames.readType();
+        if (type < 0) {
+          err.write(
+            "Lost the connection to the daemon\n"
+              .getBytes(StandardCharsets.UTF_8)
+          );
+          return 70;
+        }
+        byte[] payload = frames.readPayload();
+        switch (type) {
+          case STDOUT:
+            out.write(payload);
+            break;
+          case STDERR:
+            err.write(payload);
+            break;
+          case EXIT:
+            return ByteBuffer.wrap(payload).getInt();
+          default:
+            throw new IOException("Unexpected frame from the daemon");
+        }
+      }
+    }
+  }
+
+  // reading and writing frames on a socket. stdout and stderr are written
+  // from whatever threads the script uses, so writes are synchronized
+  private static class Frames {
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(5);
+
+    Frames(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    synchronized void write(byte type, byte[] bytes) throws IOException {
+      write(type, bytes, 0, bytes.length);
+    }
+
+    synchronized void write(byte type, byte[] bytes, int offset, int length)
+      throws IOException {
+      ByteBuffer frame = ByteBuffer.allocate(5 + length);
+      frame.put(type).putInt(length).put(bytes, offset, length).flip();
+      while (frame.hasRemaining()) {
+        channel.write(frame);
+      }
+    }
+
+    // the payload of the next frame, which has to be of the given type, or
+    // null if the other end closed the connection
+    byte[] read(byte expected) throws IOException {
+      byte type = readType();
+      if (type < 0) {
+        return null;
+      }
+      if (type != expected) {
+        throw new IOException("Unexpected frame type " + type);
+      }
+      return readPayload();
+    }
+
+    // the type of the next frame, or -1 at the end of the stream
+    byte readType() throws IOException {
+      header.clear();
+      if (!fill(header)) {
+        return -1;
+      }
+      header.flip();
+      return header.get();
+    }
+
+    byte[] readPayload() throws IOException {
+      int length = header.getInt();
+      if (length < 0) {
+        throw new IOException("Invalid frame length " + length);
+      }
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      if (!fill(payload)) {
+        throw new ClosedChannelException();
+      }
+      return payload.array();
+    }
+
+    private boolean fill(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  // an output stream that goes out as frames of one type
+  private static class FrameStream extends OutputStream {
+    private final Frames frames;
+    private final byte type;
+
+    FrameStream(Frames frames, byte type) {
+      this.frames = frames;
+      this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      frames.write(type, new byte[] { (byte) b });
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+      throws IOException {
+      if (length > 0) {
+        frames.write(type, bytes, offset, length);
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Set;
+
+// where the scanner, parser, resolver and interpreter of one isolate report
+// errors, and whether any have been reported since the last reset. tasks
+// can report errors from several threads at once
+class Diagnostics {
+  private final PrintStream stream;
+  private final Output output;
+  private volatile boolean hadError = false;
+  private volatile boolean hadRuntimeError = false;
+  // warnings are only given once for each place in the code
+  private final Set<Token> warned = new HashSet<>();
+
+  public Diagnostics(PrintStream stream, Output output) {
+    this.stream = stream;
+    this.output = output;
+  }
+
+  public boolean hadError() {
+    return hadError;
+  }
+
+  public boolean hadRuntimeError() {
+    return hadRuntimeError;
+  }
+
+  public void reset() {
+    hadError = false;
+    hadRuntimeError = false;
+  }
+
+  public void error(int line, int column, String message) {
+    report(line, column, "", message);
+  }
+
+  public void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line, token.column, " at end", message);
+    }
+    else {
+      report(
+        token.line,
+        token.column,
+        " at '" + token.lexeme + "'",
+        message
+      );
+    }
+  }
+
+  // a problem that doesn't stop the script
+  public synchronized void warning(Token token, String message) {
+    if (!warned.add(token)) {
+      return;
+    }
+    output.flush();
+    stream.println(
+      "[line "
+      + token.line
+      + ":"
+      + token.column
+      + "] Warning at '"
+      + token.lexeme
+      + "': "
+      + message
+    );
+  }
+
+  public synchronized void runtimeError(RuntimeError error) {
+    Flight.error(error);
+    Metrics.error(error.getMessage());
+    // keep what the script printed before the error above it
+    output.flush();
+    // a failed operation that nothing waited for has no place in the code
+    if (error.token == null) {
+      stream.println(error.getMessage());
+      hadRuntimeError = true;
+      return;
+    }
+    stream.println(
+      error.getMessage()
+      + "\n[line "
+      + error.token.line
+      + ":"
+      + error.token.column
+      + "]"
+    );
+    hadRuntimeError = true;
+  }
+
+  private void report(int line, int col, String where, String msg) {
+    output.flush();
+    stream.println(
+      "[line " + line + ":" + col + "] Error" + where + ": " + msg
+    );
+    hadError = true;
+  }
+}
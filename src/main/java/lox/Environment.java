@@ -1,33 +1,87 @@
 package lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class Environment {
+  private static final Object[] EMPTY = new Object[0];
+  // stand in for the value of a slot whose number is kept in the bits lane
+  private static final Object INTEGER = new Object();
+  private static final Object DOUBLE = new Object();
+
   public final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
+  // only the global environment looks variables up by name; everything
+  // else is accessed through the slot the resolver assigned
+  final Globals globals;
+  private Object[] values;
+  // numbers stored without boxing: a long, or the raw bits of a double.
+  // only allocated once a frame stores one
+  private long[] bits = null;
+  private int count = 0;
 
   public Environment() {
     enclosing = null;
+    globals = new Globals();
+    values = EMPTY;
   }
 
   public Environment(Environment enclosing) {
+    this(enclosing, 0);
+  }
+
+  public Environment(Environment enclosing, int capacity) {
     this.enclosing = enclosing;
+    this.globals = null;
+    this.values = capacity == 0 ? EMPTY : new Object[capacity];
+    if (Flight.allocations) {
+      Flight.environment();
+    }
+  }
+
+  // returns the slot the value went into, or -1 for a global
+  public int define(String name, Object value) {
+    if (globals != null) {
+      globals.define(name, value);
+      return -1;
+    }
+
+    return defineSlot(value);
+  }
+
+  // locals are defined in the same order the resolver declared them, so
+  // the next slot is always the one it assigned
+  public int defineSlot(Object value) {
+    if (count == values.length) {
+      values = Arrays.copyOf(values, Math.max(count * 2, 4));
+    }
+    values[count] = value;
+    return count++;
+  }
+
+  public int defineInteger(long value) {
+    int slot = defineSlot(null);
+    setInteger(slot, value);
+    return slot;
+  }
+
+  public int defineDouble(long bits) {
+    int slot = defineSlot(null);
+    setDouble(slot, bits);
+    return slot;
   }
 
-  public void define(String name, Object value) {
-    values.put(name, value);
+  public int size() {
+    return count;
   }
 
-  public Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+  public Object getAt(int distance, int slot) {
+    return ancestor(distance).get(slot);
   }
 
-  public void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+  public void assignAt(int distance, int slot, Object value) {
+    ancestor(distance).values[slot] = value;
   }
 
-  private Environment ancestor(int distance) {
+  Environment ancestor(int distance) {
     Environment environment = this;
     for (int i = 0; i < distance; i++) {
       environment = environment.enclosing;
@@ -36,29 +90,65 @@ class Environment {
     return environment;
   }
 
-  public Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+  // boxes numbers from the bits lane, for callers that need an object
+  public Object get(int slot) {
+    Object value = values[slot];
+    if (value == INTEGER) {
+      return bits[slot];
+    }
+    if (value == DOUBLE) {
+      return Double.longBitsToDouble(bits[slot]);
     }
+    return value;
+  }
+
+  public boolean holdsInteger(int slot) {
+    return values[slot] == INTEGER;
+  }
 
+  public boolean holdsDouble(int slot) {
+    return values[slot] == DOUBLE;
+  }
+
+  public long bits(int slot) {
+    return bits[slot];
+  }
+
+  public void set(int slot, Object value) {
+    values[slot] = value;
+  }
+
+  public void setInteger(int slot, long value) {
+    values[slot] = INTEGER;
+    ensureBits()[slot] = value;
+  }
+
+  public void setDouble(int slot, long bits) {
+    values[slot] = DOUBLE;
+    ensureBits()[slot] = bits;
+  }
+
+  private long[] ensureBits() {
+    if (bits == null || bits.length < values.length) {
+      bits = bits == null
+        ? new long[values.length]
+        : Arrays.copyOf(bits, values.length);
+    }
+    return bits;
+  }
+
+  public Object get(Token name) {
     if (enclosing != null) {
       return enclosing.get(name);
     }
-
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+    return globals.get(name, Globals.symbol(name.lexeme));
   }
 
   public void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-
     if (enclosing != null) {
       enclosing.assign(name, value);
       return;
     }
-
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+    globals.assign(name, Globals.symbol(name.lexeme), value);
   }
 }
@@ -0,0 +1,383 @@
+package lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// the event loop of an isolate. sockets are multiplexed on a Selector and
+// files are read and written with AsynchronousFileChannel, whose
+// completions are posted back here, so any number of operations can be in
+// flight without a thread each. the loop has no thread of its own: it runs
+// on whichever thread is waiting on it, which is the top level of the
+// script awaiting a promise, or the end of the script waiting for the
+// work that is left. only one thread drives it at a time, and it runs one
+// callback or coroutine at a time
+class EventLoop {
+  // something registered with the selector
+  interface Handler {
+    void ready(SelectionKey key);
+  }
+
+  private static class Timer implements Comparable<Timer> {
+    final long deadline;
+    final long sequence;
+    final Runnable action;
+
+    Timer(long deadline, long sequence, Runnable action) {
+      this.deadline = deadline;
+      this.sequence = sequence;
+      this.action = action;
+    }
+
+    @Override
+    public int compareTo(Timer other) {
+      if (deadline != other.deadline) {
+        return Long.compare(deadline, other.deadline);
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private final Diagnostics diagnostics;
+  // callbacks ready to run. other threads add to this, so it's concurrent
+  private final ConcurrentLinkedQueue<Runnable> ready =
+    new ConcurrentLinkedQueue<>();
+  private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+  private long timerSequence = 0;
+  // operations that have been started and will post a callback when they
+  // finish. the loop is only idle once there are none
+  private final AtomicInteger pending = new AtomicInteger();
+  private final ReentrantLock driving = new ReentrantLock();
+  private final List<LoxPromise> rejections = new ArrayList<>();
+  // the coroutines that have started and not yet finished, for close() to
+  // unwind
+  private final Set<LoxCoroutine> coroutines = ConcurrentHashMap.newKeySet();
+  private volatile Selector selector = null;
+
+  public EventLoop(Diagnostics diagnostics) {
+    this.diagnostics = diagnostics;
+  }
+
+  // queues a callback to run on the loop. safe to call from any thread
+  public void post(Runnable callback) {
+    ready.add(callback);
+    Selector selector = this.selector;
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  // an operation that will post its completion later
+  public void begin() {
+    pending.incrementAndGet();
+  }
+
+  // called on the loop by the completion of an operation
+  public void end() {
+    pending.decrementAndGet();
+  }
+
+  public void started(LoxCoroutine coroutine) {
+    coroutines.add(coroutine);
+  }
+
+  public void finished(LoxCoroutine coroutine) {
+    coroutines.remove(coroutine);
+  }
+
+  public void rejected(LoxPromise promise) {
+    rejections.add(promise);
+  }
+
+  // drives the loop until the promise settles
+  public Object await(LoxPromise promise) {
+    run(promise::isSettled);
+    if (!promise.isSettled()) {
+      throw new RuntimeError(
+        null,
+        "Awaited a promise that nothing is left to settle"
+      );
+    }
+    return promise.result();
+  }
+
+  // drives the loop until everything started has finished, then reports
+  // the rejections no one waited for
+  public void finish() {
+    run(() -> false);
+
+    List<LoxPromise> unhandled = new ArrayList<>(rejections);
+    rejections.clear();
+    for (LoxPromise promise : unhandled) {
+      if (!promise.isHandled()) {
+        diagnostics.runtimeError(promise.error());
+      }
+    }
+  }
+
+  private void run(BooleanSupplier done) {
+    driving.lock();
+    try {
+      while (!done.getAsBoolean() && turn()) {
+        // keep going
+      }
+    }
+    finally {
+      driving.unlock();
+    }
+  }
+
+  // runs what is ready, then waits for something else to happen. returns
+  // false if nothing ever will
+  private boolean turn() {
+    Runnable callback;
+    while ((callback = ready.poll()) != null) {
+      callback.run();
+    }
+    fireTimers();
+
+    if (pending.get() == 0 && ready.isEmpty()) {
+      return false;
+    }
+
+    Selector selector = selector();
+    try {
+      if (!ready.isEmpty()) {
+        selector.selectNow();
+      }
+      else if (!timers.isEmpty()) {
+        long wait = timers.peek().deadline - System.nanoTime();
+        selector.select(Math.max(1, (wait + 999_999) / 1_000_000));
+      }
+      else {
+        selector.select();
+      }
+    }
+    catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+
+    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      if (key.isValid()) {
+        ((Handler) key.attachment()).ready(key);
+      }
+    }
+    return true;
+  }
+
+  private void fireTimers() {
+    long now = System.nanoTime();
+    while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+      timers.poll().action.run();
+    }
+  }
+
+  private Selector selector() {
+    if (selector == null) {
+      try {
+        selector = Selector.open();
+      }
+      catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+    return selector;
+  }
+
+  // unwinds the coroutines still waiting on promises, and closes the
+  // selector and the sockets still registered with it. the loop isn't used
+  // again after this
+  public void close() {
+    for (LoxCoroutine coroutine : new ArrayList<>(coroutines)) {
+      coroutine.close();
+    }
+    coroutines.clear();
+
+    Selector selector = this.selector;
+    if (selector == null) {
+      return;
+    }
+    this.selector = null;
+    for (SelectionKey key : selector.keys()) {
+      try {
+        key.channel().close();
+      }
+      catch (IOException error) {
+        // closing is all that's left to do with it
+      }
+    }
+    try {
+      selector.close();
+    }
+    catch (IOException error) {
+      // nor with the selector
+    }
+  }
+
+  // sets which operations the loop waits for on a channel. called on the
+  // loop
+  public void interest(SelectableChannel channel, Handler handler, int ops) {
+    SelectionKey key = channel.keyFor(selector());
+    try {
+      if (key == null) {
+        channel.register(selector(), ops, handler);
+      }
+      else {
+        key.interestOps(ops);
+      }
+    }
+    catch (ClosedChannelException error) {
+      // whoever closed it has already settled what was waiting on it
+    }
+  }
+
+  public LoxPromise sleep(long milliseconds) {
+    LoxPromise promise = new LoxPromise(this);
+    long deadline = System.nanoTime() + milliseconds * 1_000_000;
+    begin();
+    post(() -> timers.add(new Timer(deadline, timerSequence++, () -> {
+      end();
+      promise.fulfill(null);
+    })));
+    return promise;
+  }
+
+  public LoxPromise readFile(String path) {
+    LoxPromise promise = new LoxPromise(this);
+    begin();
+    try {
+      AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+        Paths.get(path),
+        StandardOpenOption.READ
+      );
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE - 8) {
+        channel.close();
+        throw new IOException("file is too large to read into a string");
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+        @Override
+        public void completed(Integer count, Void attachment) {
+          if (count >= 0 && buffer.hasRemaining()) {
+            channel.read(buffer, buffer.position(), null, this);
+            return;
+          }
+          close(channel);
+          buffer.flip();
+          String text = StandardCharsets.UTF_8.decode(buffer).toString();
+          complete(promise, text);
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+          close(channel);
+          fail(promise, "Could not read file '" + path + "'", error);
+        }
+      });
+    }
+    catch (NoSuchFileException error) {
+      fail(promise, "File '" + path + "' does not exist", null);
+    }
+    catch (IOException error) {
+      fail(promise, "Could not read file '" + path + "'", error);
+    }
+    return promise;
+  }
+
+  public LoxPromise writeFile(String path, String text) {
+    LoxPromise promise = new LoxPromise(this);
+    begin();
+    try {
+      AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+        Paths.get(path),
+        StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING
+      );
+      ByteBuffer buffer = StandardCharsets.UTF_8.encode(text);
+      channel.write(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+        @Override
+        public void completed(Integer count, Void attachment) {
+          if (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position(), null, this);
+            return;
+          }
+          close(channel);
+          complete(promise, null);
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+          close(channel);
+          fail(promise, "Could not write file '" + path + "'", error);
+        }
+      });
+    }
+    catch (IOException error) {
+      fail(promise, "Could not write file '" + path + "'", error);
+    }
+    return promise;
+  }
+
+  public LoxPromise connect(String host, int port) {
+    return LoxSocket.connect(this, host, port);
+  }
+
+  public LoxServer listen(String host, int port) {
+    return LoxServer.listen(this, host, port);
+  }
+
+  // settles an operation that was started with begin(), from any thread
+  public void complete(LoxPromise promise, Object value) {
+    post(() -> {
+      end();
+      promise.fulfill(value);
+    });
+  }
+
+  public void fail(LoxPromise promise, String message, Throwable cause) {
+    post(() -> reject(promise, message, cause));
+  }
+
+  // rejects an operation that was started with begin(), on the loop
+  public void reject(LoxPromise promise, String message, Throwable cause) {
+    String detail = cause == null || cause.getMessage() == null
+      ? ""
+      : ": " + cause.getMessage();
+    end();
+    promise.reject(new RuntimeError(null, message + detail));
+  }
+
+  private static void close(AsynchronousFileChannel channel) {
+    try {
+      channel.close();
+    }
+    catch (IOException error) {
+      // the operation itself is what gets reported
+    }
+  }
+}
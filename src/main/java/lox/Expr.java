@@ -4,15 +4,19 @@ import java.util.List;
 
 abstract class Expr {
   interface Visitor<R> {
+    R visitArrayExpr(Array expr);
     R visitAssignExpr(Assign expr);
+    R visitAwaitExpr(Await expr);
     R visitCallExpr(Call expr);
     R visitBinaryExpr(Binary expr);
     R visitGetExpr(Get expr);
     R visitGroupingExpr(Grouping expr);
+    R visitIndexExpr(Index expr);
     R visitLambdaExpr(Lambda expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
     R visitSetExpr(Set expr);
+    R visitSetIndexExpr(SetIndex expr);
     R visitSuperExpr(Super expr);
     R visitTernaryExpr(Ternary expr);
     R visitThisExpr(This expr);
@@ -22,7 +26,84 @@ abstract class Expr {
 
   abstract <R> R accept(Visitor<R> visitor);
 
-  static class Assign extends Expr {
+  // identifies this version of the nodes in snapshots
+  static final int SCHEMA = 0xbdcf1ff;
+
+  abstract void write(Snapshot.Writer out);
+
+  // the node write() saved in a snapshot, given the number it wrote first
+  static Expr read(Snapshot.Reader in, int node) {
+    switch (node) {
+      case 0:
+        return Array.read(in);
+      case 1:
+        return Assign.read(in);
+      case 2:
+        return Await.read(in);
+      case 3:
+        return Call.read(in);
+      case 4:
+        return Binary.read(in);
+      case 5:
+        return Get.read(in);
+      case 6:
+        return Grouping.read(in);
+      case 7:
+        return Index.read(in);
+      case 8:
+        return Lambda.read(in);
+      case 9:
+        return Literal.read(in);
+      case 10:
+        return Logical.read(in);
+      case 11:
+        return Set.read(in);
+      case 12:
+        return SetIndex.read(in);
+      case 13:
+        return Super.read(in);
+      case 14:
+        return Ternary.read(in);
+      case 15:
+        return This.read(in);
+      case 16:
+        return Unary.read(in);
+      case 17:
+        return Variable.read(in);
+      default:
+        throw new IllegalStateException("Unknown Expr node " + node);
+    }
+  }
+
+  static class Array extends Expr {
+    final Token bracket;
+    final List<Expr> elements;
+
+    public Array(Token bracket, List<Expr> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+    
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitArrayExpr(this);
+    }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(0);
+      out.writeToken(bracket);
+      out.writeExprs(elements);
+    }
+
+    static Array read(Snapshot.Reader in) {
+      Array node = new Array(
+        in.readToken(),
+        in.readExprs()
+      );
+      return node;
+    }
+  }
+
+  static class Assign extends Expr implements VariableNode {
     final Token name;
     final Expr value;
 
@@ -31,9 +112,70 @@ abstract class Expr {
       this.value = value;
     }
     
+    public void resolve(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    // set by the resolver: how many environments up the variable is, or -1
+    // for a global, and which slot it has there. the slot of a global is
+    // its symbol in Globals
+    int depth = -1;
+    int slot = 0;
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitAssignExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(1);
+      out.writeToken(name);
+      out.writeExpr(value);
+      out.writeInt(depth);
+      out.writeInt(depth == -1 ? 0 : slot);
+    }
+
+    static Assign read(Snapshot.Reader in) {
+      Assign node = new Assign(
+        in.readToken(),
+        in.readExpr()
+      );
+      int depth = in.readInt();
+      int slot = in.readInt();
+      if (depth == -1) {
+        slot = Globals.symbol(node.name.lexeme);
+      }
+      node.resolve(depth, slot);
+      return node;
+    }
+  }
+
+  static class Await extends Expr {
+    final Token keyword;
+    final Expr value;
+
+    public Await(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+    
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitAwaitExpr(this);
+    }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(2);
+      out.writeToken(keyword);
+      out.writeExpr(value);
+    }
+
+    static Await read(Snapshot.Reader in) {
+      Await node = new Await(
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
   static class Call extends Expr {
@@ -50,6 +192,22 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(3);
+      out.writeExpr(callee);
+      out.writeToken(paren);
+      out.writeExprs(arguments);
+    }
+
+    static Call read(Snapshot.Reader in) {
+      Call node = new Call(
+        in.readExpr(),
+        in.readToken(),
+        in.readExprs()
+      );
+      return node;
+    }
   }
 
   static class Binary extends Expr {
@@ -63,9 +221,32 @@ abstract class Expr {
       this.right = right;
     }
     
+    // set by the resolver if this is a chain of string concatenations
+    Concatenation concatenation = null;
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBinaryExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(4);
+      out.writeExpr(left);
+      out.writeToken(operator);
+      out.writeExpr(right);
+      out.writeBoolean(concatenation != null);
+    }
+
+    static Binary read(Snapshot.Reader in) {
+      Binary node = new Binary(
+        in.readExpr(),
+        in.readToken(),
+        in.readExpr()
+      );
+      if (in.readBoolean()) {
+        node.concatenation = Concatenation.flatten(node);
+      }
+      return node;
+    }
   }
 
   static class Get extends Expr {
@@ -80,6 +261,20 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitGetExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(5);
+      out.writeExpr(object);
+      out.writeToken(name);
+    }
+
+    static Get read(Snapshot.Reader in) {
+      Get node = new Get(
+        in.readExpr(),
+        in.readToken()
+      );
+      return node;
+    }
   }
 
   static class Grouping extends Expr {
@@ -92,17 +287,65 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitGroupingExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(6);
+      out.writeExpr(expression);
+    }
+
+    static Grouping read(Snapshot.Reader in) {
+      Grouping node = new Grouping(
+        in.readExpr()
+      );
+      return node;
+    }
+  }
+
+  static class Index extends Expr {
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+
+    public Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+    
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(7);
+      out.writeExpr(object);
+      out.writeToken(bracket);
+      out.writeExpr(index);
+    }
+
+    static Index read(Snapshot.Reader in) {
+      Index node = new Index(
+        in.readExpr(),
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
   static class Lambda extends Expr implements CallableNode {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    final boolean isGenerator;
+    final boolean isAsync;
 
-    public Lambda(Token name, List<Token> params, List<Stmt> body) {
+    public Lambda(Token name, List<Token> params, List<Stmt> body, boolean isGenerator, boolean isAsync) {
       this.name = name;
       this.params = params;
       this.body = body;
+      this.isGenerator = isGenerator;
+      this.isAsync = isAsync;
     }
     
     public List<Token> getParams() {
@@ -117,9 +360,63 @@ abstract class Expr {
       return this.name;
     }
 
+    public boolean isGenerator() {
+      return this.isGenerator;
+    }
+
+    public boolean isAsync() {
+      return this.isAsync;
+    }
+
+    public int getFrameSize() {
+      return this.frameSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+      this.frameSize = frameSize;
+    }
+
+    public Token getSharedWrite() {
+      return this.sharedWrite;
+    }
+
+    public void setSharedWrite(Token sharedWrite) {
+      this.sharedWrite = sharedWrite;
+    }
+
+    // set by the resolver: how many slots a call's environment needs
+    int frameSize = 0;
+    // set by the resolver: the name in the first assignment to a variable
+    // from outside the function, if the body makes one
+    Token sharedWrite = null;
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLambdaExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(8);
+      out.writeToken(name);
+      out.writeTokens(params);
+      out.writeStmts(body);
+      out.writeBoolean(isGenerator);
+      out.writeBoolean(isAsync);
+      out.writeInt(frameSize);
+      out.writeToken(sharedWrite);
+    }
+
+    static Lambda read(Snapshot.Reader in) {
+      Lambda node = new Lambda(
+        in.readToken(),
+        in.readTokens(),
+        in.readStmts(),
+        in.readBoolean(),
+        in.readBoolean()
+      );
+      node.frameSize = in.readInt();
+      node.sharedWrite = in.readToken();
+      return node;
+    }
   }
 
   static class Literal extends Expr {
@@ -132,6 +429,18 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLiteralExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(9);
+      out.writeLiteral(value);
+    }
+
+    static Literal read(Snapshot.Reader in) {
+      Literal node = new Literal(
+        in.readLiteral()
+      );
+      return node;
+    }
   }
 
   static class Logical extends Expr {
@@ -148,6 +457,22 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLogicalExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(10);
+      out.writeExpr(left);
+      out.writeToken(operator);
+      out.writeExpr(right);
+    }
+
+    static Logical read(Snapshot.Reader in) {
+      Logical node = new Logical(
+        in.readExpr(),
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
   static class Set extends Expr {
@@ -164,9 +489,61 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitSetExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(11);
+      out.writeExpr(object);
+      out.writeToken(name);
+      out.writeExpr(value);
+    }
+
+    static Set read(Snapshot.Reader in) {
+      Set node = new Set(
+        in.readExpr(),
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
-  static class Super extends Expr {
+  static class SetIndex extends Expr {
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+
+    public SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+    
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSetIndexExpr(this);
+    }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(12);
+      out.writeExpr(object);
+      out.writeToken(bracket);
+      out.writeExpr(index);
+      out.writeExpr(value);
+    }
+
+    static SetIndex read(Snapshot.Reader in) {
+      SetIndex node = new SetIndex(
+        in.readExpr(),
+        in.readToken(),
+        in.readExpr(),
+        in.readExpr()
+      );
+      return node;
+    }
+  }
+
+  static class Super extends Expr implements VariableNode {
     final Token keyword;
     final Token method;
 
@@ -175,9 +552,37 @@ abstract class Expr {
       this.method = method;
     }
     
+    public void resolve(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    // set by the resolver: how many environments up the variable is, or -1
+    // for a global, and which slot it has there. the slot of a global is
+    // its symbol in Globals
+    int depth = -1;
+    int slot = 0;
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitSuperExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(13);
+      out.writeToken(keyword);
+      out.writeToken(method);
+      out.writeInt(depth);
+      out.writeInt(slot);
+    }
+
+    static Super read(Snapshot.Reader in) {
+      Super node = new Super(
+        in.readToken(),
+        in.readToken()
+      );
+      node.resolve(in.readInt(), in.readInt());
+      return node;
+    }
   }
 
   static class Ternary extends Expr {
@@ -198,18 +603,64 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitTernaryExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(14);
+      out.writeExpr(left);
+      out.writeToken(leftOperator);
+      out.writeExpr(middle);
+      out.writeToken(rightOperator);
+      out.writeExpr(right);
+    }
+
+    static Ternary read(Snapshot.Reader in) {
+      Ternary node = new Ternary(
+        in.readExpr(),
+        in.readToken(),
+        in.readExpr(),
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
-  static class This extends Expr {
+  static class This extends Expr implements VariableNode {
     final Token keyword;
 
     public This(Token keyword) {
       this.keyword = keyword;
     }
     
+    public void resolve(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    // set by the resolver: how many environments up the variable is, or -1
+    // for a global, and which slot it has there. the slot of a global is
+    // its symbol in Globals
+    int depth = -1;
+    int slot = 0;
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitThisExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(15);
+      out.writeToken(keyword);
+      out.writeInt(depth);
+      out.writeInt(slot);
+    }
+
+    static This read(Snapshot.Reader in) {
+      This node = new This(
+        in.readToken()
+      );
+      node.resolve(in.readInt(), in.readInt());
+      return node;
+    }
   }
 
   static class Unary extends Expr {
@@ -224,18 +675,63 @@ abstract class Expr {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitUnaryExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(16);
+      out.writeToken(operator);
+      out.writeExpr(right);
+    }
+
+    static Unary read(Snapshot.Reader in) {
+      Unary node = new Unary(
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
-  static class Variable extends Expr {
+  static class Variable extends Expr implements VariableNode {
     final Token name;
 
     public Variable(Token name) {
       this.name = name;
     }
     
+    public void resolve(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    // set by the resolver: how many environments up the variable is, or -1
+    // for a global, and which slot it has there. the slot of a global is
+    // its symbol in Globals
+    int depth = -1;
+    int slot = 0;
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitVariableExpr(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(17);
+      out.writeToken(name);
+      out.writeInt(depth);
+      out.writeInt(depth == -1 ? 0 : slot);
+    }
+
+    static Variable read(Snapshot.Reader in) {
+      Variable node = new Variable(
+        in.readToken()
+      );
+      int depth = in.readInt();
+      int slot = in.readInt();
+      if (depth == -1) {
+        slot = Globals.symbol(node.name.lexeme);
+      }
+      node.resolve(depth, slot);
+      return node;
+    }
   }
 
 }
\ No newline at end of file
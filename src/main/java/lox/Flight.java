@@ -0,0 +1,230 @@
+package lox;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// events for Java Flight Recorder, so that what scripts do shows up in the
+// same recording as the GC and the JIT. creating the first event loads
+// enough of JFR to take longer than most scripts do, so nothing here is
+// touched until something has started the recorder, on the command line
+// or with jcmd, which is checked whenever a script is compiled or run. a
+// recording started while a script runs sees the scripts after it.
+//
+// phases and errors are rare enough to create their events whenever JFR
+// is up, and they do nothing unless they're being recorded. calls and
+// allocations are far too common for that, so they check a flag first
+// that is only set while a recording wants them
+final class Flight {
+  private static volatile boolean started = false;
+
+  // whether a recording is running that has the event enabled, kept up to
+  // date by a listener
+  static volatile boolean calls = false;
+  static volatile boolean allocations = false;
+
+  private static final LongAdder environments = new LongAdder();
+  // instances allocated since the last period, by the name of their class
+  private static final Map<String, LongAdder> instances =
+    new ConcurrentHashMap<>();
+
+  private Flight() {}
+
+  private static boolean started() {
+    if (!started && FlightRecorder.isInitialized()) {
+      start();
+    }
+    return started;
+  }
+
+  private static synchronized void start() {
+    if (started) {
+      return;
+    }
+    FlightRecorder.addPeriodicEvent(
+      EnvironmentAllocations.class,
+      Flight::emitEnvironments
+    );
+    FlightRecorder.addPeriodicEvent(
+      InstanceAllocations.class,
+      Flight::emitInstances
+    );
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recorderInitialized(FlightRecorder recorder) {
+        update();
+      }
+
+      @Override
+      public void recordingStateChanged(Recording recording) {
+        update();
+      }
+    });
+    started = true;
+  }
+
+  private static void update() {
+    calls = EventType.getEventType(CallEvent.class).isEnabled();
+    allocations =
+      EventType.getEventType(EnvironmentAllocations.class).isEnabled()
+      || EventType.getEventType(InstanceAllocations.class).isEnabled();
+  }
+
+  @Name("lox.Phase")
+  @Label("Lox Phase")
+  @Category("Lox")
+  @Description("Scanning, parsing, resolving or executing a script")
+  @StackTrace(false)
+  static final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+  }
+
+  @Name("lox.Call")
+  @Label("Lox Call")
+  @Category("Lox")
+  @Description("A call of a Lox function that took longer than the threshold")
+  @Threshold("20 ms")
+  @StackTrace(false)
+  static final class CallEvent extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    @Description("The line the function is declared on")
+    int line;
+  }
+
+  @Name("lox.RuntimeError")
+  @Label("Lox Runtime Error")
+  @Category("Lox")
+  @StackTrace(false)
+  static final class ErrorEvent extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+
+    @Label("Column")
+    int column;
+  }
+
+  @Name("lox.EnvironmentAllocations")
+  @Label("Lox Environment Allocations")
+  @Category("Lox")
+  @Description("Environments allocated since the last period")
+  @Period("1 s")
+  @StackTrace(false)
+  static final class EnvironmentAllocations extends Event {
+    @Label("Count")
+    long count;
+  }
+
+  @Name("lox.InstanceAllocations")
+  @Label("Lox Instance Allocations")
+  @Category("Lox")
+  @Description("Instances of a class allocated since the last period")
+  @Period("1 s")
+  @StackTrace(false)
+  static final class InstanceAllocations extends Event {
+    @Label("Class")
+    String loxClass;
+
+    @Label("Count")
+    long count;
+  }
+
+  // begins an event for a phase, or returns null when JFR isn't running
+  static PhaseEvent phase(String phase) {
+    if (!started()) {
+      return null;
+    }
+    PhaseEvent event = new PhaseEvent();
+    event.phase = phase;
+    event.begin();
+    return event;
+  }
+
+  static void end(PhaseEvent event) {
+    if (event != null) {
+      event.commit();
+    }
+  }
+
+  // begins an event for a call, or returns null when none are recorded
+  static CallEvent call() {
+    if (!calls) {
+      return null;
+    }
+    CallEvent event = new CallEvent();
+    event.begin();
+    return event;
+  }
+
+  static void called(CallEvent event, CallableNode declaration) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.function = declaration.getName().lexeme;
+      event.line = declaration.getName().line;
+      event.commit();
+    }
+  }
+
+  static void error(RuntimeError error) {
+    if (!started()) {
+      return;
+    }
+    ErrorEvent event = new ErrorEvent();
+    if (event.isEnabled()) {
+      event.message = error.getMessage();
+      if (error.token != null) {
+        event.line = error.token.line;
+        event.column = error.token.column;
+      }
+      event.commit();
+    }
+  }
+
+  static void environment() {
+    environments.increment();
+  }
+
+  static void instance(LoxClass klass) {
+    LongAdder count = instances.get(klass.name);
+    if (count == null) {
+      count = instances.computeIfAbsent(klass.name, name -> new LongAdder());
+    }
+    count.increment();
+  }
+
+  private static void emitEnvironments() {
+    EnvironmentAllocations event = new EnvironmentAllocations();
+    event.count = environments.sumThenReset();
+    event.commit();
+  }
+
+  private static void emitInstances() {
+    for (Map.Entry<String, LongAdder> entry : instances.entrySet()) {
+      long count = entry.getValue().sumThenReset();
+      if (count > 0) {
+        InstanceAllocations event = new InstanceAllocations();
+        event.loxClass = entry.getKey();
+        event.count = count;
+        event.commit();
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// the global variables of an isolate, which all of its tasks, coroutines
+// and parallel workers share. the resolver links every global name in a
+// program to a symbol, a number that is the same for that name in every
+// isolate, and each isolate keeps the cell of a global at that index of an
+// array. reading a global is then two loads and no hashing or locking;
+// only the first use of a name in an isolate copies the array.
+//
+// symbols are for the whole process, so that programs can be shared
+// between isolates, which means a daemon would grow the table, and every
+// isolate's array with it, with each new name any script ever used. only
+// so many names get a symbol; the rest are looked up by name in a map
+class Globals {
+  static final int SYMBOLS = 4096;
+  // the symbol of a name that didn't get one
+  static final int UNINTERNED = -1;
+
+  private static final ConcurrentHashMap<String, Integer> symbols =
+    new ConcurrentHashMap<>();
+  private static final AtomicInteger nextSymbol = new AtomicInteger();
+
+  // the value of a cell for a name that has been used but never defined
+  private static final Object UNDEFINED = new Object();
+
+  static final class Cell {
+    final String name;
+    volatile Object value = UNDEFINED;
+
+    Cell(String name) {
+      this.name = name;
+    }
+  }
+
+  // replaced, never changed, so that readers need no lock
+  private volatile Cell[] cells = new Cell[0];
+  // the globals of names without a symbol
+  private final Map<String, Cell> uninterned = new ConcurrentHashMap<>();
+
+  public static int symbol(String name) {
+    Integer symbol = symbols.get(name);
+    if (symbol != null) {
+      return symbol;
+    }
+    if (symbols.size() >= SYMBOLS) {
+      return UNINTERNED;
+    }
+    symbol = symbols.computeIfAbsent(name, key -> {
+      int next = nextSymbol.getAndIncrement();
+      return next < SYMBOLS ? next : null;
+    });
+    return symbol == null ? UNINTERNED : symbol;
+  }
+
+  public Cell cell(String name, int symbol) {
+    if (symbol == UNINTERNED) {
+      return uninterned.computeIfAbsent(name, Cell::new);
+    }
+    Cell[] cells = this.cells;
+    if (symbol < cells.length && cells[symbol] != null) {
+      return cells[symbol];
+    }
+    return create(name, symbol);
+  }
+
+  private synchronized Cell create(String name, int symbol) {
+    Cell[] cells = this.cells;
+    if (symbol < cells.length && cells[symbol] != null) {
+      return cells[symbol];
+    }
+
+    int length = symbol < cells.length
+      ? cells.length
+      : Math.max(symbol + 1, cells.length * 2);
+    Cell[] copy = Arrays.copyOf(cells, length);
+    Cell cell = new Cell(name);
+    copy[symbol] = cell;
+    this.cells = copy;
+    return cell;
+  }
+
+  public void define(String name, Object value) {
+    cell(name, symbol(name)).value = value;
+  }
+
+  public Object get(Token name, int symbol) {
+    Object value = cell(name.lexeme, symbol).value;
+    if (value == UNDEFINED) {
+      throw undefined(name);
+    }
+    return value;
+  }
+
+  public void assign(Token name, int symbol, Object value) {
+    Cell cell = cell(name.lexeme, symbol);
+    if (cell.value == UNDEFINED) {
+      throw undefined(name);
+    }
+    cell.value = value;
+  }
+
+  // every defined global, in the order their names were first seen, then
+  // those without a symbol
+  public Map<String, Object> values() {
+    Map<String, Object> values = new LinkedHashMap<>();
+    for (Cell cell : cells) {
+      if (cell != null && cell.value != UNDEFINED) {
+        values.put(cell.name, cell.value);
+      }
+    }
+    for (Cell cell : uninterned.values()) {
+      if (cell.value != UNDEFINED) {
+        values.put(cell.name, cell.value);
+      }
+    }
+    return values;
+  }
+
+  private static RuntimeError undefined(Token name) {
+    return new RuntimeError(
+      name,
+      "Undefined variable '" + name.lexeme + "'"
+    );
+  }
+}
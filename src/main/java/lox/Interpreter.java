@@ -1,111 +1,385 @@
 package lox;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-  public Environment globals = new Environment();
-  private final Map<Expr, Integer> locals = new HashMap<>();
-  private Environment environment = globals;
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+  private static final int CALL_BATCH = 4096;
+
+  // the kinds of value evaluateNumber() can produce
+  private static final int OBJECT = 0;
+  private static final int INTEGER = 1;
+  private static final int DOUBLE = 2;
+
+  public final Environment globals;
+  // the cells behind globals, read directly by the symbol the resolver
+  // linked a name to
+  private final Globals globalCells;
+  final Output output;
+  final Diagnostics diagnostics;
+  final EventLoop loop;
+  // what relative file paths are relative to, when it isn't the working
+  // directory of the process
+  Path directory = null;
+
+  // the execution state of one thread of Lox code. every task, generator
+  // and coroutine runs on an interpreter of its own that shares the globals
+  Environment environment;
+  // the generator or async call whose body this interpreter is running
+  LoxGenerator.State generator = null;
+  LoxCoroutine coroutine = null;
+  // the calls this interpreter is in, kept only while profiling
+  Profiler.Stack stack = null;
+  // counts what this interpreter allocates, kept only when asked for
+  AllocationProfile allocations = null;
+  // calls not yet added to Metrics, which they go to in batches
+  private int calls = 0;
+
+  // where evaluateNumber() leaves its result, so numbers don't have to be
+  // boxed to be returned
+  private long numberResult;
+  private Object objectResult;
+
+  // an interpreter for code running alongside the one it was forked from
+  Interpreter(Interpreter parent) {
+    this.globals = parent.globals;
+    this.globalCells = parent.globalCells;
+    this.output = parent.output;
+    this.diagnostics = parent.diagnostics;
+    this.loop = parent.loop;
+    this.environment = globals;
+    if (parent.stack != null) {
+      this.stack = parent.stack.fork();
+    }
+    this.allocations = parent.allocations;
+    this.directory = parent.directory;
+  }
 
-  public Interpreter() {
-    globals.define("time", new LoxCallable() {
-      @Override
-      public int arity() { return 0; }
+  // a file path a script gave, relative to the isolate's directory
+  String resolve(String path) {
+    if (directory == null) {
+      return path;
+    }
+    return directory.resolve(path).toString();
+  }
+
+  // an interpreter for a task, generator or coroutine started by this one
+  Interpreter fork() {
+    return new Interpreter(this);
+  }
 
+  public Interpreter(Output output, Diagnostics diagnostics) {
+    this.globals = new Environment();
+    this.globalCells = globals.globals;
+    this.output = output;
+    this.diagnostics = diagnostics;
+    this.loop = new EventLoop(diagnostics);
+    this.environment = globals;
+
+    globals.define("time", new NativeFunction(0) {
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
+      public Object call0(Interpreter interpreter) {
         return (double) System.currentTimeMillis() / 1000.0;
       }
-
+    });
+    globals.define("clock_ns", new NativeFunction(0) {
       @Override
-      public String toString() {
-        return "<native function>";
+      public Object call0(Interpreter interpreter) {
+        return System.nanoTime();
       }
     });
-    globals.define("print", new LoxCallable() {
+    globals.define("bench", new NativeFunction(2) {
       @Override
-      public int arity() { return 1; }
-
+      public Object call2(
+        Interpreter interpreter,
+        Object function,
+        Object options
+      ) {
+        if (!(function instanceof LoxCallable)) {
+          throw new RuntimeError(null, "Can only benchmark functions");
+        }
+        if (options != null && !(options instanceof LoxMap)) {
+          throw new RuntimeError(
+            null,
+            "Benchmark options must be a map or nil"
+          );
+        }
+        return Bench.run(interpreter, (LoxCallable) function, (LoxMap) options);
+      }
+    });
+    globals.define("print", new NativeFunction(1) {
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        System.out.print(Interpreter.stringify(arguments.get(0)));
+      public Object call1(Interpreter interpreter, Object value) {
+        interpreter.output.print(Interpreter.stringify(value));
         return null;
       }
-
+    });
+    globals.define("println", new NativeFunction(1) {
       @Override
-      public String toString() {
-        return "<native function>";
+      public Object call1(Interpreter interpreter, Object value) {
+        interpreter.output.println(Interpreter.stringify(value));
+        return null;
       }
     });
-    globals.define("println", new LoxCallable() {
-      @Override
-      public int arity() { return 1; }
-
+    globals.define("flush", new NativeFunction(0) {
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        System.out.println(Interpreter.stringify(arguments.get(0)));
+      public Object call0(Interpreter interpreter) {
+        interpreter.output.flush();
         return null;
       }
-
+    });
+    globals.define("Array", new NativeFunction(0) {
       @Override
-      public String toString() {
-        return "<native function>";
+      public Object call0(Interpreter interpreter) {
+        return new LoxArray();
       }
     });
-    globals.define("assert", new LoxCallable() {
+    globals.define("Map", new NativeFunction(0) {
       @Override
-      public int arity() { return 2; }
-
+      public Object call0(Interpreter interpreter) {
+        return new LoxMap();
+      }
+    });
+    globals.define("sizedMap", new NativeFunction(1) {
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        if (!isTruthy(arguments.get(0))) {
-          throw new AssertionError(arguments.get(1).toString());
+      public Object call1(Interpreter interpreter, Object expected) {
+        if (!isNumber(expected) || toDouble(expected) < 0) {
+          throw new RuntimeError(
+            null,
+            "Map size must be a non-negative number"
+          );
         }
-        return null;
+        if (toDouble(expected) > LoxMap.MAX_EXPECTED) {
+          throw new RuntimeError(
+            null,
+            "Map size must be at most " + LoxMap.MAX_EXPECTED
+          );
+        }
+        return new LoxMap((int) toDouble(expected));
       }
-
+    });
+    globals.define("mapFile", new NativeFunction(1) {
+      @Override
+      public Object call1(Interpreter interpreter, Object path) {
+        if (!(path instanceof String)) {
+          throw new RuntimeError(null, "File path must be a string");
+        }
+        return LoxFile.map(interpreter.resolve((String) path));
+      }
+    });
+    globals.define("spawn", new NativeFunction(1) {
+      @Override
+      public Object call1(Interpreter interpreter, Object function) {
+        if (
+          !(function instanceof LoxCallable)
+          || ((LoxCallable) function).arity() != 0
+        ) {
+          throw new RuntimeError(
+            null,
+            "Can only spawn functions that take no arguments"
+          );
+        }
+        return LoxTask.spawn(interpreter, (LoxCallable) function);
+      }
+    });
+    globals.define("Channel", new NativeFunction(0) {
+      @Override
+      public Object call0(Interpreter interpreter) {
+        return new LoxChannel(0);
+      }
+    });
+    globals.define("bufferedChannel", new NativeFunction(1) {
       @Override
-      public String toString() {
-        return "<native function>";
+      public Object call1(Interpreter interpreter, Object capacity) {
+        if (!(capacity instanceof Long) || (long) capacity < 1) {
+          throw new RuntimeError(
+            null,
+            "Channel capacity must be a positive integer"
+          );
+        }
+        return new LoxChannel((int) Math.min((long) capacity, 1 << 20));
+      }
+    });
+    globals.define("parallelMap", new NativeFunction(2) {
+      @Override
+      public Object call2(
+        Interpreter interpreter,
+        Object array,
+        Object function
+      ) {
+        checkParallel(array, function);
+        return Parallel.map(
+          interpreter,
+          (LoxArray) array,
+          (LoxCallable) function
+        );
+      }
+    });
+    globals.define("parallelFilter", new NativeFunction(2) {
+      @Override
+      public Object call2(
+        Interpreter interpreter,
+        Object array,
+        Object function
+      ) {
+        checkParallel(array, function);
+        return Parallel.filter(
+          interpreter,
+          (LoxArray) array,
+          (LoxCallable) function
+        );
+      }
+    });
+    globals.define("parallelReduce", new NativeFunction(3) {
+      @Override
+      public Object call3(
+        Interpreter interpreter,
+        Object array,
+        Object function,
+        Object identity
+      ) {
+        checkParallel(array, function);
+        return Parallel.reduce(
+          interpreter,
+          (LoxArray) array,
+          (LoxCallable) function,
+          identity
+        );
+      }
+    });
+    globals.define("sleep", new NativeFunction(1) {
+      @Override
+      public Object call1(Interpreter interpreter, Object milliseconds) {
+        if (!isNumber(milliseconds) || toDouble(milliseconds) < 0) {
+          throw new RuntimeError(
+            null,
+            "Sleep time must be a non-negative number"
+          );
+        }
+        return interpreter.loop.sleep((long) toDouble(milliseconds));
+      }
+    });
+    globals.define("readFile", new NativeFunction(1) {
+      @Override
+      public Object call1(Interpreter interpreter, Object path) {
+        if (!(path instanceof String)) {
+          throw new RuntimeError(null, "File path must be a string");
+        }
+        return interpreter.loop.readFile(interpreter.resolve((String) path));
+      }
+    });
+    globals.define("writeFile", new NativeFunction(2) {
+      @Override
+      public Object call2(Interpreter interpreter, Object path, Object text) {
+        if (!(path instanceof String)) {
+          throw new RuntimeError(null, "File path must be a string");
+        }
+        return interpreter.loop.writeFile(
+          interpreter.resolve((String) path),
+          stringify(text)
+        );
+      }
+    });
+    globals.define("connect", new NativeFunction(2) {
+      @Override
+      public Object call2(Interpreter interpreter, Object host, Object port) {
+        checkAddress(host, port);
+        return interpreter.loop.connect((String) host, (int) (long) port);
+      }
+    });
+    globals.define("listen", new NativeFunction(2) {
+      @Override
+      public Object call2(Interpreter interpreter, Object host, Object port) {
+        checkAddress(host, port);
+        return interpreter.loop.listen((String) host, (int) (long) port);
+      }
+    });
+    globals.define("assert", new NativeFunction(2) {
+      @Override
+      public Object call2(
+        Interpreter interpreter,
+        Object value,
+        Object message
+      ) {
+        if (!isTruthy(value)) {
+          throw new AssertionError(message.toString());
+        }
+        return null;
       }
     });
   }
 
+  private static void checkAddress(Object host, Object port) {
+    if (!(host instanceof String)) {
+      throw new RuntimeError(null, "Host must be a string");
+    }
+    if (
+      !(port instanceof Long)
+      || (long) port < 0
+      || (long) port > 65535
+    ) {
+      throw new RuntimeError(null, "Port must be an integer from 0 to 65535");
+    }
+  }
+
+  private static void checkParallel(Object array, Object function) {
+    if (!(array instanceof LoxArray)) {
+      throw new RuntimeError(null, "Can only run arrays in parallel");
+    }
+    if (!(function instanceof LoxCallable)) {
+      throw new RuntimeError(null, "Can only run functions in parallel");
+    }
+  }
+
+  // has the profiler sample this interpreter for as long as the current
+  // thread runs it, returning what exit() puts back afterwards
+  Profiler.Stack enter() {
+    return stack == null ? null : stack.enter();
+  }
+
+  void exit(Profiler.Stack previous) {
+    if (stack != null) {
+      stack.exit(previous);
+    }
+    Metrics.calls(calls);
+    calls = 0;
+  }
+
   public void interpret(List<Stmt> statements) {
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
+      // let the async calls and I/O the script started finish
+      loop.finish();
     }
     catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      diagnostics.runtimeError(error);
     }
   }
 
   public void interpret(Expr expression) {
     try {
-      System.out.println(evaluate(expression));
+      output.println(String.valueOf(evaluate(expression)));
     }
     catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      diagnostics.runtimeError(error);
     }
   }
 
-  private Object evaluate(Expr expr) {
+  // every node is evaluated or executed through one of these, or through
+  // evaluateNumber(), which is what CountingInterpreter overrides
+  Object evaluate(Expr expr) {
     return expr.accept(this);
   }
 
-  private void execute(Stmt stmt) {
+  void execute(Stmt stmt) {
     stmt.accept(this);
   }
 
-  public void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
-  }
-
   public void executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
     try {
@@ -122,6 +396,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
+    if (allocations != null) {
+      allocations.block(stmt, 0);
+    }
     executeBlock(stmt.statements, new Environment(environment));
     return null;
   }
@@ -131,8 +408,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     double levels = 1;
     if (stmt.levels != null) {
       Object result = evaluate(stmt.levels);
-      if (result instanceof Double) {
-        levels = (double) result;
+      if (isNumber(result)) {
+        levels = toDouble(result);
         if ((int) levels > stmt.maxLevels || levels < 0) {
           throw new RuntimeError(stmt.token, "Invalid number of levels");
         }
@@ -160,10 +437,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     }
 
-    environment.define(stmt.name.lexeme, null);
+    int slot = environment.define(stmt.name.lexeme, null);
 
     if (stmt.superclass != null) {
-      environment = new Environment(environment);
+      environment = new Environment(environment, 1);
       environment.define("super", superclass);
     }
 
@@ -172,6 +449,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       LoxFunction function = new LoxFunction(
         method,
         environment,
+        method.frameSize,
         method.name.lexeme.equals("init")
       );
       methods.put(method.name.lexeme, function);
@@ -182,6 +460,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       LoxFunction function = new LoxFunction(
         method,
         environment,
+        method.frameSize,
         false
       );
       staticMethods.put(method.name.lexeme, function);
@@ -198,19 +477,96 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment = environment.enclosing;
     }
 
-    environment.assign(stmt.name, klass);
+    if (slot < 0) {
+      environment.assign(stmt.name, klass);
+    }
+    else {
+      environment.assignAt(0, slot, klass);
+    }
     return null;
   }
 
   @Override
   public Void visitExpressionStmt(Stmt.Expression stmt) {
+    // the value of an assignment statement is never needed, so don't box it
+    if (stmt.expression instanceof Expr.Assign) {
+      assignUnboxed((Expr.Assign) stmt.expression);
+      return null;
+    }
+
     evaluate(stmt.expression);
     return null;
   }
 
+  @Override
+  public Void visitForInStmt(Stmt.ForIn stmt) {
+    LoxIterator iterator = iterator(stmt.in, evaluate(stmt.iterable));
+    try {
+      while (hasNext(stmt.in, iterator)) {
+        Environment environment = new Environment(this.environment);
+        environment.defineSlot(iterator.next());
+        if (allocations != null) {
+          // defining the variable grows the slots to four
+          allocations.block(stmt, 4);
+        }
+        try {
+          executeBlock(stmt.body, environment);
+        }
+        catch (Break error) {
+          if (error.levels > 1) {
+            error.levels -= 1;
+            throw error;
+          }
+          return null;
+        }
+      }
+    }
+    finally {
+      // lets a generator that was left suspended finish
+      iterator.close();
+    }
+    return null;
+  }
+
+  private static LoxIterator iterator(Token in, Object iterable) {
+    if (iterable instanceof LoxIterator) {
+      return (LoxIterator) iterable;
+    }
+    if (iterable instanceof LoxArray) {
+      return ((LoxArray) iterable).iterator();
+    }
+    if (iterable instanceof LoxMap) {
+      return ((LoxMap) iterable).iterator();
+    }
+    if (iterable instanceof LoxFile) {
+      return ((LoxFile) iterable).lines();
+    }
+    throw new RuntimeError(
+      in,
+      "Can only iterate over arrays, maps, files, generators and channels"
+    );
+  }
+
+  private static boolean hasNext(Token in, LoxIterator iterator) {
+    try {
+      return iterator.hasNext();
+    }
+    catch (RuntimeError error) {
+      if (error.token == null) {
+        throw new RuntimeError(in, error.getMessage());
+      }
+      throw error;
+    }
+  }
+
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    LoxFunction function = new LoxFunction(stmt, environment, false);
+    LoxFunction function = new LoxFunction(
+      stmt,
+      environment,
+      stmt.frameSize,
+      false
+    );
     environment.define(stmt.name.lexeme, function);
     return null;
   }
@@ -228,12 +584,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitLetStmt(Stmt.Let stmt) {
-    Object value = null;
-    if (stmt.initializer != null) {
-      value = evaluate(stmt.initializer);
+    if (stmt.initializer == null || environment == globals) {
+      Object value = null;
+      if (stmt.initializer != null) {
+        value = evaluate(stmt.initializer);
+      }
+
+      environment.define(stmt.name.lexeme, value);
+      return null;
     }
 
-    environment.define(stmt.name.lexeme, value);
+    switch (evaluateNumber(stmt.initializer)) {
+      case INTEGER:
+        environment.defineInteger(numberResult);
+        break;
+      case DOUBLE:
+        environment.defineDouble(numberResult);
+        break;
+      default:
+        environment.defineSlot(objectResult);
+        break;
+    }
     return null;
   }
 
@@ -264,128 +635,717 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    Object value = null;
+    if (stmt.value != null) {
+      value = evaluate(stmt.value);
+    }
+
+    generator.yield(value);
+    return null;
+  }
+
+  @Override
+  public Object visitArrayExpr(Expr.Array expr) {
+    LoxArray array = new LoxArray(expr.elements.size());
+    for (Expr element : expr.elements) {
+      array.push(evaluate(element));
+    }
+    return array;
+  }
+
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
-    Object value = evaluate(expr.value);
+    return box(expr, assign(expr));
+  }
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+  // an assignment whose value isn't used. this is where it goes instead of
+  // evaluate(), so CountingInterpreter counts it here
+  void assignUnboxed(Expr.Assign expr) {
+    assign(expr);
+  }
+
+  // stores the value of an assignment, leaving it in the registers like
+  // evaluateNumber() so that a statement that ignores it never boxes it
+  private int assign(Expr.Assign expr) {
+    if (expr.depth < 0) {
+      objectResult = evaluate(expr.value);
+      globalCells.assign(expr.name, expr.slot, objectResult);
+      return OBJECT;
     }
-    else {
-      globals.assign(expr.name, value);
+
+    int kind = evaluateNumber(expr.value);
+    Environment frame = environment.ancestor(expr.depth);
+    switch (kind) {
+      case INTEGER:
+        frame.setInteger(expr.slot, numberResult);
+        break;
+      case DOUBLE:
+        frame.setDouble(expr.slot, numberResult);
+        break;
+      default:
+        frame.set(expr.slot, objectResult);
+        break;
     }
+    return kind;
+  }
 
-    environment.assign(expr.name, value);
-    return value;
+  @Override
+  public Object visitAwaitExpr(Expr.Await expr) {
+    Object value = evaluate(expr.value);
+    if (!(value instanceof LoxPromise)) {
+      return value;
+    }
+
+    LoxPromise promise = (LoxPromise) value;
+    try {
+      if (coroutine != null) {
+        return coroutine.await(promise);
+      }
+      return loop.await(promise);
+    }
+    catch (RuntimeError error) {
+      if (error.token == null) {
+        throw new RuntimeError(expr.keyword, error.getMessage());
+      }
+      throw error;
+    }
   }
 
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
-    Object left = evaluate(expr.left);
-    Object right = evaluate(expr.right);
-
     switch (expr.operator.type) {
+      case PLUS: {
+        if (expr.concatenation != null) {
+          Object value = concatenate(expr.concatenation);
+          if (allocations != null) {
+            allocations.string(expr, value);
+          }
+          return value;
+        }
+        int kind = evaluateArithmetic(expr);
+        if (allocations != null && kind == OBJECT) {
+          allocations.string(expr, objectResult);
+        }
+        return box(expr, kind);
+      }
       case MINUS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left - (double) right;
       case SLASH:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left / (double) right;
       case STAR:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left * (double) right;
       case PERCENT:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left % (double) right;
-      case PLUS:
-        if (left instanceof Double && right instanceof Double) {
-          return (double) left + (double) right;
-        }
-        if (left instanceof String || right instanceof String) {
-          return stringify(left) + stringify(right);
-        }
-        throw new RuntimeError(
-          expr.operator,
-          "Operands must be two numbers or a string and something else"
-        );
+      case PIPE:
+      case CARET:
+      case AMPERSAND:
+      case LESS_LESS:
+      case GREATER_GREATER:
+        return box(expr, evaluateArithmetic(expr));
       case GREATER:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left > (double) right;
       case GREATER_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left >= (double) right;
       case LESS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left < (double) right;
       case LESS_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left <= (double) right;
+        return compare(expr);
       case EQUAL_EQUAL:
-        return isEqual(left, right);
+        return equal(expr);
       case BANG_EQUAL:
-        return !isEqual(left, right);
+        return !equal(expr);
       case BACKTICK:
-        return right;
+        evaluate(expr.left);
+        return evaluate(expr.right);
+      default: break;
+    }
+
+    // unreachable
+    return null;
+  }
+
+  // evaluates an expression without boxing it if it turns out to be a
+  // number. integers and the raw bits of doubles are left in numberResult,
+  // anything else in objectResult
+  int evaluateNumber(Expr expr) {
+    if (expr instanceof Expr.Literal) {
+      return unbox(((Expr.Literal) expr).value);
+    }
+    if (expr instanceof Expr.Variable) {
+      Expr.Variable variable = (Expr.Variable) expr;
+      if (variable.depth < 0) {
+        return unbox(globalCells.get(variable.name, variable.slot));
+      }
+
+      Environment frame = environment.ancestor(variable.depth);
+      if (frame.holdsInteger(variable.slot)) {
+        numberResult = frame.bits(variable.slot);
+        return INTEGER;
+      }
+      if (frame.holdsDouble(variable.slot)) {
+        numberResult = frame.bits(variable.slot);
+        return DOUBLE;
+      }
+      return unbox(frame.get(variable.slot));
+    }
+    if (expr instanceof Expr.Grouping) {
+      return evaluateNumber(((Expr.Grouping) expr).expression);
+    }
+    if (expr instanceof Expr.Binary && isArithmetic((Expr.Binary) expr)) {
+      return evaluateArithmetic((Expr.Binary) expr);
+    }
+    if (
+      expr instanceof Expr.Unary
+      && ((Expr.Unary) expr).operator.type == TokenType.MINUS
+    ) {
+      return evaluateNegation((Expr.Unary) expr);
+    }
+
+    // not through evaluate(), which would count the node a second time
+    return unbox(expr.accept(this));
+  }
+
+  private boolean isArithmetic(Expr.Binary expr) {
+    switch (expr.operator.type) {
+      case PLUS:
+        return expr.concatenation == null;
+      case MINUS:
+      case SLASH:
+      case STAR:
+      case PERCENT:
       case PIPE:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) (toInt(left) | toInt(right));
       case CARET:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) (toInt(left) ^ toInt(right));
       case AMPERSAND:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) (toInt(left) & toInt(right));
       case LESS_LESS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) (toInt(left) << toInt(right));
       case GREATER_GREATER:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) (toInt(left) >> toInt(right));
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private int evaluateArithmetic(Expr.Binary expr) {
+    int leftKind = evaluateNumber(expr.left);
+    long left = numberResult;
+    Object leftObject = objectResult;
+    int rightKind = evaluateNumber(expr.right);
+
+    if (leftKind == OBJECT || rightKind == OBJECT) {
+      Object leftValue = box(leftKind, left, leftObject);
+      Object rightValue = box(rightKind, numberResult, objectResult);
+      if (expr.operator.type == TokenType.PLUS) {
+        return unbox(addString(expr.operator, leftValue, rightValue));
+      }
+      throw new RuntimeError(expr.operator, "Operands must be numbers");
+    }
+
+    return calculate(
+      expr.operator.type,
+      leftKind, left,
+      rightKind, numberResult
+    );
+  }
+
+  private int evaluateNegation(Expr.Unary expr) {
+    switch (evaluateNumber(expr.right)) {
+      case INTEGER:
+        // zero negates to -0, as it did when every number was a double
+        if (numberResult != Long.MIN_VALUE && numberResult != 0) {
+          numberResult = -numberResult;
+          return INTEGER;
+        }
+        return setDouble(-(double) numberResult);
+      case DOUBLE:
+        return setDouble(-Double.longBitsToDouble(numberResult));
+      default:
+        throw new RuntimeError(expr.operator, "Operand must be a number");
+    }
+  }
+
+  // applies an arithmetic operator to two unboxed numbers. integer
+  // arithmetic stays integral, and only turns into floating point when the
+  // result doesn't fit in a long, or for division
+  private int calculate(
+    TokenType operator,
+    int leftKind, long left,
+    int rightKind, long right
+  ) {
+    // the bitwise operators work on all 64 bits, truncating fractions
+    switch (operator) {
+      case PIPE:
+        return setInteger(toLong(leftKind, left) | toLong(rightKind, right));
+      case CARET:
+        return setInteger(toLong(leftKind, left) ^ toLong(rightKind, right));
+      case AMPERSAND:
+        return setInteger(toLong(leftKind, left) & toLong(rightKind, right));
+      case LESS_LESS:
+        return setInteger(toLong(leftKind, left) << toLong(rightKind, right));
+      case GREATER_GREATER:
+        return setInteger(toLong(leftKind, left) >> toLong(rightKind, right));
       default: break;
     }
 
-    // unreachable
-    return null;
+    if (leftKind == INTEGER && rightKind == INTEGER) {
+      switch (operator) {
+        case PLUS: {
+          long result = left + right;
+          // overflowed if both operands have a different sign than the
+          // result
+          if (((left ^ result) & (right ^ result)) < 0) {
+            return setDouble((double) left + (double) right);
+          }
+          return setInteger(result);
+        }
+        case MINUS: {
+          long result = left - right;
+          if (((left ^ right) & (left ^ result)) < 0) {
+            return setDouble((double) left - (double) right);
+          }
+          return setInteger(result);
+        }
+        case STAR: {
+          long result = left * right;
+          // small operands can't overflow, so only check when either is big
+          if (
+            (Math.abs(left) | Math.abs(right)) >>> 31 != 0
+            && right != 0
+            && (result / right != left || left == Long.MIN_VALUE && right == -1)
+          ) {
+            return setDouble((double) left * (double) right);
+          }
+          // the results a double would have as -0 are -0 here too
+          if (result == 0 && (left ^ right) < 0) {
+            return setDouble(-0.0);
+          }
+          return setInteger(result);
+        }
+        case PERCENT:
+          if (right != 0) {
+            long result = left % right;
+            if (result == 0 && left < 0) {
+              return setDouble(-0.0);
+            }
+            return setInteger(result);
+          }
+          break;
+        default: break;
+      }
+    }
+
+    double a = toDouble(leftKind, left);
+    double b = toDouble(rightKind, right);
+    switch (operator) {
+      case PLUS:
+        return setDouble(a + b);
+      case MINUS:
+        return setDouble(a - b);
+      case STAR:
+        return setDouble(a * b);
+      case SLASH:
+        return setDouble(a / b);
+      case PERCENT:
+        return setDouble(a % b);
+      default:
+        // unreachable
+        return setDouble(Double.NaN);
+    }
+  }
+
+  private boolean compare(Expr.Binary expr) {
+    int leftKind = evaluateNumber(expr.left);
+    long left = numberResult;
+    int rightKind = evaluateNumber(expr.right);
+    long right = numberResult;
+
+    if (leftKind == OBJECT || rightKind == OBJECT) {
+      throw new RuntimeError(expr.operator, "Operands must be numbers");
+    }
+
+    if (leftKind == INTEGER && rightKind == INTEGER) {
+      switch (expr.operator.type) {
+        case GREATER:
+          return left > right;
+        case GREATER_EQUAL:
+          return left >= right;
+        case LESS:
+          return left < right;
+        default:
+          return left <= right;
+      }
+    }
+
+    double a = toDouble(leftKind, left);
+    double b = toDouble(rightKind, right);
+    switch (expr.operator.type) {
+      case GREATER:
+        return a > b;
+      case GREATER_EQUAL:
+        return a >= b;
+      case LESS:
+        return a < b;
+      default:
+        return a <= b;
+    }
+  }
+
+  private boolean equal(Expr.Binary expr) {
+    int leftKind = evaluateNumber(expr.left);
+    long left = numberResult;
+    Object leftObject = objectResult;
+    int rightKind = evaluateNumber(expr.right);
+    long right = numberResult;
+
+    if (leftKind == OBJECT || rightKind == OBJECT) {
+      return isEqual(
+        box(leftKind, left, leftObject),
+        box(rightKind, right, objectResult)
+      );
+    }
+
+    if (leftKind == rightKind) {
+      if (leftKind == DOUBLE) {
+        // the same as Double.equals, which is what boxed numbers used
+        return Double.doubleToLongBits(Double.longBitsToDouble(left))
+          == Double.doubleToLongBits(Double.longBitsToDouble(right));
+      }
+      return left == right;
+    }
+    if (leftKind == INTEGER) {
+      return isSameNumber(left, Double.longBitsToDouble(right));
+    }
+    return isSameNumber(right, Double.longBitsToDouble(left));
+  }
+
+  private int unbox(Object value) {
+    if (value instanceof Long) {
+      return setInteger((long) value);
+    }
+    if (value instanceof Double) {
+      return setDouble((double) value);
+    }
+    objectResult = value;
+    return OBJECT;
+  }
+
+  private int setInteger(long value) {
+    numberResult = value;
+    return INTEGER;
+  }
+
+  private int setDouble(double value) {
+    numberResult = Double.doubleToRawLongBits(value);
+    return DOUBLE;
+  }
+
+  // boxes the number an expression evaluated to, as its result
+  private Object box(Expr expr, int kind) {
+    Object value = box(kind, numberResult, objectResult);
+    if (allocations != null) {
+      allocations.boxed(expr, value);
+    }
+    return value;
+  }
+
+  private static Object box(int kind, long number, Object object) {
+    switch (kind) {
+      case INTEGER:
+        return number;
+      case DOUBLE:
+        return Double.longBitsToDouble(number);
+      default:
+        return object;
+    }
+  }
+
+  private static double toDouble(int kind, long number) {
+    if (kind == INTEGER) {
+      return (double) number;
+    }
+    return Double.longBitsToDouble(number);
+  }
+
+  private static long toLong(int kind, long number) {
+    if (kind == INTEGER) {
+      return number;
+    }
+    return (long) Double.longBitsToDouble(number);
+  }
+
+  // adds a string to something else. numbers are added by calculate()
+  private static Object addString(
+    Token operator,
+    Object left, Object right
+  ) {
+    if (isString(left) || isString(right)) {
+      if (
+        (isString(left) && toCharSequence(left).length() >= LoxRope.THRESHOLD)
+        || right instanceof LoxRope
+      ) {
+        return new LoxRope(toCharSequence(left), toCharSequence(right));
+      }
+      return stringify(left) + stringify(right);
+    }
+    throw new RuntimeError(
+      operator,
+      "Operands must be two numbers or a string and something else"
+    );
+  }
+
+  // adds two values that have already been evaluated
+  private Object add(Token operator, Object left, Object right) {
+    int leftKind = unbox(left);
+    long number = numberResult;
+    int rightKind = unbox(right);
+    if (leftKind == OBJECT || rightKind == OBJECT) {
+      return addString(operator, left, right);
+    }
+    return box(
+      calculate(TokenType.PLUS, leftKind, number, rightKind, numberResult),
+      numberResult,
+      objectResult
+    );
+  }
+
+  private Object concatenate(Concatenation concatenation) {
+    Expr[] operands = concatenation.operands;
+    Object value = evaluate(operands[0]);
+
+    // operands before the first string are still plain additions
+    StringBuilder builder = null;
+    CharSequence head = null;
+    for (int i = 1; i < operands.length; i++) {
+      Object right = evaluate(operands[i]);
+      if (builder == null) {
+        if (!isString(value) && !isString(right)) {
+          value = add(concatenation.operators[i - 1], value, right);
+          continue;
+        }
+        builder = new StringBuilder(concatenation.lengthHint);
+        // keep a long leading string as is and only build what follows it
+        if (
+          isString(value)
+          && toCharSequence(value).length() >= LoxRope.THRESHOLD
+        ) {
+          head = toCharSequence(value);
+        }
+        else {
+          append(builder, value);
+        }
+      }
+      append(builder, right);
+    }
+
+    if (builder == null) {
+      return value;
+    }
+    concatenation.lengthHint = builder.length();
+    if (head != null) {
+      return new LoxRope(head, builder.toString());
+    }
+    return builder.toString();
   }
 
   @Override
   public Object visitCallExpr(Expr.Call expr) {
-    Object callee = evaluate(expr.callee);
+    Object callee;
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) expr.callee;
+      Object object = evaluate(get.object);
+
+      // call native methods directly instead of binding them first
+      if (object instanceof NativeObject) {
+        NativeObject nativeObject = (NativeObject) object;
+        int arity = nativeObject.arity(get.name);
+        Object[] arguments = evaluateArguments(expr);
+        checkArity(expr.paren, arity, arguments.length);
+        flattenArguments(arguments);
+        return nativeObject.invoke(this, get.name, arguments);
+      }
 
-    List<Object> arguments = new ArrayList<>();
-    for (Expr argument : expr.arguments) {
-      arguments.add(evaluate(argument));
+      callee = getProperty(get, object);
+      if (allocations != null) {
+        allocations.property(get, object, callee);
+      }
+    }
+    else {
+      callee = evaluate(expr.callee);
     }
 
+    // up to four arguments are passed without an argument array
+    List<Expr> arguments = expr.arguments;
+    int depth = stack == null ? 0 : stack.depth();
+    try {
+      switch (arguments.size()) {
+        case 0: {
+          return callable(expr, callee, 0).call0(this);
+        }
+        case 1: {
+          Object a = evaluate(arguments.get(0));
+          LoxCallable function = callable(expr, callee, 1);
+          if (isNative(function)) {
+            a = flatten(a);
+          }
+          return function.call1(this, a);
+        }
+        case 2: {
+          Object a = evaluate(arguments.get(0));
+          Object b = evaluate(arguments.get(1));
+          LoxCallable function = callable(expr, callee, 2);
+          if (isNative(function)) {
+            a = flatten(a);
+            b = flatten(b);
+          }
+          return function.call2(this, a, b);
+        }
+        case 3: {
+          Object a = evaluate(arguments.get(0));
+          Object b = evaluate(arguments.get(1));
+          Object c = evaluate(arguments.get(2));
+          LoxCallable function = callable(expr, callee, 3);
+          if (isNative(function)) {
+            a = flatten(a);
+            b = flatten(b);
+            c = flatten(c);
+          }
+          return function.call3(this, a, b, c);
+        }
+        case 4: {
+          Object a = evaluate(arguments.get(0));
+          Object b = evaluate(arguments.get(1));
+          Object c = evaluate(arguments.get(2));
+          Object d = evaluate(arguments.get(3));
+          LoxCallable function = callable(expr, callee, 4);
+          if (isNative(function)) {
+            a = flatten(a);
+            b = flatten(b);
+            c = flatten(c);
+            d = flatten(d);
+          }
+          return function.call4(this, a, b, c, d);
+        }
+        default: {
+          Object[] values = evaluateArguments(expr);
+          LoxCallable function = callable(expr, callee, values.length);
+          if (isNative(function)) {
+            flattenArguments(values);
+          }
+          return function.call(this, values);
+        }
+      }
+    }
+    catch (RuntimeError error) {
+      // natives don't know where they were called from
+      if (error.token == null) {
+        throw new RuntimeError(expr.paren, error.getMessage());
+      }
+      throw error;
+    }
+    finally {
+      if (stack != null) {
+        stack.unwind(depth);
+      }
+    }
+  }
+
+  private Object[] evaluateArguments(Expr.Call expr) {
+    if (expr.arguments.isEmpty()) {
+      return NO_ARGUMENTS;
+    }
+
+    Object[] arguments = new Object[expr.arguments.size()];
+    if (allocations != null) {
+      allocations.arguments(expr, arguments.length);
+    }
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = evaluate(expr.arguments.get(i));
+    }
+    return arguments;
+  }
+
+  // the callee of a call whose arguments have been evaluated, which is
+  // where the profiler's stack has the call start
+  private LoxCallable callable(Expr.Call expr, Object callee, int count) {
     if (!(callee instanceof LoxCallable)) {
       throw new RuntimeError(expr.paren, "Invalid callee type");
     }
 
     LoxCallable function = (LoxCallable) callee;
-    if (arguments.size() != function.arity()) {
+    checkArity(expr.paren, function.arity(), count);
+    if (stack != null) {
+      stack.push(expr, function);
+    }
+    if (allocations != null) {
+      allocations.call(expr, function);
+    }
+    if (++calls == CALL_BATCH) {
+      Metrics.calls(CALL_BATCH);
+      calls = 0;
+    }
+    return function;
+  }
+
+  private static void checkArity(Token paren, int arity, int count) {
+    if (count != arity) {
       throw new RuntimeError(
-        expr.paren,
-        "Expected " + function.arity()
-        + " arguments but got " + arguments.size()
+        paren,
+        "Expected " + arity + " arguments but got " + count
       );
     }
-    return function.call(this, arguments);
+  }
+
+  // natives only ever see flat strings
+  private static boolean isNative(LoxCallable function) {
+    return !(function instanceof LoxFunction)
+      && !(function instanceof LoxClass);
+  }
+
+  private static void flattenArguments(Object[] arguments) {
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = flatten(arguments[i]);
+    }
+  }
+
+  private static Object flatten(Object value) {
+    if (value instanceof LoxRope || value instanceof LoxLine) {
+      return value.toString();
+    }
+    return value;
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     Object object = evaluate(expr.object);
+    Object value = getProperty(expr, object);
+    if (allocations != null) {
+      allocations.property(expr, object, value);
+    }
+    return value;
+  }
+
+  private static Object getProperty(Expr.Get expr, Object object) {
     if (object instanceof LoxInstance) {
       return ((LoxInstance) object).get(expr.name);
     }
+    if (object instanceof NativeObject) {
+      return ((NativeObject) object).getProperty(expr.name);
+    }
 
     throw new RuntimeError(expr.name, "Only instances have properties");
   }
 
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+
+    if (object instanceof LoxArray) {
+      return ((LoxArray) object).get(expr.bracket, index);
+    }
+    if (object instanceof LoxMap) {
+      return ((LoxMap) object).get(flatten(index));
+    }
+
+    throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed");
+  }
+
   @Override
   public Object visitLambdaExpr(Expr.Lambda expr) {
-    return new LoxFunction(expr, environment, false);
+    return new LoxFunction(expr, environment, expr.frameSize, false);
   }
 
   @Override
@@ -429,15 +1389,36 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return value;
   }
 
+  @Override
+  public Object visitSetIndexExpr(Expr.SetIndex expr) {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+
+    if (object instanceof LoxArray) {
+      Object value = evaluate(expr.value);
+      ((LoxArray) object).set(expr.bracket, index, value);
+      return value;
+    }
+    if (object instanceof LoxMap) {
+      Object value = evaluate(expr.value);
+      ((LoxMap) object).put(flatten(index), value);
+      return value;
+    }
+
+    throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed");
+  }
+
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
-    LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
+    LoxClass superclass = (LoxClass) environment.getAt(expr.depth, expr.slot);
 
-    // "this" is always one environment nearer than "super"
-    LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+    // "this" is always the only slot one environment nearer than "super"
+    LoxInstance object = (LoxInstance) environment.getAt(expr.depth - 1, 0);
 
     LoxFunction method = superclass.findMethod(object, expr.method.lexeme);
+    if (allocations != null && method != null) {
+      allocations.bound(expr);
+    }
 
     if (method == null) {
       throw new RuntimeError(
@@ -468,19 +1449,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookupVariable(expr.keyword, expr);
+    return lookupVariable(expr.keyword, expr.depth, expr.slot);
   }
 
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
-    Object right = evaluate(expr.right);
-
     switch (expr.operator.type) {
       case MINUS:
-        checkNumberOperand(expr.operator, right);
-        return -(double) right;
+        // evaluates the operand itself
+        return box(expr, evaluateNegation(expr));
       case BANG:
-        return !isTruthy(right);
+        return !isTruthy(evaluate(expr.right));
       default: break;
     }
 
@@ -490,43 +1469,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookupVariable(expr.name, expr);
+    return lookupVariable(expr.name, expr.depth, expr.slot);
   }
 
-  private Object lookupVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+  private Object lookupVariable(Token name, int depth, int slot) {
+    if (depth >= 0) {
+      return environment.getAt(depth, slot);
     }
     else {
-      return globals.get(name);
+      return globalCells.get(name, slot);
     }
   }
 
-  private static void checkNumberOperand(Token operator, Object operand) {
-    if (operand instanceof Double) {
-      return;
-    }
-
-    throw new RuntimeError(operator, "Operand must be a number");
+  private static boolean isNumber(Object value) {
+    return value instanceof Long || value instanceof Double;
   }
 
-  private static void checkNumberOperands(
-    Token operator,
-    Object left, Object right
-  ) {
-    if (left instanceof Double && right instanceof Double) {
-      return;
+  private static double toDouble(Object number) {
+    if (number instanceof Long) {
+      return (double) (long) number;
     }
-
-    throw new RuntimeError(operator, "Operands must be numbers");
-  }
-
-  private static int toInt(Object value) {
-    return ((Double) value).intValue();
+    return (double) number;
   }
 
-  private static boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) {
       return false;
     }
@@ -546,23 +1512,119 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       return false;
     }
 
+    if (a instanceof LoxRope || a instanceof LoxLine) {
+      a = a.toString();
+    }
+    if (b instanceof LoxRope || b instanceof LoxLine) {
+      b = b.toString();
+    }
+
+    // integers and doubles are just numbers as far as scripts can tell
+    if (a instanceof Long && b instanceof Double) {
+      return isSameNumber((long) a, (double) b);
+    }
+    if (a instanceof Double && b instanceof Long) {
+      return isSameNumber((long) b, (double) a);
+    }
+
     return a.equals(b);
   }
 
-  private static String stringify(Object object) {
+  private static boolean isSameNumber(long integer, double number) {
+    // 2^63 converts to Long.MAX_VALUE, but isn't equal to it. 0 isn't
+    // equal to -0, which it never was when every number was a double
+    return number == (double) integer
+      && number != 0x1p63
+      && (long) number == integer
+      && !isNegativeZero(number);
+  }
+
+  // the lines of a mapped file are strings too, they're just decoded late
+  private static boolean isString(Object object) {
+    return object instanceof String
+      || object instanceof LoxRope
+      || object instanceof LoxLine;
+  }
+
+  private static CharSequence toCharSequence(Object object) {
+    if (object instanceof CharSequence) {
+      return (CharSequence) object;
+    }
+    return stringify(object);
+  }
+
+  static String stringify(Object object) {
     if (object == null) {
       return "nil";
     }
 
-    // hack to remove ".0" from integer-valued doubles
+    if (object instanceof Long) {
+      long integer = (long) object;
+      if (printsAsDouble(integer)) {
+        return Double.toString((double) integer);
+      }
+      return Long.toString(integer);
+    }
+
     if (object instanceof Double) {
-      String text = object.toString();
-      if (text.endsWith(".0")) {
-        text = text.substring(0, text.length() - 2);
+      double number = (double) object;
+      if (isPlainIntegral(number)) {
+        return isNegativeZero(number) ? "-0" : Long.toString((long) number);
       }
-      return text;
+      return object.toString();
     }
 
     return object.toString();
   }
+
+  private static void append(StringBuilder builder, Object object) {
+    if (object instanceof String) {
+      builder.append((String) object);
+    }
+    else if (object instanceof LoxRope) {
+      builder.append(object.toString());
+    }
+    else if (object instanceof Long) {
+      long integer = (long) object;
+      if (printsAsDouble(integer)) {
+        builder.append((double) integer);
+      }
+      else {
+        builder.append(integer);
+      }
+    }
+    else if (object instanceof Double) {
+      double number = (double) object;
+      if (isPlainIntegral(number)) {
+        if (isNegativeZero(number)) {
+          builder.append('-');
+        }
+        builder.append((long) number);
+      }
+      else {
+        builder.append(number);
+      }
+    }
+    else {
+      builder.append(stringify(object));
+    }
+  }
+
+  // Double.toString uses plain notation with a trailing ".0" for integral
+  // values below 10^7, which we print without the fraction
+  private static boolean isPlainIntegral(double number) {
+    return number == (long) number && Math.abs(number) < 1e7;
+  }
+
+  // an integer prints the way the double with the same value does, so that
+  // how a number was computed doesn't show. integers no double can hold
+  // exactly print all their digits
+  private static boolean printsAsDouble(long integer) {
+    return (integer >= 10_000_000 || integer <= -10_000_000)
+      && isSameNumber(integer, (double) integer);
+  }
+
+  private static boolean isNegativeZero(double number) {
+    return number == 0 && Double.doubleToRawLongBits(number) != 0;
+  }
 }
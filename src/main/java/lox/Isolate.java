@@ -0,0 +1,181 @@
+package lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.Cleaner;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+// one independent Lox world: its own globals, output, error reporting and
+// execution state. nothing is shared between isolates, so several of them
+// can run scripts at once on different threads, though each isolate must
+// only be used by one thread at a time
+public class Isolate implements AutoCloseable {
+  // closes the loops of isolates that are dropped without being closed
+  private static final Cleaner cleaner = Cleaner.create();
+
+  private final Output output;
+  private final Diagnostics diagnostics;
+  private final Interpreter interpreter;
+  private final Cleaner.Cleanable live;
+  private final Cleaner.Cleanable loop;
+
+  public Isolate(OutputStream out, PrintStream err, boolean lineBuffered) {
+    this(new Output(out, lineBuffered), err);
+  }
+
+  Isolate(Output output, PrintStream err) {
+    this(output, err, null);
+  }
+
+  // an isolate that counts the nodes it runs into a profile, if given one
+  Isolate(Output output, PrintStream err, NodeProfile nodes) {
+    this.output = output;
+    this.diagnostics = new Diagnostics(err, output);
+    this.interpreter = nodes == null
+      ? new Interpreter(output, diagnostics)
+      : new CountingInterpreter(output, diagnostics, nodes);
+    this.live = Metrics.isolate(this);
+    // the loop, and the coroutines waiting on it, don't refer back to the
+    // isolate, so they don't keep it from being cleaned
+    this.loop = cleaner.register(this, interpreter.loop::close);
+  }
+
+  // an isolate attached to the standard streams of the process
+  public static Isolate standard() {
+    return new Isolate(Output.stdout(), System.err);
+  }
+
+  static Isolate counting(NodeProfile nodes) {
+    return new Isolate(Output.stdout(), System.err, nodes);
+  }
+
+  // scans, parses and resolves a script, or returns null after reporting
+  // its errors. the program isn't tied to this isolate
+  public Program compile(String source) {
+    try {
+      long start = System.nanoTime();
+      Flight.PhaseEvent phase = Flight.phase("scan");
+      Scanner scanner = new Scanner(source, diagnostics);
+      List<Token> tokens = scanner.scanTokens();
+      Flight.end(phase);
+      start = Metrics.phase(Metrics.SCAN, start);
+
+      phase = Flight.phase("parse");
+      Parser parser = new Parser(tokens, diagnostics);
+      List<Stmt> statements = parser.parse();
+      Flight.end(phase);
+      start = Metrics.phase(Metrics.PARSE, start);
+
+      if (diagnostics.hadError()) {
+        return null;
+      }
+
+      phase = Flight.phase("resolve");
+      Resolver resolver = new Resolver(diagnostics);
+      resolver.resolve(statements);
+      Flight.end(phase);
+      Metrics.phase(Metrics.RESOLVE, start);
+
+      if (diagnostics.hadError()) {
+        return null;
+      }
+
+      return new Program(statements);
+    }
+    finally {
+      output.flush();
+    }
+  }
+
+  public void run(Program program) {
+    Profiler.Stack previous = interpreter.enter();
+    long start = System.nanoTime();
+    Flight.PhaseEvent phase = Flight.phase("execute");
+    try {
+      interpreter.interpret(program.statements);
+    }
+    finally {
+      Flight.end(phase);
+      Metrics.phase(Metrics.EXECUTE, start);
+      interpreter.exit(previous);
+      output.flush();
+    }
+  }
+
+  public void run(String source) {
+    Program program = compile(source);
+    if (program != null) {
+      run(program);
+    }
+  }
+
+  // runs a library whose globals the scripts of this isolate can use. the
+  // first run saves what it defines in a snapshot, which later runs load
+  // in its place until the prelude changes
+  public void runPrelude(Path path) throws IOException {
+    String source = new String(
+      Files.readAllBytes(path),
+      Charset.defaultCharset()
+    );
+    Path snapshot = Snapshot.of(path);
+    boolean loaded = Snapshot.load(snapshot, source, interpreter.globals);
+    Metrics.snapshot(loaded);
+    if (loaded) {
+      return;
+    }
+
+    Map<String, Object> before = interpreter.globals.globals.values();
+    run(source);
+    if (hadError() || hadRuntimeError()) {
+      return;
+    }
+
+    Map<String, Object> defined = interpreter.globals.globals.values();
+    defined.entrySet().removeIf(
+      entry -> before.get(entry.getKey()) == entry.getValue()
+    );
+    Snapshot.save(snapshot, source, defined, interpreter.globals);
+  }
+
+  // makes relative file paths in scripts relative to a directory other
+  // than the working directory of the process
+  public void setDirectory(Path directory) {
+    interpreter.directory = directory;
+  }
+
+  // keeps a stack of the calls of this isolate for the profiler to sample
+  public void profile(Profiler profiler) {
+    interpreter.stack = profiler.stack();
+  }
+
+  // counts what this isolate allocates from now on
+  public void profileAllocations(AllocationProfile allocations) {
+    interpreter.allocations = allocations;
+  }
+
+  // releases the descriptors the event loop holds, and unwinds the async
+  // calls still waiting on it. the isolate can't run anything after this
+  @Override
+  public void close() {
+    loop.clean();
+    live.clean();
+  }
+
+  public boolean hadError() {
+    return diagnostics.hadError();
+  }
+
+  public boolean hadRuntimeError() {
+    return diagnostics.hadRuntimeError();
+  }
+
+  // forget earlier errors, so the next run starts with a clean slate
+  public void clearErrors() {
+    diagnostics.reset();
+  }
+}
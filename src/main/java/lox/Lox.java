@@ -5,105 +5,163 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Arrays;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-
-    public static boolean hadError = false;
-    public static boolean hadRuntimeError = false;
-
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
+        if (args.length == 1 && args[0].equals("--daemon")) {
+            Daemon.serve(Daemon.socketPath());
         }
-        else if (args.length == 1) {
-            runFile(args[0]);
+        else if (args.length == 2 && args[0].equals("--client")) {
+            System.exit(Daemon.submit(Daemon.socketPath(), args[1]));
         }
-        else {
-            runPrompt();
+
+        Path prelude = null;
+        Path profile = null;
+        double interval = 1;
+        NodeProfile nodes = null;
+        AllocationProfile allocations = null;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            String option = args[first++];
+            switch (option) {
+                case "--prelude":
+                    prelude = Paths.get(value(args, first++));
+                    break;
+                case "--profile":
+                    profile = Paths.get(value(args, first++));
+                    break;
+                case "--profile-interval":
+                    interval = milliseconds(value(args, first++));
+                    break;
+                case "--node-profile":
+                    nodes = new NodeProfile(Paths.get(value(args, first++)));
+                    break;
+                case "--alloc-profile":
+                    allocations = new AllocationProfile();
+                    break;
+                default:
+                    usage();
+            }
         }
-    }
+        args = Arrays.copyOfRange(args, first, args.length);
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Profiler profiler = null;
+        if (profile != null) {
+            profiler = new Profiler((long) (interval * 1_000_000));
+            profiler.writeOnExit(profile);
+        }
 
-        if (hadError) {
-            System.exit(65);
+        if (args.length > 1 || (args.length == 0 && nodes != null)) {
+            usage();
         }
-        if (hadRuntimeError) {
-            System.exit(70);
+
+        Isolate isolate = start(prelude, profiler, nodes);
+        if (allocations != null) {
+            // after the prelude, so that only the script's own are counted
+            isolate.profileAllocations(allocations);
+            allocations.printOnExit(System.err);
+        }
+        if (args.length == 1) {
+            runFile(args[0], isolate, nodes);
+        }
+        else {
+            runPrompt(isolate);
         }
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+    private static void usage() {
+        System.out.println(
+            "Usage: jlox [--prelude file] [--profile file"
+                + " [--profile-interval ms]] [--alloc-profile] [script]"
+                + " | [--node-profile prefix] script"
+                + " | --daemon | --client script"
+        );
+        System.exit(64);
+    }
 
-        for (;;) {
-            System.out.print("> ");
-            run(reader.readLine());
-            hadError = false;
+    // the value of the option before it
+    private static String value(String[] args, int index) {
+        if (index == args.length) {
+            usage();
         }
+        return args[index];
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if (hadError) {
-            return;
+    private static double milliseconds(String value) {
+        try {
+            double milliseconds = Double.parseDouble(value);
+            if (milliseconds > 0) {
+                return milliseconds;
+            }
         }
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        if (hadError) {
-            return;
+        catch (NumberFormatException error) {
+            // not a number, which is a usage error all the same
         }
-
-        interpreter.interpret(statements);
+        usage();
+        return 0;
     }
 
-    public static void error(int line, int column, String message) {
-        report(line, column, "", message);
+    private static Isolate start(
+        Path prelude,
+        Profiler profiler,
+        NodeProfile nodes
+    ) throws IOException {
+        Isolate isolate = nodes == null
+            ? Isolate.standard()
+            : Isolate.counting(nodes);
+        if (profiler != null) {
+            isolate.profile(profiler);
+            profiler.start();
+        }
+        if (prelude != null) {
+            isolate.runPrelude(prelude);
+            exitOnError(isolate);
+        }
+        return isolate;
     }
 
-    public static void runtimeError(RuntimeError error) {
-        System.err.println(
-            error.getMessage()
-            + "\n[line "
-            + error.token.line
-            + ":"
-            + error.token.column
-            + "]"
-        );
-        hadRuntimeError = true;
+    private static void exitOnError(Isolate isolate) {
+        if (isolate.hadError()) {
+            System.exit(65);
+        }
+        if (isolate.hadRuntimeError()) {
+            System.exit(70);
+        }
     }
 
-    private static void report(int line, int col, String where, String msg) {
-        System.err.println(
-            "[line " + line + ":" + col + "] Error" + where + ": " + msg
-        );
-        hadError = true;
+    private static void runFile(
+        String path,
+        Isolate isolate,
+        NodeProfile nodes
+    ) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        String source = new String(bytes, Charset.defaultCharset());
+        Program program = isolate.compile(source);
+        if (program != null) {
+            if (nodes != null) {
+                nodes.writeOnExit(program, source);
+            }
+            isolate.run(program);
+        }
+        exitOnError(isolate);
     }
 
-    public static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, token.column, " at end", message);
-        }
-        else {
-            report(
-                token.line,
-                token.column,
-                " at '" + token.lexeme + "'",
-                message
-            );
+    private static void runPrompt(Isolate isolate) throws IOException {
+        InputStreamReader input = new InputStreamReader(System.in);
+        BufferedReader reader = new BufferedReader(input);
+
+        for (;;) {
+            System.out.print("> ");
+            System.out.flush();
+            String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            isolate.run(line);
+            isolate.clearErrors();
         }
     }
 }
@@ -0,0 +1,353 @@
+package lox;
+
+import java.util.Arrays;
+
+// a growable array that keeps its elements unboxed while they are all
+// integers (or all doubles, or all booleans), and only falls back to boxed
+// storage once different kinds of values are mixed. integers and doubles
+// mix as doubles, as long as every integer is exactly a double, since the
+// two compare and print the same
+class LoxArray implements NativeObject {
+  // the largest magnitude up to which every integer is exactly a double
+  private static final long EXACT = 1L << 53;
+
+  private enum Storage {
+    INTEGERS,
+    NUMBERS,
+    BOOLEANS,
+    OBJECTS
+  }
+
+  private Storage storage = Storage.INTEGERS;
+  private long[] integers;
+  private double[] numbers;
+  private boolean[] booleans;
+  private Object[] objects;
+  private int size = 0;
+
+  public LoxArray() {
+    this(8);
+  }
+
+  public LoxArray(int capacity) {
+    integers = new long[capacity];
+  }
+
+  private LoxArray(Storage storage, int size) {
+    this.storage = storage;
+    this.size = size;
+  }
+
+  public int length() {
+    return size;
+  }
+
+  public Object get(int index) {
+    switch (storage) {
+      case INTEGERS:
+        return integers[index];
+      case NUMBERS:
+        return numbers[index];
+      case BOOLEANS:
+        return booleans[index];
+      default:
+        return objects[index];
+    }
+  }
+
+  public void set(int index, Object value) {
+    accommodate(value);
+    store(index, value);
+  }
+
+  public void push(Object value) {
+    accommodate(value);
+    if (size == capacity()) {
+      grow();
+    }
+    store(size++, value);
+  }
+
+  public Object pop() {
+    Object value = get(--size);
+    if (storage == Storage.OBJECTS) {
+      objects[size] = null;
+    }
+    return value;
+  }
+
+  public LoxArray slice(int start, int end) {
+    LoxArray slice = new LoxArray(storage, end - start);
+    switch (storage) {
+      case INTEGERS:
+        slice.integers = Arrays.copyOfRange(integers, start, end);
+        break;
+      case NUMBERS:
+        slice.numbers = Arrays.copyOfRange(numbers, start, end);
+        break;
+      case BOOLEANS:
+        slice.booleans = Arrays.copyOfRange(booleans, start, end);
+        break;
+      default:
+        slice.objects = Arrays.copyOfRange(objects, start, end);
+        break;
+    }
+    return slice;
+  }
+
+  public LoxIterator iterator() {
+    return new LoxIterator() {
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      public Object next() {
+        return get(index++);
+      }
+    };
+  }
+
+  public Object get(Token bracket, Object index) {
+    return get(checkIndex(bracket, index, size));
+  }
+
+  public void set(Token bracket, Object index, Object value) {
+    set(checkIndex(bracket, index, size), value);
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    if (name.lexeme.equals("length")) {
+      return (long) size;
+    }
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "pop":
+        return 0;
+      case "push":
+        return 1;
+      case "slice":
+        return 2;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    switch (name.lexeme) {
+      case "pop":
+        if (size == 0) {
+          throw new RuntimeError(name, "Cannot pop from an empty array");
+        }
+        return pop();
+      case "push":
+        push(arguments[0]);
+        return null;
+      case "slice":
+        int start = checkIndex(name, arguments[0], size + 1);
+        int end = checkIndex(name, arguments[1], size + 1);
+        if (end < start) {
+          throw new RuntimeError(name, "Slice end is before its start");
+        }
+        return slice(start, end);
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  private static int checkIndex(Token token, Object index, int limit) {
+    if (index instanceof Long) {
+      long integer = (long) index;
+      if (integer < 0 || integer >= limit) {
+        throw new RuntimeError(token, "Array index out of range");
+      }
+      return (int) integer;
+    }
+    if (!(index instanceof Double)) {
+      throw new RuntimeError(token, "Array index must be a number");
+    }
+
+    double value = (double) index;
+    int integer = (int) value;
+    if (integer != value) {
+      throw new RuntimeError(token, "Array index must be an integer");
+    }
+    if (integer < 0 || integer >= limit) {
+      throw new RuntimeError(token, "Array index out of range");
+    }
+    return integer;
+  }
+
+  // make sure the current storage can hold the value, switching to one
+  // that can if it doesn't
+  private void accommodate(Object value) {
+    switch (storage) {
+      case INTEGERS:
+        if (value instanceof Long) {
+          return;
+        }
+        break;
+      case NUMBERS:
+        if (value instanceof Double || isExact(value)) {
+          return;
+        }
+        break;
+      case BOOLEANS:
+        if (value instanceof Boolean) {
+          return;
+        }
+        break;
+      default:
+        return;
+    }
+
+    // an empty array can just start over with whatever fits best
+    if (size == 0) {
+      int capacity = capacity();
+      integers = null;
+      numbers = null;
+      booleans = null;
+      objects = null;
+      if (value instanceof Long) {
+        storage = Storage.INTEGERS;
+        integers = new long[capacity];
+      }
+      else if (value instanceof Double) {
+        storage = Storage.NUMBERS;
+        numbers = new double[capacity];
+      }
+      else if (value instanceof Boolean) {
+        storage = Storage.BOOLEANS;
+        booleans = new boolean[capacity];
+      }
+      else {
+        storage = Storage.OBJECTS;
+        objects = new Object[capacity];
+      }
+      return;
+    }
+
+    if (
+      storage == Storage.INTEGERS
+      && value instanceof Double
+      && integersAreExact()
+    ) {
+      double[] converted = new double[capacity()];
+      for (int i = 0; i < size; i++) {
+        converted[i] = integers[i];
+      }
+      storage = Storage.NUMBERS;
+      integers = null;
+      numbers = converted;
+      return;
+    }
+
+    Object[] boxed = new Object[capacity()];
+    for (int i = 0; i < size; i++) {
+      boxed[i] = get(i);
+    }
+    storage = Storage.OBJECTS;
+    integers = null;
+    numbers = null;
+    booleans = null;
+    objects = boxed;
+  }
+
+  private static boolean isExact(Object value) {
+    if (!(value instanceof Long)) {
+      return false;
+    }
+    long integer = (long) value;
+    return integer >= -EXACT && integer <= EXACT;
+  }
+
+  private boolean integersAreExact() {
+    for (int i = 0; i < size; i++) {
+      if (integers[i] < -EXACT || integers[i] > EXACT) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void store(int index, Object value) {
+    switch (storage) {
+      case INTEGERS:
+        integers[index] = (long) value;
+        break;
+      case NUMBERS:
+        numbers[index] = value instanceof Long
+          ? (double) (long) value
+          : (double) value;
+        break;
+      case BOOLEANS:
+        booleans[index] = (boolean) value;
+        break;
+      default:
+        objects[index] = value;
+        break;
+    }
+  }
+
+  private int capacity() {
+    switch (storage) {
+      case INTEGERS:
+        return integers.length;
+      case NUMBERS:
+        return numbers.length;
+      case BOOLEANS:
+        return booleans.length;
+      default:
+        return objects.length;
+    }
+  }
+
+  private void grow() {
+    int capacity = Math.max(capacity() * 2, 8);
+    switch (storage) {
+      case INTEGERS:
+        integers = Arrays.copyOf(integers, capacity);
+        break;
+      case NUMBERS:
+        numbers = Arrays.copyOf(numbers, capacity);
+        break;
+      case BOOLEANS:
+        booleans = Arrays.copyOf(booleans, capacity);
+        break;
+      default:
+        objects = Arrays.copyOf(objects, capacity);
+        break;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(Interpreter.stringify(get(i)));
+    }
+    return builder.append("]").toString();
+  }
+}
@@ -1,9 +1,32 @@
 package lox;
 
-import java.util.List;
-
 interface LoxCallable {
   int arity();
 
-  public Object call(Interpreter interpreter, List<Object> arguments);
+  public Object call(Interpreter interpreter, Object[] arguments);
+
+  // fixed-arity entry points, so that most calls don't need an argument
+  // array. callables override the ones they can take without one
+  default Object call0(Interpreter interpreter) {
+    return call(interpreter, new Object[0]);
+  }
+
+  default Object call1(Interpreter interpreter, Object a) {
+    return call(interpreter, new Object[] { a });
+  }
+
+  default Object call2(Interpreter interpreter, Object a, Object b) {
+    return call(interpreter, new Object[] { a, b });
+  }
+
+  default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return call(interpreter, new Object[] { a, b, c });
+  }
+
+  default Object call4(
+    Interpreter interpreter,
+    Object a, Object b, Object c, Object d
+  ) {
+    return call(interpreter, new Object[] { a, b, c, d });
+  }
 }
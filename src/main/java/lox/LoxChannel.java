@@ -0,0 +1,182 @@
+package lox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// a queue that tasks hand values through. send waits while the buffer is
+// full, and recv while it is empty; an unbuffered channel makes every send
+// wait until its value has been received. waiting uses a ReentrantLock
+// rather than a monitor, so a blocked virtual thread gives its carrier
+// back. once a channel is closed and drained, recv returns nil and for-in
+// loops over it end
+class LoxChannel implements NativeObject, LoxIterator {
+  private final int capacity;
+  private final Object[] buffer;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition received = lock.newCondition();
+  private int head = 0;
+  private int count = 0;
+  // how many values have been sent and received, so that a sender on an
+  // unbuffered channel can tell when its own value has been taken
+  private long sends = 0;
+  private long receives = 0;
+  private boolean closed = false;
+
+  public LoxChannel(int capacity) {
+    this.capacity = capacity;
+    this.buffer = new Object[Math.max(capacity, 1)];
+  }
+
+  public void send(Object value) {
+    lock.lock();
+    try {
+      while (count == buffer.length && !closed) {
+        notFull.awaitUninterruptibly();
+      }
+      if (closed) {
+        throw new RuntimeError(null, "Cannot send on a closed channel");
+      }
+
+      buffer[(head + count) % buffer.length] = value;
+      count++;
+      long sent = ++sends;
+      notEmpty.signal();
+
+      if (capacity == 0) {
+        while (receives < sent && !closed) {
+          received.awaitUninterruptibly();
+        }
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  public Object recv() {
+    lock.lock();
+    try {
+      while (count == 0 && !closed) {
+        notEmpty.awaitUninterruptibly();
+      }
+      if (count == 0) {
+        return null;
+      }
+
+      Object value = buffer[head];
+      buffer[head] = null;
+      head = (head + 1) % buffer.length;
+      count--;
+      receives++;
+      notFull.signal();
+      if (capacity == 0) {
+        received.signalAll();
+      }
+      return value;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  // wakes up everyone waiting. values already sent can still be received
+  public void closeChannel() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+      received.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  // waits until there is a value to take, or the channel is closed
+  @Override
+  public boolean hasNext() {
+    lock.lock();
+    try {
+      while (count == 0 && !closed) {
+        notEmpty.awaitUninterruptibly();
+      }
+      // leave the wakeup for whoever else is waiting to receive
+      if (count > 0) {
+        notEmpty.signal();
+      }
+      return count > 0;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  // with several receivers another one may get there first, in which case
+  // this waits for the next value like recv does
+  @Override
+  public Object next() {
+    return recv();
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "send":
+        return 1;
+      case "recv":
+      case "close":
+        return 0;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    try {
+      switch (name.lexeme) {
+        case "send":
+          send(arguments[0]);
+          return null;
+        case "recv":
+          return recv();
+        case "close":
+          closeChannel();
+          return null;
+        default:
+          throw new RuntimeError(
+            name,
+            "Undefined property '" + name.lexeme + "'"
+          );
+      }
+    }
+    catch (RuntimeError error) {
+      if (error.token == null) {
+        throw new RuntimeError(name, error.getMessage());
+      }
+      throw error;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return capacity == 0
+      ? "<channel>"
+      : "<channel of " + capacity + ">";
+  }
+}
@@ -1,6 +1,5 @@
 package lox;
 
-import java.util.List;
 import java.util.Map;
 
 class LoxClass extends LoxInstance implements LoxCallable {
@@ -26,6 +25,10 @@ class LoxClass extends LoxInstance implements LoxCallable {
     this.methods = methods;
   }
 
+  public Map<String, LoxFunction> getMethods() {
+    return methods;
+  }
+
   public LoxFunction findMethod(LoxInstance instance, String name) {
     if (methods.containsKey(name)) {
       return methods.get(name).bind(instance);
@@ -44,14 +47,65 @@ class LoxClass extends LoxInstance implements LoxCallable {
   }
 
   @Override
-  public Object call(Interpreter interpreter, List<Object> arguments) {
+  public Object call0(Interpreter interpreter) {
     LoxInstance instance = new LoxInstance(this);
+    LoxFunction initializer = methods.get("init");
+    if (initializer != null) {
+      initializer.bind(instance).call0(interpreter);
+    }
+    return instance;
+  }
 
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    LoxInstance instance = new LoxInstance(this);
     LoxFunction initializer = methods.get("init");
     if (initializer != null) {
-      initializer.bind(instance).call(interpreter, arguments);
+      initializer.bind(instance).call1(interpreter, a);
+    }
+    return instance;
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    LoxInstance instance = new LoxInstance(this);
+    LoxFunction initializer = methods.get("init");
+    if (initializer != null) {
+      initializer.bind(instance).call2(interpreter, a, b);
     }
+    return instance;
+  }
 
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    LoxInstance instance = new LoxInstance(this);
+    LoxFunction initializer = methods.get("init");
+    if (initializer != null) {
+      initializer.bind(instance).call3(interpreter, a, b, c);
+    }
+    return instance;
+  }
+
+  @Override
+  public Object call4(
+    Interpreter interpreter,
+    Object a, Object b, Object c, Object d
+  ) {
+    LoxInstance instance = new LoxInstance(this);
+    LoxFunction initializer = methods.get("init");
+    if (initializer != null) {
+      initializer.bind(instance).call4(interpreter, a, b, c, d);
+    }
+    return instance;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    LoxInstance instance = new LoxInstance(this);
+    LoxFunction initializer = methods.get("init");
+    if (initializer != null) {
+      initializer.bind(instance).call(interpreter, arguments);
+    }
     return instance;
   }
 
@@ -65,4 +119,4 @@ class LoxClass extends LoxInstance implements LoxCallable {
 
     return 0;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+package lox;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a call of an async function. like a generator, the body runs on a thread
+// and an interpreter of its own, but it takes turns with the event loop
+// instead of with a caller: the loop starts it, and each await hands
+// control back to the loop until the awaited promise settles and the loop
+// resumes it. calling an async function returns the promise of its result.
+// a coroutine still waiting when its loop is closed is unwound, the way a
+// closed generator is, so that its thread doesn't wait forever
+class LoxCoroutine {
+  // unwinds a coroutine whose loop was closed while it waited
+  private static class Close extends RuntimeException {
+    Close() {
+      super(null, null, false, false);
+    }
+  }
+
+  // the coroutine threads that haven't finished
+  private static final AtomicInteger live = new AtomicInteger();
+
+  private final Interpreter interpreter;
+  private final CallableNode declaration;
+  private final Environment frame;
+  private final LoxPromise promise;
+  private final Semaphore resumed = new Semaphore(0);
+  private final Semaphore suspended = new Semaphore(0);
+  private Thread thread = null;
+  private boolean closing = false;
+
+  // written by the coroutine thread before it hands control back
+  private Throwable error = null;
+
+  private LoxCoroutine(
+    Interpreter interpreter,
+    CallableNode declaration,
+    Environment frame
+  ) {
+    this.interpreter = interpreter.fork();
+    this.interpreter.coroutine = this;
+    this.declaration = declaration;
+    this.frame = frame;
+    this.promise = new LoxPromise(interpreter.loop);
+  }
+
+  public static LoxPromise start(
+    Interpreter interpreter,
+    CallableNode declaration,
+    Environment frame
+  ) {
+    LoxCoroutine coroutine = new LoxCoroutine(
+      interpreter,
+      declaration,
+      frame
+    );
+    interpreter.loop.started(coroutine);
+    interpreter.loop.post(coroutine::resume);
+    return coroutine.promise;
+  }
+
+  static int threads() {
+    return live.get();
+  }
+
+  // called on the coroutine thread by an await expression
+  public Object await(LoxPromise awaited) {
+    if (!awaited.isSettled()) {
+      awaited.then(this::resume);
+      suspended.release();
+      resumed.acquireUninterruptibly();
+      if (closing) {
+        throw new Close();
+      }
+    }
+    return awaited.result();
+  }
+
+  // called by the loop when it closes. a coroutine waiting on a promise
+  // unwinds, and this returns once it has
+  void close() {
+    if (thread == null) {
+      return;
+    }
+    closing = true;
+    resumed.release();
+    suspended.acquireUninterruptibly();
+  }
+
+  // called on the loop, which waits until the body awaits or returns
+  private void resume() {
+    if (thread == null) {
+      live.incrementAndGet();
+      thread = Threads.start(
+        "async " + declaration.getName().lexeme,
+        this::run
+      );
+    }
+    else {
+      resumed.release();
+    }
+    suspended.acquireUninterruptibly();
+
+    if (error != null) {
+      Throwable thrown = error;
+      error = null;
+      if (thrown instanceof RuntimeException) {
+        throw (RuntimeException) thrown;
+      }
+      throw (Error) thrown;
+    }
+  }
+
+  private void run() {
+    Profiler.Stack previous = interpreter.enter();
+    try {
+      interpreter.executeBlock(declaration.getBody(), frame);
+      promise.fulfill(null);
+    }
+    catch (Return returned) {
+      promise.fulfill(returned.value);
+    }
+    catch (RuntimeError rejected) {
+      promise.reject(rejected);
+    }
+    catch (Close closed) {
+      // the loop is gone, and with it anyone waiting on the promise
+    }
+    catch (Throwable thrown) {
+      error = thrown;
+    }
+    finally {
+      interpreter.exit(previous);
+    }
+
+    interpreter.loop.finished(this);
+    live.decrementAndGet();
+    suspended.release();
+  }
+}
@@ -0,0 +1,284 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// a memory-mapped file, read as UTF-8 lines. lines are handed out as
+// LoxLine views of the mapping and only become strings when a script
+// actually looks at their text, so streaming a file through a script
+// takes constant memory however big the file is
+class LoxFile implements NativeObject {
+  // a single mapping can't be larger than 2GB, so big files are mapped in
+  // chunks of this many bytes
+  private static final int CHUNK_BITS = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+  private static final class Encoded {
+    final String text;
+    final byte[] bytes;
+
+    Encoded(String text, byte[] bytes) {
+      this.text = text;
+      this.bytes = bytes;
+    }
+  }
+
+  private final String path;
+  private final MappedByteBuffer[] chunks;
+  private final long size;
+  // the last string encode() was given, in one immutable object so that
+  // threads sharing the file never see one string with another's bytes
+  private volatile Encoded encoded = null;
+
+  private LoxFile(String path, MappedByteBuffer[] chunks, long size) {
+    this.path = path;
+    this.chunks = chunks;
+    this.size = size;
+  }
+
+  public static LoxFile map(String path) {
+    try (FileChannel channel = FileChannel.open(
+      Paths.get(path),
+      StandardOpenOption.READ
+    )) {
+      long size = channel.size();
+      int count = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+      MappedByteBuffer[] chunks = new MappedByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        long start = i * CHUNK_SIZE;
+        chunks[i] = channel.map(
+          FileChannel.MapMode.READ_ONLY,
+          start,
+          Math.min(CHUNK_SIZE, size - start)
+        );
+      }
+      // the mappings stay valid after the channel is closed
+      return new LoxFile(path, chunks, size);
+    }
+    catch (NoSuchFileException error) {
+      throw new RuntimeError(null, "File '" + path + "' does not exist");
+    }
+    catch (IOException error) {
+      throw new RuntimeError(
+        null,
+        "Could not map file '" + path + "': " + error.getMessage()
+      );
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public byte byteAt(long position) {
+    return chunks[(int) (position >>> CHUNK_BITS)]
+      .get((int) (position & (CHUNK_SIZE - 1)));
+  }
+
+  // the position of the first occurrence of a byte in [from, to), or -1
+  public long indexOf(byte target, long from, long to) {
+    while (from < to) {
+      ByteBuffer chunk = chunks[(int) (from >>> CHUNK_BITS)];
+      int offset = (int) (from & (CHUNK_SIZE - 1));
+      int limit = (int) Math.min(chunk.limit(), offset + (to - from));
+      for (int i = offset; i < limit; i++) {
+        if (chunk.get(i) == target) {
+          return from + (i - offset);
+        }
+      }
+      from += limit - offset;
+    }
+    return -1;
+  }
+
+  // the position of the first occurrence of a byte sequence in [from, to)
+  public long indexOf(byte[] target, long from, long to) {
+    if (target.length == 0) {
+      return from;
+    }
+    if (target.length == 1) {
+      return indexOf(target[0], from, to);
+    }
+
+    long last = to - target.length;
+    for (long i = from; i <= last; i++) {
+      i = indexOf(target[0], i, last + 1);
+      if (i < 0) {
+        return -1;
+      }
+      if (regionMatches(i, target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public boolean regionMatches(long position, byte[] target) {
+    if (position + target.length > size) {
+      return false;
+    }
+    for (int i = 0; i < target.length; i++) {
+      if (byteAt(position + i) != target[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public String decode(long start, long end) {
+    byte[] bytes = new byte[(int) (end - start)];
+    int copied = 0;
+    while (copied < bytes.length) {
+      long position = start + copied;
+      ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+      chunk.position((int) (position & (CHUNK_SIZE - 1)));
+      int count = Math.min(chunk.remaining(), bytes.length - copied);
+      chunk.get(bytes, copied, count);
+      copied += count;
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // the UTF-8 bytes of a string to search for. a filter usually looks for
+  // the same string in every line, so the last one is kept around
+  public byte[] encode(String text) {
+    Encoded encoded = this.encoded;
+    if (encoded == null || !text.equals(encoded.text)) {
+      encoded = new Encoded(text, text.getBytes(StandardCharsets.UTF_8));
+      this.encoded = encoded;
+    }
+    return encoded.bytes;
+  }
+
+  // counts lines by scanning for newlines, without creating any of them
+  public long countLines() {
+    long count = 0;
+    for (ByteBuffer chunk : chunks) {
+      int limit = chunk.limit();
+      for (int i = 0; i < limit; i++) {
+        if (chunk.get(i) == '\n') {
+          count++;
+        }
+      }
+    }
+
+    // a last line without a trailing newline still counts
+    if (size > 0 && byteAt(size - 1) != '\n') {
+      count++;
+    }
+    return count;
+  }
+
+  public Lines lines() {
+    return new Lines();
+  }
+
+  // a cursor over the lines of the file
+  class Lines implements NativeObject, LoxIterator {
+    private long position = 0;
+
+    @Override
+    public boolean hasNext() {
+      return position < size;
+    }
+
+    @Override
+    public LoxLine next() {
+      if (position >= size) {
+        return null;
+      }
+
+      long start = position;
+      long newline = indexOf((byte) '\n', start, size);
+      long end = newline < 0 ? size : newline;
+      position = newline < 0 ? size : newline + 1;
+
+      if (end > start && byteAt(end - 1) == '\r') {
+        end--;
+      }
+      return new LoxLine(LoxFile.this, start, end);
+    }
+
+    @Override
+    public Object getProperty(Token name) {
+      return new NativeMethod(this, name);
+    }
+
+    @Override
+    public int arity(Token name) {
+      if (name.lexeme.equals("next")) {
+        return 0;
+      }
+      throw new RuntimeError(
+        name,
+        "Undefined property '" + name.lexeme + "'"
+      );
+    }
+
+    @Override
+    public Object invoke(
+      Interpreter interpreter,
+      Token name,
+      Object[] arguments
+    ) {
+      return next();
+    }
+
+    @Override
+    public String toString() {
+      return "<lines of " + path + ">";
+    }
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    if (name.lexeme.equals("size")) {
+      return size;
+    }
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "lines":
+      case "countLines":
+        return 0;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    switch (name.lexeme) {
+      case "lines":
+        return lines();
+      case "countLines":
+        return countLines();
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<file " + path + ">";
+  }
+}
@@ -1,26 +1,43 @@
 package lox;
 
-import java.util.List;
-
 class LoxFunction implements LoxCallable {
   private final CallableNode declaration;
   private final Environment closure;
+  private final int frameSize;
   private boolean isInitializer;
 
   public LoxFunction(
     CallableNode declaration,
     Environment closure,
+    int frameSize,
     boolean isInitializer
   ) {
     this.closure = closure;
     this.declaration = declaration;
+    this.frameSize = frameSize;
     this.isInitializer = isInitializer;
   }
 
+  public CallableNode getDeclaration() {
+    return declaration;
+  }
+
+  public Environment getClosure() {
+    return closure;
+  }
+
+  public int getFrameSize() {
+    return frameSize;
+  }
+
+  public boolean isInitializer() {
+    return isInitializer;
+  }
+
   public LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
-    environment.define("this", instance);
-    return new LoxFunction(declaration, environment, isInitializer);
+    Environment environment = new Environment(closure, 1);
+    environment.defineSlot(instance);
+    return new LoxFunction(declaration, environment, frameSize, isInitializer);
   }
 
   @Override
@@ -28,29 +45,88 @@ class LoxFunction implements LoxCallable {
     return declaration.getParams().size();
   }
 
+  // the arguments go straight into the first slots of the new frame
+  @Override
+  public Object call0(Interpreter interpreter) {
+    return execute(interpreter, new Environment(closure, frameSize));
+  }
+
   @Override
-  public Object call(Interpreter interpreter, List<Object> arguments) {
-    Environment environment = new Environment(closure);
-    for (int i = 0; i < declaration.getParams().size(); i++) {
-      environment.define(
-        declaration.getParams().get(i).lexeme,
-        arguments.get(i)
-      );
+  public Object call1(Interpreter interpreter, Object a) {
+    Environment environment = new Environment(closure, frameSize);
+    environment.defineSlot(a);
+    return execute(interpreter, environment);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    Environment environment = new Environment(closure, frameSize);
+    environment.defineSlot(a);
+    environment.defineSlot(b);
+    return execute(interpreter, environment);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    Environment environment = new Environment(closure, frameSize);
+    environment.defineSlot(a);
+    environment.defineSlot(b);
+    environment.defineSlot(c);
+    return execute(interpreter, environment);
+  }
+
+  @Override
+  public Object call4(
+    Interpreter interpreter,
+    Object a, Object b, Object c, Object d
+  ) {
+    Environment environment = new Environment(closure, frameSize);
+    environment.defineSlot(a);
+    environment.defineSlot(b);
+    environment.defineSlot(c);
+    environment.defineSlot(d);
+    return execute(interpreter, environment);
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    Environment environment = new Environment(closure, frameSize);
+    for (Object argument : arguments) {
+      environment.defineSlot(argument);
     }
+    return execute(interpreter, environment);
+  }
 
+  private Object execute(Interpreter interpreter, Environment environment) {
+    // the body of a generator only starts running once it is iterated
+    if (declaration.isGenerator()) {
+      return new LoxGenerator(interpreter, declaration, environment);
+    }
+    // nor does the body of an async function, until the event loop runs
+    if (declaration.isAsync()) {
+      return LoxCoroutine.start(interpreter, declaration, environment);
+    }
+
+    Flight.CallEvent event = Flight.call();
     try {
       interpreter.executeBlock(declaration.getBody(), environment);
     }
     catch (Return returnValue) {
       if (isInitializer) {
-        return closure.getAt(0, "this");
+        // "this" is the only slot of the environment bind() made
+        return closure.getAt(0, 0);
       }
 
       return returnValue.value;
     }
+    finally {
+      if (event != null) {
+        Flight.called(event, declaration);
+      }
+    }
 
     if (isInitializer) { // blegh
-      return closure.getAt(0, "this");
+      return closure.getAt(0, 0);
     }
 
     return null;
@@ -0,0 +1,282 @@
+package lox;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// the suspended call of a function that yields. the tree-walker keeps its
+// state on the Java stack, so the body runs on a thread and an interpreter
+// of its own that takes turns with whoever is iterating it: only one of
+// them ever runs at a time
+class LoxGenerator implements NativeObject, LoxIterator {
+  // unwinds a generator that is closed while suspended
+  private static class Close extends RuntimeException {
+    Close() {
+      super(null, null, false, false);
+    }
+  }
+
+  // finishes the threads of generators that were dropped while suspended
+  private static final Cleaner cleaner = Cleaner.create();
+
+  // the generator threads that haven't finished. dropped generators are
+  // only cleaned after a garbage collection, which running out of threads
+  // doesn't bring about, so like direct buffers running out of memory,
+  // starting many more than were left after the last collection asks for
+  // one first
+  private static final int THREADS = 1024;
+  private static final AtomicInteger live = new AtomicInteger();
+  private static int limit = THREADS;
+
+  // everything the generator's thread refers to. a suspended thread keeps
+  // this reachable, so it must not refer back to the LoxGenerator, or a
+  // generator that's dropped before it finishes would never be cleaned
+  static final class State {
+    private final Interpreter interpreter;
+    private final CallableNode declaration;
+    private final Environment frame;
+    private final Semaphore resumed = new Semaphore(0);
+    private final Semaphore suspended = new Semaphore(0);
+    private Thread thread = null;
+    // set while some task is waiting for the body to yield
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private boolean closing = false;
+    private boolean done = false;
+
+    // written by the generator thread before it hands control back
+    private Object value;
+    private boolean hasValue = false;
+    private Throwable error = null;
+
+    private State(
+      Interpreter interpreter,
+      CallableNode declaration,
+      Environment frame
+    ) {
+      this.interpreter = interpreter.fork();
+      this.interpreter.generator = this;
+      this.declaration = declaration;
+      this.frame = frame;
+    }
+
+    private boolean hasNext() {
+      if (!hasValue && !done) {
+        resume();
+      }
+      return hasValue;
+    }
+
+    private Object next() {
+      if (!hasNext()) {
+        return null;
+      }
+      Object next = value;
+      value = null;
+      hasValue = false;
+      return next;
+    }
+
+    private void close() {
+      if (done) {
+        return;
+      }
+      if (thread == null) {
+        done = true;
+        return;
+      }
+
+      closing = true;
+      resume();
+    }
+
+    // run by the cleaner once nothing can resume the generator any more.
+    // the thread unwinds on its own, as if the generator had been closed
+    private void abandon() {
+      if (thread == null || done) {
+        return;
+      }
+      closing = true;
+      resumed.release();
+    }
+
+    // called on the generator thread by a yield statement
+    public void yield(Object value) {
+      this.value = value;
+      hasValue = true;
+
+      suspended.release();
+      resumed.acquireUninterruptibly();
+      if (closing) {
+        throw new Close();
+      }
+    }
+
+    private void resume() {
+      if (!running.compareAndSet(false, true)) {
+        throw new RuntimeError(null, "Generator is already running");
+      }
+
+      if (thread == null) {
+        if (live.incrementAndGet() > limit) {
+          collect();
+        }
+        thread = Threads.start(
+          "generator " + declaration.getName().lexeme,
+          this::run
+        );
+      }
+      else {
+        resumed.release();
+      }
+      suspended.acquireUninterruptibly();
+      running.set(false);
+
+      if (error != null) {
+        Throwable thrown = error;
+        error = null;
+        if (thrown instanceof RuntimeException) {
+          throw (RuntimeException) thrown;
+        }
+        throw (Error) thrown;
+      }
+    }
+
+    private void run() {
+      Profiler.Stack previous = interpreter.enter();
+      try {
+        interpreter.executeBlock(declaration.getBody(), frame);
+      }
+      catch (Return | Close finished) {
+        // returning just ends the generator
+      }
+      catch (Throwable thrown) {
+        error = thrown;
+      }
+      finally {
+        interpreter.exit(previous);
+      }
+
+      done = true;
+      live.decrementAndGet();
+      suspended.release();
+    }
+  }
+
+  static int threads() {
+    return live.get();
+  }
+
+  private static synchronized void collect() {
+    if (live.get() <= limit) {
+      return;
+    }
+    System.gc();
+    // the cleaner finishes the threads on a thread of its own
+    for (int i = 0; i < 8 && live.get() > limit / 2; i++) {
+      try {
+        Thread.sleep(1 << i);
+      }
+      catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    limit = Math.max(THREADS, live.get() * 2);
+  }
+
+  private final State state;
+
+  public LoxGenerator(
+    Interpreter interpreter,
+    CallableNode declaration,
+    Environment frame
+  ) {
+    this.state = new State(interpreter, declaration, frame);
+    cleaner.register(this, state::abandon);
+  }
+
+  // the fences keep the generator from being cleaned while it is resumed
+  @Override
+  public boolean hasNext() {
+    try {
+      return state.hasNext();
+    }
+    finally {
+      Reference.reachabilityFence(this);
+    }
+  }
+
+  @Override
+  public Object next() {
+    try {
+      return state.next();
+    }
+    finally {
+      Reference.reachabilityFence(this);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      state.close();
+    }
+    finally {
+      Reference.reachabilityFence(this);
+    }
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "next":
+      case "close":
+        return 0;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    try {
+      switch (name.lexeme) {
+        case "next":
+          return next();
+        case "close":
+          close();
+          return null;
+        default:
+          throw new RuntimeError(
+            name,
+            "Undefined property '" + name.lexeme + "'"
+          );
+      }
+    }
+    catch (RuntimeError error) {
+      if (error.token == null) {
+        throw new RuntimeError(name, error.getMessage());
+      }
+      throw error;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<generator " + state.declaration.getName().lexeme + ">";
+  }
+}
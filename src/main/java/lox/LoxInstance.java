@@ -9,10 +9,21 @@ class LoxInstance {
 
   public LoxInstance(LoxClass klass) {
     this.klass = klass;
+    if (Flight.allocations) {
+      Flight.instance(klass);
+    }
   }
 
   public LoxInstance() {}
 
+  public LoxClass getLoxClass() {
+    return klass;
+  }
+
+  public Map<String, Object> getFields() {
+    return fields;
+  }
+
   public Object get(Token name) {
     if (fields.containsKey(name.lexeme)) {
       return fields.get(name.lexeme);
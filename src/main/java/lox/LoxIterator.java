@@ -0,0 +1,10 @@
+package lox;
+
+// something a for-in loop can walk over one value at a time
+interface LoxIterator {
+  boolean hasNext();
+  Object next();
+
+  // called when a loop stops before the iterator runs out
+  default void close() {}
+}
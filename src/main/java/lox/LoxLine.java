@@ -0,0 +1,160 @@
+package lox;
+
+// one line of a mapped file, as a byte range of the mapping. the text is
+// only decoded the first time something needs it as a string, and the
+// searching and splitting methods work on the bytes directly
+class LoxLine implements NativeObject {
+  private final LoxFile file;
+  private final long start;
+  private final long end;
+  private String text = null;
+
+  public LoxLine(LoxFile file, long start, long end) {
+    this.file = file;
+    this.start = start;
+    this.end = end;
+  }
+
+  public boolean startsWith(String prefix) {
+    byte[] bytes = file.encode(prefix);
+    return bytes.length <= end - start && file.regionMatches(start, bytes);
+  }
+
+  public boolean contains(String infix) {
+    return file.indexOf(file.encode(infix), start, end) >= 0;
+  }
+
+  public int fieldCount(byte[] separator) {
+    int count = 1;
+    for (
+      long i = file.indexOf(separator, start, end);
+      i >= 0;
+      i = file.indexOf(separator, i + separator.length, end)
+    ) {
+      count++;
+    }
+    return count;
+  }
+
+  // the field at the index, or null if the line doesn't have that many
+  public String field(int index, byte[] separator) {
+    long fieldStart = start;
+    for (int i = 0; i < index; i++) {
+      long next = file.indexOf(separator, fieldStart, end);
+      if (next < 0) {
+        return null;
+      }
+      fieldStart = next + separator.length;
+    }
+
+    long fieldEnd = file.indexOf(separator, fieldStart, end);
+    return file.decode(fieldStart, fieldEnd < 0 ? end : fieldEnd);
+  }
+
+  public LoxArray split(byte[] separator) {
+    LoxArray fields = new LoxArray();
+    long fieldStart = start;
+    for (;;) {
+      long fieldEnd = file.indexOf(separator, fieldStart, end);
+      if (fieldEnd < 0) {
+        break;
+      }
+      fields.push(file.decode(fieldStart, fieldEnd));
+      fieldStart = fieldEnd + separator.length;
+    }
+    fields.push(file.decode(fieldStart, end));
+    return fields;
+  }
+
+  private byte[] separator(Token name, Object argument) {
+    byte[] bytes = file.encode(checkString(name, argument));
+    if (bytes.length == 0) {
+      throw new RuntimeError(name, "Separator must not be empty");
+    }
+    return bytes;
+  }
+
+  private static String checkString(Token name, Object argument) {
+    if (!(argument instanceof String)) {
+      throw new RuntimeError(
+        name,
+        "Argument to '" + name.lexeme + "' must be a string"
+      );
+    }
+    return (String) argument;
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    if (name.lexeme.equals("size")) {
+      return end - start;
+    }
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "text":
+        return 0;
+      case "startsWith":
+      case "contains":
+      case "fieldCount":
+      case "split":
+        return 1;
+      case "field":
+        return 2;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    switch (name.lexeme) {
+      case "text":
+        return toString();
+      case "startsWith":
+        return startsWith(checkString(name, arguments[0]));
+      case "contains":
+        return contains(checkString(name, arguments[0]));
+      case "fieldCount":
+        return (long) fieldCount(separator(name, arguments[0]));
+      case "split":
+        return split(separator(name, arguments[0]));
+      case "field": {
+        if (!(arguments[0] instanceof Number)) {
+          throw new RuntimeError(name, "Field index must be a number");
+        }
+        double index = ((Number) arguments[0]).doubleValue();
+        if (index < 0 || index != (int) index) {
+          throw new RuntimeError(
+            name,
+            "Field index must be a non-negative integer"
+          );
+        }
+        return field((int) index, separator(name, arguments[1]));
+      }
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (text == null) {
+      text = file.decode(start, end);
+    }
+    return text;
+  }
+}
@@ -0,0 +1,365 @@
+package lox;
+
+// an insertion-ordered hash map. entries live in parallel arrays in the
+// order they were added, and an open-addressing table of entry numbers
+// (linear probing, backward-shift deletion) indexes them, so adding a key
+// never allocates a node
+class LoxMap implements NativeObject {
+  // the key of an entry that has been removed but not yet compacted away
+  private static final Object REMOVED = new Object();
+  private static final int EMPTY = 0;
+  // the most entries a map can be presized for. the table for it is the
+  // largest one the arithmetic in allocate() gets right, and the map can
+  // still grow past it one rebuild at a time
+  static final int MAX_EXPECTED = 1 << 24;
+
+  // entry number + 1 for each used slot, EMPTY otherwise
+  private int[] slots;
+  private int shift;
+  private Object[] keys;
+  private Object[] values;
+  private int[] hashes;
+  // entries used so far, including removed ones
+  private int count = 0;
+  private int size = 0;
+  // how many times the entries have been moved, which invalidates iterators
+  private int rebuilds = 0;
+
+  public LoxMap() {
+    this(8);
+  }
+
+  public LoxMap(int expected) {
+    allocate(Math.max(expected, 4));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Object get(Object key) {
+    key = normalize(key);
+    int slot = locate(key, hash(key));
+    if (slots[slot] == EMPTY) {
+      return null;
+    }
+    return values[slots[slot] - 1];
+  }
+
+  public boolean has(Object key) {
+    key = normalize(key);
+    return slots[locate(key, hash(key))] != EMPTY;
+  }
+
+  public void put(Object key, Object value) {
+    key = normalize(key);
+    int hash = hash(key);
+    int slot = locate(key, hash);
+    if (slots[slot] != EMPTY) {
+      values[slots[slot] - 1] = value;
+      return;
+    }
+
+    if (count == keys.length) {
+      rebuild();
+      slot = locate(key, hash);
+    }
+
+    keys[count] = key;
+    values[count] = value;
+    hashes[count] = hash;
+    slots[slot] = ++count;
+    size++;
+  }
+
+  public Object remove(Object key) {
+    key = normalize(key);
+    int slot = locate(key, hash(key));
+    if (slots[slot] == EMPTY) {
+      return null;
+    }
+
+    int entry = slots[slot] - 1;
+    Object value = values[entry];
+    keys[entry] = REMOVED;
+    values[entry] = null;
+    size--;
+
+    // shift later entries of the probe sequence back into the hole, so
+    // lookups never have to skip over tombstones
+    int mask = slots.length - 1;
+    int hole = slot;
+    for (int i = (slot + 1) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+      int home = hashes[slots[i] - 1] >>> shift;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        slots[hole] = slots[i];
+        hole = i;
+      }
+    }
+    slots[hole] = EMPTY;
+
+    return value;
+  }
+
+  public LoxArray keys() {
+    LoxArray array = new LoxArray(size);
+    for (int i = 0; i < count; i++) {
+      if (keys[i] != REMOVED) {
+        array.push(keys[i]);
+      }
+    }
+    return array;
+  }
+
+  public LoxArray values() {
+    LoxArray array = new LoxArray(size);
+    for (int i = 0; i < count; i++) {
+      if (keys[i] != REMOVED) {
+        array.push(values[i]);
+      }
+    }
+    return array;
+  }
+
+  // iterates over the keys, in the order they were added
+  public LoxIterator iterator() {
+    return new LoxIterator() {
+      private final int expectedRebuilds = rebuilds;
+      private int entry = 0;
+
+      @Override
+      public boolean hasNext() {
+        if (rebuilds != expectedRebuilds) {
+          throw new RuntimeError(null, "Map was resized during iteration");
+        }
+        while (entry < count && keys[entry] == REMOVED) {
+          entry++;
+        }
+        return entry < count;
+      }
+
+      @Override
+      public Object next() {
+        return keys[entry++];
+      }
+    };
+  }
+
+  // the slot holding the key, or the empty slot where it would go
+  private int locate(Object key, int hash) {
+    int mask = slots.length - 1;
+    int slot = hash >>> shift;
+
+    if (key instanceof Long) {
+      long integer = (long) key;
+      for (;; slot = (slot + 1) & mask) {
+        int entry = slots[slot] - 1;
+        if (
+          entry < 0
+          || hashes[entry] == hash
+          && keys[entry] instanceof Long
+          && (long) keys[entry] == integer
+        ) {
+          return slot;
+        }
+      }
+    }
+
+    if (key instanceof Double) {
+      long bits = Double.doubleToLongBits((double) key);
+      for (;; slot = (slot + 1) & mask) {
+        int entry = slots[slot] - 1;
+        if (
+          entry < 0
+          || hashes[entry] == hash
+          && keys[entry] instanceof Double
+          && Double.doubleToLongBits((double) keys[entry]) == bits
+        ) {
+          return slot;
+        }
+      }
+    }
+
+    if (key instanceof String) {
+      for (;; slot = (slot + 1) & mask) {
+        int entry = slots[slot] - 1;
+        if (
+          entry < 0
+          || hashes[entry] == hash && key.equals(keys[entry])
+        ) {
+          return slot;
+        }
+      }
+    }
+
+    for (;; slot = (slot + 1) & mask) {
+      int entry = slots[slot] - 1;
+      if (
+        entry < 0
+        || hashes[entry] == hash
+        && (key == null ? keys[entry] == null : key.equals(keys[entry]))
+      ) {
+        return slot;
+      }
+    }
+  }
+
+  // a double with an integral value is the same key as that integer
+  private static Object normalize(Object key) {
+    if (key instanceof Double) {
+      double number = (double) key;
+      long integer = (long) number;
+      // -0 stays a key of its own, since it isn't equal to 0
+      if (
+        integer == number
+        && number != 0x1p63
+        && Double.doubleToRawLongBits(number) != Long.MIN_VALUE
+      ) {
+        return integer;
+      }
+    }
+    return key;
+  }
+
+  private static int hash(Object key) {
+    int hash;
+    if (key instanceof Long) {
+      long integer = (long) key;
+      hash = (int) (integer ^ (integer >>> 32));
+    }
+    else if (key instanceof Double) {
+      long bits = Double.doubleToLongBits((double) key);
+      hash = (int) (bits ^ (bits >>> 32));
+    }
+    else if (key == null) {
+      hash = 0;
+    }
+    else {
+      hash = key.hashCode();
+    }
+
+    // the table is indexed by the top bits, so spread the low ones up
+    return hash * 0x9E3779B9;
+  }
+
+  private void allocate(int capacity) {
+    // keep the table at most two thirds full
+    int tableSize = Integer.highestOneBit(capacity * 3 / 2) * 2;
+    slots = new int[tableSize];
+    shift = Integer.numberOfLeadingZeros(tableSize) + 1;
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    hashes = new int[capacity];
+  }
+
+  // make room for more entries, compacting away removed ones and growing
+  // only if the map is actually full
+  private void rebuild() {
+    Object[] oldKeys = keys;
+    Object[] oldValues = values;
+    int[] oldHashes = hashes;
+    int oldCount = count;
+    rebuilds++;
+
+    int capacity = keys.length;
+    if (size >= capacity / 2) {
+      capacity *= 2;
+    }
+    allocate(capacity);
+
+    count = 0;
+    int mask = slots.length - 1;
+    for (int i = 0; i < oldCount; i++) {
+      if (oldKeys[i] == REMOVED) {
+        continue;
+      }
+      keys[count] = oldKeys[i];
+      values[count] = oldValues[i];
+      hashes[count] = oldHashes[i];
+
+      int slot = oldHashes[i] >>> shift;
+      while (slots[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = ++count;
+    }
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    if (name.lexeme.equals("size")) {
+      return (long) size;
+    }
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "keys":
+      case "values":
+        return 0;
+      case "has":
+      case "remove":
+        return 1;
+      case "get":
+        return 2;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    switch (name.lexeme) {
+      case "keys":
+        return keys();
+      case "values":
+        return values();
+      case "has":
+        return has(arguments[0]);
+      case "remove":
+        return remove(arguments[0]);
+      case "get": {
+        Object key = normalize(arguments[0]);
+        int slot = locate(key, hash(key));
+        if (slots[slot] == EMPTY) {
+          return arguments[1];
+        }
+        return values[slots[slot] - 1];
+      }
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    boolean first = true;
+    for (int i = 0; i < count; i++) {
+      if (keys[i] == REMOVED) {
+        continue;
+      }
+      if (!first) {
+        builder.append(", ");
+      }
+      first = false;
+      builder
+        .append(Interpreter.stringify(keys[i]))
+        .append(": ")
+        .append(Interpreter.stringify(values[i]));
+    }
+    return builder.append("}").toString();
+  }
+}
@@ -0,0 +1,44 @@
+package lox;
+
+import java.util.Map;
+
+// what the runtime exposes through JMX as lox:type=Metrics. the counts
+// are for every isolate in the process since it started
+public interface LoxMetricsMXBean {
+  public long getScriptsExecuted();
+
+  public int getLiveIsolates();
+
+  // calls of functions, methods, classes and natives. each interpreter
+  // adds its calls to the count in batches, so it can trail behind a
+  // little while scripts are running
+  public long getCalls();
+
+  // since the previous time this was read
+  public double getCallsPerSecond();
+
+  public long getOutputBytes();
+
+  public Map<String, Long> getRuntimeErrors();
+
+  // the upper bound of each bucket of the latency histograms
+  public long[] getLatencyBucketMicros();
+
+  // how many scans, parses, resolves and executions of a script fell into
+  // each bucket, by phase
+  public Map<String, long[]> getPhaseLatencies();
+
+  // the programs the daemon compiled once and ran again
+  public long getProgramCacheHits();
+
+  public long getProgramCacheMisses();
+
+  public double getProgramCacheHitRate();
+
+  // the preludes loaded from a snapshot rather than run
+  public long getSnapshotHits();
+
+  public long getSnapshotMisses();
+
+  public double getSnapshotHitRate();
+}
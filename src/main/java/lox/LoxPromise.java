@@ -0,0 +1,137 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the eventual result of an async call or an I/O operation. promises are
+// only settled and waited on by code running for the event loop, which
+// never runs two things at once, so only the state needs to be visible to
+// other threads
+class LoxPromise implements NativeObject {
+  private enum State {
+    PENDING,
+    FULFILLED,
+    REJECTED
+  }
+
+  private final EventLoop loop;
+  private volatile State state = State.PENDING;
+  private Object value = null;
+  private RuntimeError error = null;
+  // whether anyone waited for it, so rejections nobody saw get reported
+  private boolean handled = false;
+  private List<Runnable> callbacks = null;
+
+  public LoxPromise(EventLoop loop) {
+    this.loop = loop;
+  }
+
+  public boolean isSettled() {
+    return state != State.PENDING;
+  }
+
+  public boolean isHandled() {
+    return handled;
+  }
+
+  public void fulfill(Object value) {
+    if (isSettled()) {
+      return;
+    }
+    this.value = value;
+    state = State.FULFILLED;
+    settled();
+  }
+
+  public void reject(RuntimeError error) {
+    if (isSettled()) {
+      return;
+    }
+    this.error = error;
+    state = State.REJECTED;
+    if (!handled) {
+      loop.rejected(this);
+    }
+    settled();
+  }
+
+  // the callback runs on the loop after the promise settles, even if it
+  // already has
+  public void then(Runnable callback) {
+    handled = true;
+    if (isSettled()) {
+      loop.post(callback);
+      return;
+    }
+
+    if (callbacks == null) {
+      callbacks = new ArrayList<>();
+    }
+    callbacks.add(callback);
+  }
+
+  // the value of a settled promise, or its error thrown again
+  public Object result() {
+    handled = true;
+    if (state == State.REJECTED) {
+      throw error;
+    }
+    return value;
+  }
+
+  public RuntimeError error() {
+    return error;
+  }
+
+  private void settled() {
+    if (callbacks != null) {
+      for (Runnable callback : callbacks) {
+        loop.post(callback);
+      }
+      callbacks = null;
+    }
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    if (name.lexeme.equals("done")) {
+      return isSettled();
+    }
+    throw new RuntimeError(
+      name,
+      "Undefined property '" + name.lexeme + "'"
+    );
+  }
+
+  @Override
+  public int arity(Token name) {
+    throw new RuntimeError(
+      name,
+      "Undefined property '" + name.lexeme + "'"
+    );
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    throw new RuntimeError(
+      name,
+      "Undefined property '" + name.lexeme + "'"
+    );
+  }
+
+  @Override
+  public String toString() {
+    switch (state) {
+      case PENDING:
+        return "<promise pending>";
+      case FULFILLED:
+        return "<promise fulfilled>";
+      default:
+        return "<promise rejected>";
+    }
+  }
+}
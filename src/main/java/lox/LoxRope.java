@@ -0,0 +1,108 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// a lazily flattened string, produced by '+' once the left side is long so
+// that repeated appends don't copy the whole accumulated string every time
+class LoxRope implements CharSequence {
+  // strings at least this long are appended to as ropes
+  static final int THRESHOLD = 256;
+
+  private final int length;
+  // the pieces until the rope is flattened, then the whole string. ropes
+  // can be shared with tasks and parallel workers, so both are published
+  // through the one volatile field, and a thread that reads it sees
+  // either the pieces or the finished string, never the pieces cleared
+  private volatile Object contents;
+
+  private static final class Pieces {
+    final CharSequence left;
+    final CharSequence right;
+
+    Pieces(CharSequence left, CharSequence right) {
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  public LoxRope(CharSequence left, CharSequence right) {
+    this.length = left.length() + right.length();
+    this.contents = new Pieces(leaf(left), leaf(right));
+  }
+
+  // a rope that has already been flattened is just its string
+  private static CharSequence leaf(CharSequence text) {
+    if (text instanceof LoxRope) {
+      Object contents = ((LoxRope) text).contents;
+      if (contents instanceof String) {
+        return (String) contents;
+      }
+    }
+    return text;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return toString().charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    Object contents = this.contents;
+    if (contents instanceof String) {
+      return (String) contents;
+    }
+
+    // only one thread flattens a rope, the others wait for its string
+    synchronized (this) {
+      contents = this.contents;
+      if (contents instanceof String) {
+        return (String) contents;
+      }
+      // the pieces are no longer needed once we have the whole string
+      String flat = flatten((Pieces) contents);
+      this.contents = flat;
+      return flat;
+    }
+  }
+
+  // iterative, since ropes built in a loop are as deep as the loop is long
+  private String flatten(Pieces pieces) {
+    StringBuilder builder = new StringBuilder(length);
+    Deque<CharSequence> pending = new ArrayDeque<>();
+    pending.push(pieces.right);
+    pending.push(pieces.left);
+
+    while (!pending.isEmpty()) {
+      CharSequence text = pending.pop();
+      if (text instanceof LoxRope) {
+        // read once, since another thread may flatten it meanwhile
+        Object contents = ((LoxRope) text).contents;
+        if (contents instanceof String) {
+          builder.append((String) contents);
+        }
+        else {
+          Pieces inner = (Pieces) contents;
+          pending.push(inner.right);
+          pending.push(inner.left);
+        }
+      }
+      else {
+        builder.append((String) text);
+      }
+    }
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,154 @@
+package lox;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+// a listening TCP socket. accept() returns a promise of the next
+// connection; several accepts can wait at once and are served in order
+class LoxServer implements NativeObject, EventLoop.Handler {
+  private final EventLoop loop;
+  private final ServerSocketChannel channel;
+  private final int port;
+  private final ArrayDeque<LoxPromise> accepting = new ArrayDeque<>();
+  private boolean closed = false;
+
+  private LoxServer(EventLoop loop, ServerSocketChannel channel, int port) {
+    this.loop = loop;
+    this.channel = channel;
+    this.port = port;
+  }
+
+  // binds straight away, so that a script can connect to itself
+  public static LoxServer listen(EventLoop loop, String host, int port) {
+    try {
+      ServerSocketChannel channel = ServerSocketChannel.open();
+      channel.bind(new InetSocketAddress(host, port));
+      channel.configureBlocking(false);
+      int bound = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+      return new LoxServer(loop, channel, bound);
+    }
+    catch (IOException error) {
+      throw new RuntimeError(
+        null,
+        "Could not listen on " + host + ":" + port + ": " + error.getMessage()
+      );
+    }
+  }
+
+  public LoxPromise accept() {
+    LoxPromise promise = new LoxPromise(loop);
+    loop.begin();
+    loop.post(() -> {
+      if (closed) {
+        loop.reject(promise, "Server was closed", null);
+        return;
+      }
+      accepting.add(promise);
+      acceptWaiting();
+    });
+    return promise;
+  }
+
+  public void close() {
+    loop.post(() -> {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        channel.close();
+      }
+      catch (IOException error) {
+        // nothing more can go wrong with a closed server
+      }
+      while (!accepting.isEmpty()) {
+        loop.reject(accepting.poll(), "Server was closed", null);
+      }
+    });
+  }
+
+  @Override
+  public void ready(SelectionKey key) {
+    acceptWaiting();
+  }
+
+  private void acceptWaiting() {
+    try {
+      while (!accepting.isEmpty()) {
+        SocketChannel connection = channel.accept();
+        if (connection == null) {
+          break;
+        }
+        LoxSocket socket = new LoxSocket(loop, connection);
+        loop.end();
+        accepting.poll().fulfill(socket);
+      }
+    }
+    catch (IOException error) {
+      while (!accepting.isEmpty()) {
+        loop.reject(
+          accepting.poll(),
+          "Could not accept a connection",
+          error
+        );
+      }
+    }
+
+    loop.interest(
+      channel,
+      this,
+      accepting.isEmpty() ? 0 : SelectionKey.OP_ACCEPT
+    );
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    if (name.lexeme.equals("port")) {
+      return (long) port;
+    }
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "accept":
+      case "close":
+        return 0;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    switch (name.lexeme) {
+      case "accept":
+        return accept();
+      case "close":
+        close();
+        return null;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<server on port " + port + ">";
+  }
+}
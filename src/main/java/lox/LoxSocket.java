@@ -0,0 +1,296 @@
+package lox;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// a non-blocking TCP connection. reads and writes return promises and the
+// event loop finishes them as the socket becomes ready; a socket has at
+// most one read and one write in flight at a time. everything but starting
+// an operation happens on the loop
+class LoxSocket implements NativeObject, EventLoop.Handler {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final EventLoop loop;
+  private final SocketChannel channel;
+  private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+  private final CharBuffer decoded = CharBuffer.allocate(BUFFER_SIZE);
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+    .onMalformedInput(CodingErrorAction.REPLACE)
+    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private LoxPromise connecting = null;
+  private LoxPromise reading = null;
+  private LoxPromise writing = null;
+  private ByteBuffer output = null;
+  private boolean atEnd = false;
+  private boolean closed = false;
+
+  LoxSocket(EventLoop loop, SocketChannel channel) throws IOException {
+    this.loop = loop;
+    this.channel = channel;
+    channel.configureBlocking(false);
+  }
+
+  public static LoxPromise connect(EventLoop loop, String host, int port) {
+    LoxPromise promise = new LoxPromise(loop);
+    loop.begin();
+    loop.post(() -> {
+      try {
+        LoxSocket socket = new LoxSocket(loop, SocketChannel.open());
+        socket.connecting = promise;
+        if (socket.channel.connect(new InetSocketAddress(host, port))) {
+          socket.connected();
+        }
+        else {
+          socket.update();
+        }
+      }
+      catch (IOException | RuntimeException error) {
+        loop.reject(
+          promise,
+          "Could not connect to " + host + ":" + port,
+          error
+        );
+      }
+    });
+    return promise;
+  }
+
+  public LoxPromise read() {
+    LoxPromise promise = new LoxPromise(loop);
+    loop.begin();
+    loop.post(() -> {
+      if (reading != null) {
+        loop.reject(promise, "Socket is already being read", null);
+        return;
+      }
+      reading = promise;
+      receive();
+    });
+    return promise;
+  }
+
+  public LoxPromise write(String text) {
+    LoxPromise promise = new LoxPromise(loop);
+    loop.begin();
+    loop.post(() -> {
+      if (writing != null) {
+        loop.reject(promise, "Socket is already being written", null);
+        return;
+      }
+      writing = promise;
+      output = StandardCharsets.UTF_8.encode(text);
+      send();
+    });
+    return promise;
+  }
+
+  public void close() {
+    loop.post(() -> {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        channel.close();
+      }
+      catch (IOException error) {
+        // nothing more can go wrong with a closed socket
+      }
+      // a read of a closed socket just finds the end of it
+      if (reading != null) {
+        loop.end();
+        reading.fulfill(null);
+        reading = null;
+      }
+      if (writing != null) {
+        loop.reject(writing, "Socket was closed", null);
+        writing = null;
+      }
+      if (connecting != null) {
+        loop.reject(connecting, "Socket was closed", null);
+        connecting = null;
+      }
+    });
+  }
+
+  @Override
+  public void ready(SelectionKey key) {
+    if (connecting != null && key.isConnectable()) {
+      connected();
+      return;
+    }
+    if (reading != null && key.isReadable()) {
+      receive();
+    }
+    if (writing != null && key.isValid() && key.isWritable()) {
+      send();
+    }
+  }
+
+  private void connected() {
+    LoxPromise promise = connecting;
+    connecting = null;
+    try {
+      channel.finishConnect();
+      update();
+      loop.end();
+      promise.fulfill(this);
+    }
+    catch (IOException error) {
+      closeQuietly();
+      loop.reject(promise, "Could not connect", error);
+    }
+  }
+
+  // reads whatever has arrived, and settles the read if that makes text
+  private void receive() {
+    try {
+      String text = atEnd ? null : decode(channel.read(input));
+      if (text == null && !atEnd) {
+        update();
+        return;
+      }
+
+      LoxPromise promise = reading;
+      reading = null;
+      update();
+      loop.end();
+      promise.fulfill(text);
+    }
+    catch (IOException error) {
+      LoxPromise promise = reading;
+      reading = null;
+      closeQuietly();
+      loop.reject(promise, "Could not read from socket", error);
+    }
+  }
+
+  // the text the bytes read so far make up, or null if they don't make up
+  // any yet. a character split between reads waits for its other half
+  private String decode(int count) {
+    if (count < 0) {
+      atEnd = true;
+    }
+
+    input.flip();
+    decoder.decode(input, decoded, atEnd);
+    if (atEnd) {
+      decoder.flush(decoded);
+    }
+    input.compact();
+
+    if (decoded.position() == 0) {
+      return null;
+    }
+    decoded.flip();
+    String text = decoded.toString();
+    decoded.clear();
+    return text;
+  }
+
+  private void send() {
+    try {
+      channel.write(output);
+      if (output.hasRemaining()) {
+        update();
+        return;
+      }
+
+      LoxPromise promise = writing;
+      writing = null;
+      output = null;
+      update();
+      loop.end();
+      promise.fulfill(null);
+    }
+    catch (IOException error) {
+      LoxPromise promise = writing;
+      writing = null;
+      closeQuietly();
+      loop.reject(promise, "Could not write to socket", error);
+    }
+  }
+
+  // tells the loop what this socket is waiting for
+  private void update() {
+    if (closed) {
+      return;
+    }
+    int ops = 0;
+    if (connecting != null) {
+      ops |= SelectionKey.OP_CONNECT;
+    }
+    if (reading != null) {
+      ops |= SelectionKey.OP_READ;
+    }
+    if (writing != null) {
+      ops |= SelectionKey.OP_WRITE;
+    }
+    loop.interest(channel, this, ops);
+  }
+
+  private void closeQuietly() {
+    closed = true;
+    try {
+      channel.close();
+    }
+    catch (IOException error) {
+      // already failing
+    }
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    switch (name.lexeme) {
+      case "write":
+        return 1;
+      case "read":
+      case "close":
+        return 0;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    switch (name.lexeme) {
+      case "read":
+        return read();
+      case "write":
+        return write(Interpreter.stringify(arguments[0]));
+      case "close":
+        close();
+        return null;
+      default:
+        throw new RuntimeError(
+          name,
+          "Undefined property '" + name.lexeme + "'"
+        );
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<socket>";
+  }
+}
@@ -0,0 +1,93 @@
+package lox;
+
+import java.util.concurrent.Semaphore;
+
+// a function running concurrently with the code that spawned it, on an
+// interpreter of its own. an error in a task is reported as soon as it
+// happens, the same way an error in the main script would be
+class LoxTask implements NativeObject {
+  private final LoxCallable function;
+  // released once the task is over, and by every join after that
+  private final Semaphore finished = new Semaphore(0);
+  // written by the task before it releases finished
+  private Object result = null;
+  private boolean failed = false;
+
+  private LoxTask(LoxCallable function) {
+    this.function = function;
+  }
+
+  public static LoxTask spawn(Interpreter parent, LoxCallable function) {
+    LoxTask task = new LoxTask(function);
+    Interpreter interpreter = parent.fork();
+    Threads.start("task " + function, () -> task.run(interpreter));
+    return task;
+  }
+
+  private void run(Interpreter interpreter) {
+    Profiler.Stack previous = interpreter.enter();
+    try {
+      result = function.call0(interpreter);
+    }
+    catch (RuntimeError error) {
+      failed = true;
+      interpreter.diagnostics.runtimeError(error);
+    }
+    catch (Throwable error) {
+      failed = true;
+      throw error;
+    }
+    finally {
+      interpreter.exit(previous);
+      finished.release();
+    }
+  }
+
+  public boolean isDone() {
+    return finished.availablePermits() > 0;
+  }
+
+  // waits for the task to finish and returns what its function returned
+  public Object join(Token name) {
+    finished.acquireUninterruptibly();
+    finished.release();
+
+    if (failed) {
+      throw new RuntimeError(name, "Joined a task that failed");
+    }
+    return result;
+  }
+
+  @Override
+  public Object getProperty(Token name) {
+    if (name.lexeme.equals("done")) {
+      return isDone();
+    }
+    return new NativeMethod(this, name);
+  }
+
+  @Override
+  public int arity(Token name) {
+    if (name.lexeme.equals("join")) {
+      return 0;
+    }
+    throw new RuntimeError(
+      name,
+      "Undefined property '" + name.lexeme + "'"
+    );
+  }
+
+  @Override
+  public Object invoke(
+    Interpreter interpreter,
+    Token name,
+    Object[] arguments
+  ) {
+    return join(name);
+  }
+
+  @Override
+  public String toString() {
+    return "<task " + function + ">";
+  }
+}
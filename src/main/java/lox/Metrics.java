@@ -0,0 +1,230 @@
+package lox;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// counters for the whole process, exposed as an MXBean. they are all
+// LongAdders, so threads counting at once don't contend, and the hottest
+// one, calls, is counted by each interpreter on its own and added here in
+// batches. starting the platform MBean server takes longer than most
+// scripts do, so the bean is only registered by the daemon, by programs
+// embedding Lox that call register(), or with -Dlox.jmx=true
+public final class Metrics implements LoxMetricsMXBean {
+  static final int SCAN = 0;
+  static final int PARSE = 1;
+  static final int RESOLVE = 2;
+  static final int EXECUTE = 3;
+  private static final String[] PHASES = {
+    "scan", "parse", "resolve", "execute"
+  };
+
+  // latencies under 2^i microseconds go in bucket i, up to about 17
+  // seconds, and everything longer in the last one
+  private static final int BUCKETS = 26;
+
+  // keeps runtimeErrors from growing without bound when messages have
+  // values in them
+  private static final int ERROR_MESSAGES = 1000;
+  private static final String OTHER_ERRORS = "(other)";
+
+  private static final LongAdder scripts = new LongAdder();
+  private static final LongAdder liveIsolates = new LongAdder();
+  private static final LongAdder calls = new LongAdder();
+  private static final LongAdder outputBytes = new LongAdder();
+  private static final Map<String, LongAdder> errors =
+    new ConcurrentHashMap<>();
+  private static final LongAdder[][] latencies = new LongAdder[4][BUCKETS];
+  private static final LongAdder programHits = new LongAdder();
+  private static final LongAdder programMisses = new LongAdder();
+  private static final LongAdder snapshotHits = new LongAdder();
+  private static final LongAdder snapshotMisses = new LongAdder();
+
+  private static final Cleaner cleaner = Cleaner.create();
+  private static boolean registered = false;
+
+  static {
+    for (LongAdder[] histogram : latencies) {
+      for (int i = 0; i < BUCKETS; i++) {
+        histogram[i] = new LongAdder();
+      }
+    }
+    if (Boolean.getBoolean("lox.jmx")) {
+      register();
+    }
+  }
+
+  // for getCallsPerSecond()
+  private long lastCalls = 0;
+  private long lastRead = System.nanoTime();
+
+  private Metrics() {}
+
+  public static synchronized void register() {
+    if (registered) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+        new Metrics(),
+        new ObjectName("lox:type=Metrics")
+      );
+      registered = true;
+    }
+    catch (JMException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  // counts an isolate as live until the returned cleanable is cleaned,
+  // which closing the isolate does, or else until the isolate is garbage
+  static Cleaner.Cleanable isolate(Isolate isolate) {
+    liveIsolates.increment();
+    return cleaner.register(isolate, liveIsolates::decrement);
+  }
+
+  // records how long a phase took and returns the time it ended, which is
+  // when the next one starts
+  static long phase(int phase, long start) {
+    long end = System.nanoTime();
+    long micros = (end - start) / 1000;
+    int bucket = Math.min(
+      64 - Long.numberOfLeadingZeros(micros),
+      BUCKETS - 1
+    );
+    latencies[phase][bucket].increment();
+    if (phase == EXECUTE) {
+      scripts.increment();
+    }
+    return end;
+  }
+
+  static void calls(int count) {
+    calls.add(count);
+  }
+
+  static void output(int bytes) {
+    outputBytes.add(bytes);
+  }
+
+  static void error(String message) {
+    LongAdder count = errors.get(message);
+    if (count == null) {
+      if (errors.size() >= ERROR_MESSAGES) {
+        message = OTHER_ERRORS;
+      }
+      count = errors.computeIfAbsent(message, key -> new LongAdder());
+    }
+    count.increment();
+  }
+
+  static void program(boolean hit) {
+    (hit ? programHits : programMisses).increment();
+  }
+
+  static void snapshot(boolean hit) {
+    (hit ? snapshotHits : snapshotMisses).increment();
+  }
+
+  @Override
+  public long getScriptsExecuted() {
+    return scripts.sum();
+  }
+
+  @Override
+  public int getLiveIsolates() {
+    return liveIsolates.intValue();
+  }
+
+  @Override
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  @Override
+  public synchronized double getCallsPerSecond() {
+    long now = System.nanoTime();
+    long total = calls.sum();
+    double rate = (total - lastCalls) * 1e9 / Math.max(now - lastRead, 1);
+    lastCalls = total;
+    lastRead = now;
+    return rate;
+  }
+
+  @Override
+  public long getOutputBytes() {
+    return outputBytes.sum();
+  }
+
+  @Override
+  public Map<String, Long> getRuntimeErrors() {
+    Map<String, Long> counts = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().sum());
+    }
+    return counts;
+  }
+
+  @Override
+  public long[] getLatencyBucketMicros() {
+    long[] bounds = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      bounds[i] = 1L << i;
+    }
+    bounds[BUCKETS - 1] = Long.MAX_VALUE;
+    return bounds;
+  }
+
+  @Override
+  public Map<String, long[]> getPhaseLatencies() {
+    Map<String, long[]> histograms = new LinkedHashMap<>();
+    for (int phase = 0; phase < PHASES.length; phase++) {
+      long[] counts = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = latencies[phase][i].sum();
+      }
+      histograms.put(PHASES[phase], counts);
+    }
+    return histograms;
+  }
+
+  @Override
+  public long getProgramCacheHits() {
+    return programHits.sum();
+  }
+
+  @Override
+  public long getProgramCacheMisses() {
+    return programMisses.sum();
+  }
+
+  @Override
+  public double getProgramCacheHitRate() {
+    return rate(programHits.sum(), programMisses.sum());
+  }
+
+  @Override
+  public long getSnapshotHits() {
+    return snapshotHits.sum();
+  }
+
+  @Override
+  public long getSnapshotMisses() {
+    return snapshotMisses.sum();
+  }
+
+  @Override
+  public double getSnapshotHitRate() {
+    return rate(snapshotHits.sum(), snapshotMisses.sum());
+  }
+
+  private static double rate(long hits, long misses) {
+    return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+}
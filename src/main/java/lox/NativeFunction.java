@@ -0,0 +1,79 @@
+package lox;
+
+// a function implemented in Java. subclasses override the entry point for
+// their arity (or call itself, past four arguments). the others raise a
+// runtime error, so a native whose arity and entry point disagree fails
+// like any other bad call
+abstract class NativeFunction implements LoxCallable {
+  private final int arity;
+
+  public NativeFunction(int arity) {
+    this.arity = arity;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    switch (arguments.length) {
+      case 0:
+        return call0(interpreter);
+      case 1:
+        return call1(interpreter, arguments[0]);
+      case 2:
+        return call2(interpreter, arguments[0], arguments[1]);
+      case 3:
+        return call3(interpreter, arguments[0], arguments[1], arguments[2]);
+      case 4:
+        return call4(
+          interpreter,
+          arguments[0], arguments[1], arguments[2], arguments[3]
+        );
+      default:
+        throw unsupported(arguments.length);
+    }
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    throw unsupported(0);
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    throw unsupported(1);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    throw unsupported(2);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    throw unsupported(3);
+  }
+
+  @Override
+  public Object call4(
+    Interpreter interpreter,
+    Object a, Object b, Object c, Object d
+  ) {
+    throw unsupported(4);
+  }
+
+  private RuntimeError unsupported(int count) {
+    return new RuntimeError(
+      null,
+      "Expected " + arity + " arguments but got " + count
+    );
+  }
+
+  @Override
+  public String toString() {
+    return "<native function>";
+  }
+}
@@ -0,0 +1,29 @@
+package lox;
+
+// a method of a native object that was read as a value instead of called
+class NativeMethod implements LoxCallable {
+  private final NativeObject object;
+  private final Token name;
+  private final int arity;
+
+  public NativeMethod(NativeObject object, Token name) {
+    this.object = object;
+    this.name = name;
+    this.arity = object.arity(name);
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    return object.invoke(interpreter, name, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return "<native method " + name.lexeme + ">";
+  }
+}
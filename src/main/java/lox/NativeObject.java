@@ -0,0 +1,11 @@
+package lox;
+
+// a value implemented in Java whose methods are looked up by name, so that
+// calling one doesn't need a bound method
+interface NativeObject {
+  Object getProperty(Token name);
+
+  int arity(Token name);
+
+  Object invoke(Interpreter interpreter, Token name, Object[] arguments);
+}
@@ -0,0 +1,135 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// how many times each node of a program ran and how much time it took of
+// its own, as counted by CountingInterpreter. the report maps the nodes
+// back to the source: an annotated copy of the script with the counts and
+// self time of each line, and a JSON file with a record for every node
+// that ran, hottest first. time is wall-clock time, so a node that waits,
+// for a task to finish say, has the wait counted as its own
+class NodeProfile {
+  private static final class Tally {
+    final LongAdder count = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+  }
+
+  // nodes are compared by identity; tasks and parallel workers count
+  // into the same profile as the main script
+  private final Map<Object, Tally> tallies = new ConcurrentHashMap<>();
+  private final Path prefix;
+
+  // the reports go to the prefix followed by .txt and .json
+  public NodeProfile(Path prefix) {
+    this.prefix = prefix;
+  }
+
+  public void count(Object node, long nanos) {
+    Tally tally = tallies.get(node);
+    if (tally == null) {
+      tally = tallies.computeIfAbsent(node, key -> new Tally());
+    }
+    tally.count.increment();
+    tally.nanos.add(nanos);
+  }
+
+  // writes the reports for a program when the process exits, however it
+  // comes to
+  public void writeOnExit(Program program, String source) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        write(program, source);
+      }
+      catch (IOException error) {
+        System.err.println(
+          "Could not write the node profile to " + prefix + ": "
+            + error.getMessage()
+        );
+      }
+    }));
+  }
+
+  public void write(Program program, String source) throws IOException {
+    Map<Object, Token> positions = Positions.of(program);
+    String[] lines = source.split("\r?\n", -1);
+    long[] counts = new long[lines.length + 1];
+    long[] nanos = new long[lines.length + 1];
+    boolean[] hasNodes = new boolean[lines.length + 1];
+
+    List<Map.Entry<Object, Token>> ran = new ArrayList<>();
+    for (Map.Entry<Object, Token> entry : positions.entrySet()) {
+      int line = entry.getValue().line;
+      if (line < 1 || line > lines.length) {
+        continue;
+      }
+      hasNodes[line] = true;
+      Tally tally = tallies.get(entry.getKey());
+      if (tally == null) {
+        continue;
+      }
+      // a line ran as many times as the node on it that ran the most
+      counts[line] = Math.max(counts[line], tally.count.sum());
+      nanos[line] += tally.nanos.sum();
+      ran.add(entry);
+    }
+
+    try (PrintWriter writer = writer(".txt")) {
+      writer.printf("%12s %12s  %s%n", "count", "self ms", "source");
+      for (int line = 1; line <= lines.length; line++) {
+        if (hasNodes[line]) {
+          writer.printf(
+            "%12d %12.3f  %s%n",
+            counts[line],
+            nanos[line] / 1e6,
+            lines[line - 1]
+          );
+        }
+        else {
+          writer.printf("%12s %12s  %s%n", "", "", lines[line - 1]);
+        }
+      }
+    }
+
+    ran.sort((a, b) -> Long.compare(
+      tallies.get(b.getKey()).nanos.sum(),
+      tallies.get(a.getKey()).nanos.sum()
+    ));
+    try (PrintWriter writer = writer(".json")) {
+      writer.println("{\"nodes\": [");
+      for (int i = 0; i < ran.size(); i++) {
+        Object node = ran.get(i).getKey();
+        Token token = ran.get(i).getValue();
+        Tally tally = tallies.get(node);
+        writer.printf(
+          "  {\"kind\": \"%s.%s\", \"line\": %d, \"column\": %d,"
+            + " \"count\": %d, \"selfNanos\": %d}%s%n",
+          node instanceof Expr ? "Expr" : "Stmt",
+          node.getClass().getSimpleName(),
+          token.line,
+          token.column,
+          tally.count.sum(),
+          tally.nanos.sum(),
+          i + 1 < ran.size() ? "," : ""
+        );
+      }
+      writer.println("]}");
+    }
+  }
+
+  private PrintWriter writer(String extension) throws IOException {
+    Path path = Paths.get(prefix.toString() + extension);
+    return new PrintWriter(
+      Files.newBufferedWriter(path, StandardCharsets.UTF_8)
+    );
+  }
+}
@@ -0,0 +1,135 @@
+package lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+// the destination of print and println. System.out is an autoflushing
+// PrintStream that locks and flushes on every println, so instead we
+// collect text in a large buffer and encode it in big chunks, only
+// flushing per line when a person is watching. tasks of the same isolate
+// share it, so whole prints are written under its lock
+class Output {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final OutputStream stream;
+  private final boolean lineBuffered;
+  private final CharsetEncoder encoder;
+  private final char[] chars = new char[BUFFER_SIZE];
+  private final ByteBuffer bytes;
+  private int length = 0;
+  // set once writing to the stream fails
+  private boolean failed = false;
+
+  public Output(OutputStream stream, boolean lineBuffered) {
+    this.stream = stream;
+    this.lineBuffered = lineBuffered;
+    this.encoder = Charset.defaultCharset().newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.bytes = ByteBuffer.allocate(
+      (int) (BUFFER_SIZE * encoder.maxBytesPerChar())
+    );
+  }
+
+  // standard output, line buffered only if it is a terminal
+  public static Output stdout() {
+    return new Output(
+      new FileOutputStream(FileDescriptor.out),
+      System.console() != null
+    );
+  }
+
+  public synchronized void print(String text) {
+    write(text);
+    if (lineBuffered && text.indexOf('\n') >= 0) {
+      flush();
+    }
+  }
+
+  public synchronized void println(String text) {
+    write(text);
+    write('\n');
+    if (lineBuffered) {
+      flush();
+    }
+  }
+
+  public synchronized void flush() {
+    drain(true);
+    if (failed) {
+      return;
+    }
+    try {
+      stream.flush();
+    }
+    catch (IOException error) {
+      failed = true;
+    }
+  }
+
+  private void write(String text) {
+    int offset = 0;
+    while (offset < text.length()) {
+      if (length == chars.length) {
+        drain(false);
+      }
+      int count = Math.min(text.length() - offset, chars.length - length);
+      text.getChars(offset, offset + count, chars, length);
+      length += count;
+      offset += count;
+    }
+  }
+
+  private void write(char c) {
+    if (length == chars.length) {
+      drain(false);
+    }
+    chars[length++] = c;
+  }
+
+  // like a PrintStream, stops writing after the first error, say when
+  // whoever reads a pipe goes away, rather than failing the script
+  private void writeBytes() {
+    int count = bytes.position();
+    bytes.clear();
+    if (failed) {
+      return;
+    }
+    try {
+      stream.write(bytes.array(), 0, count);
+      Metrics.output(count);
+    }
+    catch (IOException error) {
+      failed = true;
+    }
+  }
+
+  // encode and write out the buffered characters. unless this is a flush,
+  // a trailing high surrogate waits for the rest of its pair
+  private void drain(boolean flush) {
+    CharBuffer input = CharBuffer.wrap(chars, 0, length);
+    for (;;) {
+      CoderResult result = encoder.encode(input, bytes, flush);
+      writeBytes();
+      if (!result.isOverflow()) {
+        break;
+      }
+    }
+    if (flush) {
+      encoder.flush(bytes);
+      writeBytes();
+      encoder.reset();
+    }
+
+    length = input.remaining();
+    System.arraycopy(chars, input.position(), chars, 0, length);
+  }
+}
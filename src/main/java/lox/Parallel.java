@@ -0,0 +1,234 @@
+package lox;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// parallelMap, parallelFilter and parallelReduce: the elements of an array
+// are split into ranges that the common ForkJoinPool works through at the
+// same time, each on an interpreter of its own. the callable had better
+// not write to variables the ranges share, nor change the arrays, maps and
+// instances they hold, none of which are safe to change from several
+// threads, so a function the resolver saw doing either gets a warning
+class Parallel {
+  // calling into Lox costs far more than splitting, so ranges are kept
+  // small enough that a slow element doesn't hold everything up
+  private static final int RANGES_PER_THREAD = 8;
+
+  private Parallel() {}
+
+  private interface Body {
+    void run(Interpreter interpreter, int from, int to);
+  }
+
+  // runs a body over [from, to), split in half until ranges are small
+  private static class Split extends RecursiveAction {
+    private final Interpreter parent;
+    private final Body body;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    Split(Interpreter parent, Body body, int from, int to, int grain) {
+      this.parent = parent;
+      this.body = body;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        Interpreter interpreter = parent.fork();
+        Profiler.Stack previous = interpreter.enter();
+        try {
+          body.run(interpreter, from, to);
+        }
+        finally {
+          interpreter.exit(previous);
+        }
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(
+        new Split(parent, body, from, middle, grain),
+        new Split(parent, body, middle, to, grain)
+      );
+    }
+  }
+
+  // folds each range starting from the identity, then combines the results
+  // of neighbouring ranges, so the function has to be associative
+  private static class Reduce extends RecursiveTask<Object> {
+    private final Interpreter parent;
+    private final LoxCallable function;
+    private final Object[] elements;
+    private final Object identity;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    Reduce(
+      Interpreter parent,
+      LoxCallable function,
+      Object[] elements,
+      Object identity,
+      int from,
+      int to,
+      int grain
+    ) {
+      this.parent = parent;
+      this.function = function;
+      this.elements = elements;
+      this.identity = identity;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected Object compute() {
+      Interpreter interpreter = parent.fork();
+      Profiler.Stack previous = interpreter.enter();
+      try {
+        return reduce(interpreter);
+      }
+      finally {
+        interpreter.exit(previous);
+      }
+    }
+
+    private Object reduce(Interpreter interpreter) {
+      if (to - from <= grain) {
+        Object result = identity;
+        for (int i = from; i < to; i++) {
+          result = function.call2(interpreter, result, elements[i]);
+        }
+        return result;
+      }
+
+      int middle = (from + to) >>> 1;
+      Reduce left = new Reduce(
+        parent, function, elements, identity, from, middle, grain
+      );
+      Reduce right = new Reduce(
+        parent, function, elements, identity, middle, to, grain
+      );
+      right.fork();
+      Object leftResult = left.compute();
+      return function.call2(interpreter, leftResult, right.join());
+    }
+  }
+
+  public static LoxArray map(
+    Interpreter interpreter,
+    LoxArray array,
+    LoxCallable function
+  ) {
+    check("parallelMap", interpreter, function, 1);
+    Object[] elements = elements(array);
+    Object[] results = new Object[elements.length];
+    run(interpreter, elements.length, (worker, from, to) -> {
+      for (int i = from; i < to; i++) {
+        results[i] = function.call1(worker, elements[i]);
+      }
+    });
+
+    LoxArray mapped = new LoxArray(Math.max(results.length, 1));
+    for (Object result : results) {
+      mapped.push(result);
+    }
+    return mapped;
+  }
+
+  public static LoxArray filter(
+    Interpreter interpreter,
+    LoxArray array,
+    LoxCallable function
+  ) {
+    check("parallelFilter", interpreter, function, 1);
+    Object[] elements = elements(array);
+    boolean[] keep = new boolean[elements.length];
+    run(interpreter, elements.length, (worker, from, to) -> {
+      for (int i = from; i < to; i++) {
+        keep[i] = Interpreter.isTruthy(function.call1(worker, elements[i]));
+      }
+    });
+
+    LoxArray filtered = new LoxArray();
+    for (int i = 0; i < elements.length; i++) {
+      if (keep[i]) {
+        filtered.push(elements[i]);
+      }
+    }
+    return filtered;
+  }
+
+  public static Object reduce(
+    Interpreter interpreter,
+    LoxArray array,
+    LoxCallable function,
+    Object identity
+  ) {
+    check("parallelReduce", interpreter, function, 2);
+    Object[] elements = elements(array);
+    return new Reduce(
+      interpreter,
+      function,
+      elements,
+      identity,
+      0,
+      elements.length,
+      grain(elements.length)
+    ).invoke();
+  }
+
+  private static void run(Interpreter interpreter, int length, Body body) {
+    new Split(interpreter, body, 0, length, grain(length)).invoke();
+  }
+
+  private static int grain(int length) {
+    int ranges = ForkJoinPool.getCommonPoolParallelism() * RANGES_PER_THREAD;
+    return Math.max(1, length / ranges);
+  }
+
+  // a copy of the elements, so that the workers don't read the array while
+  // the function changes its storage
+  private static Object[] elements(LoxArray array) {
+    Object[] elements = new Object[array.length()];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = array.get(i);
+    }
+    return elements;
+  }
+
+  private static void check(
+    String name,
+    Interpreter interpreter,
+    LoxCallable function,
+    int arity
+  ) {
+    if (function.arity() != arity) {
+      throw new RuntimeError(
+        null,
+        name
+        + " needs a function that takes "
+        + (arity == 1 ? "one argument" : "two arguments")
+      );
+    }
+
+    if (function instanceof LoxFunction) {
+      Token write = ((LoxFunction) function).getDeclaration().getSharedWrite();
+      if (write != null) {
+        interpreter.diagnostics.warning(
+          write,
+          "Function passed to "
+          + name
+          + " changes a variable or value it shares with other calls"
+        );
+      }
+    }
+  }
+}
@@ -10,11 +10,15 @@ class Parser {
   private static class ParseError extends RuntimeException {}
 
   private final List<Token> tokens;
+  private final Diagnostics diagnostics;
   private int current = 0;
   private int anonymousFunctionCount = 0;
+  // whether the function being parsed has yielded, making it a generator
+  private boolean hasYielded = false;
 
-  Parser(List<Token> tokens) {
+  Parser(List<Token> tokens, Diagnostics diagnostics) {
     this.tokens = tokens;
+    this.diagnostics = diagnostics;
   }
 
   public List<Stmt> parse() {
@@ -52,6 +56,9 @@ class Parser {
     if (match(WHILE)) {
       return whileStatement(loopCount);
     }
+    if (match(YIELD)) {
+      return yieldStatement();
+    }
     if (loopCount > 0 && match(BREAK)) {
       return breakStatement(loopCount);
     }
@@ -73,6 +80,10 @@ class Parser {
   }
 
   private Stmt forStatement(int loopCount) {
+    if (check(IDENTIFIER) && peekNext().type == IN) {
+      return forInStatement(loopCount);
+    }
+
     Stmt initializer;
     if (match(SEMICOLON)) {
       initializer = null;
@@ -116,6 +127,21 @@ class Parser {
     return body;
   }
 
+  private Stmt forInStatement(int loopCount) {
+    Token name = advance();
+    Token in = advance();
+    Expr iterable = expression();
+
+    consume(DO, "Expected 'do' after for-in iterable");
+    List<Stmt> body = new ArrayList<>();
+    while (!check(END) && !isAtEnd()) {
+      body.add(declaration(loopCount + 1));
+    }
+    consume(END, "Expected 'end' after block");
+
+    return new Stmt.ForIn(name, in, iterable, body);
+  }
+
   private Stmt ifStatement(int loopCount) {
     Expr condition = expression();
 
@@ -173,6 +199,19 @@ class Parser {
     return new Stmt.Return(keyword, value);
   }
 
+  private Stmt yieldStatement() {
+    Token keyword = previous();
+    hasYielded = true;
+
+    Expr value = null;
+    if (!check(SEMICOLON)) {
+      value = expression();
+    }
+
+    consume(SEMICOLON, "Expected ';' after yield value");
+    return new Stmt.Yield(keyword, value);
+  }
+
   private Stmt whileStatement(int loopCount) {
     Expr condition = expression();
 
@@ -210,7 +249,12 @@ class Parser {
         return letDeclaration();
       }
       if (match(FUN)) {
-        return function(loopCount, "function");
+        return function(loopCount, "function", false);
+      }
+      if (check(ASYNC) && peekNext().type == FUN) {
+        advance();
+        advance();
+        return function(loopCount, "function", true);
       }
 
       return statement(loopCount);
@@ -234,10 +278,10 @@ class Parser {
     List<Stmt.Function> methods = new ArrayList<>();
     while (!check(END) && !isAtEnd()) {
       if (match(STATIC)) {
-        staticMethods.add(function(0, "method"));
+        staticMethods.add(function(0, "method", match(ASYNC)));
       }
       else {
-        methods.add(function(0, "method"));
+        methods.add(function(0, "method", match(ASYNC)));
       }
     }
 
@@ -246,7 +290,11 @@ class Parser {
     return new Stmt.Class(name, superclass, methods, staticMethods);
   }
 
-  private Stmt.Function function(int loopCount, String kind) {
+  private Stmt.Function function(
+    int loopCount,
+    String kind,
+    boolean isAsync
+  ) {
     Token name = consume(IDENTIFIER, "Expected " + kind + " name");
 
     List<Token> parameters = new ArrayList<>();
@@ -264,13 +312,19 @@ class Parser {
       consume(RIGHT_PAREN, "Expected ')' after parameter list");
     }
 
+    boolean enclosingHasYielded = hasYielded;
+    hasYielded = false;
+
     List<Stmt> body = new ArrayList<>();
     while (!check(END) && !isAtEnd()) {
       body.add(declaration(0));
     }
     consume(END, "Expected 'end' after " + kind + " body");
 
-    return new Stmt.Function(name, parameters, body);
+    boolean isGenerator = hasYielded;
+    hasYielded = enclosingHasYielded;
+
+    return new Stmt.Function(name, parameters, body, isGenerator, isAsync);
   }
 
   private Expr expression() {
@@ -278,6 +332,10 @@ class Parser {
   }
 
   private Expr lambda() {
+    boolean isAsync = check(ASYNC) && peekNext().type == BACKSLASH;
+    if (isAsync) {
+      advance();
+    }
     if (!match(BACKSLASH)) {
       return sequence();
     }
@@ -290,6 +348,9 @@ class Parser {
       } while (match(COMMA));
     }
 
+    boolean enclosingHasYielded = hasYielded;
+    hasYielded = false;
+
     List<Stmt> body = new ArrayList<>();
     if (match(DO)) {
       while (!check(END) && !isAtEnd()) {
@@ -306,6 +367,9 @@ class Parser {
       body.add(new Stmt.Return(arrow, expr));
     }
 
+    boolean isGenerator = hasYielded;
+    hasYielded = enclosingHasYielded;
+
     return new Expr.Lambda(
       new Token(
         TokenType.IDENTIFIER,
@@ -315,7 +379,9 @@ class Parser {
         backslash.column
       ),
       params,
-      body
+      body,
+      isGenerator,
+      isAsync
     );
   }
 
@@ -405,6 +471,15 @@ class Parser {
         Expr.Get get = (Expr.Get) expr;
         return new Expr.Set(get.object, get.name, value);
       }
+      else if (expr instanceof Expr.Index) {
+        Expr.Index index = (Expr.Index) expr;
+        return new Expr.SetIndex(
+          index.object,
+          index.bracket,
+          index.index,
+          value
+        );
+      }
 
       error(equals, "Invalid assignment target");
     }
@@ -553,6 +628,11 @@ class Parser {
       Expr right = unary();
       return new Expr.Unary(operator, right);
     }
+    if (match(AWAIT)) {
+      Token keyword = previous();
+      Expr value = unary();
+      return new Expr.Await(keyword, value);
+    }
 
     return call();
   }
@@ -568,6 +648,11 @@ class Parser {
         Token name = consume(IDENTIFIER, "Expected property name after '.'");
         expr = new Expr.Get(expr, name);
       }
+      else if (match(LEFT_BRACKET)) {
+        Expr index = expression();
+        Token bracket = consume(RIGHT_BRACKET, "Expected ']' after index");
+        expr = new Expr.Index(expr, bracket, index);
+      }
       else {
         break;
       }
@@ -614,6 +699,18 @@ class Parser {
       return new Expr.Grouping(expr);
     }
 
+    if (match(LEFT_BRACKET)) {
+      Token bracket = previous();
+      List<Expr> elements = new ArrayList<>();
+      if (!check(RIGHT_BRACKET)) {
+        do {
+          elements.add(expression());
+        } while (match(COMMA));
+      }
+      consume(RIGHT_BRACKET, "Expected ']' after array elements");
+      return new Expr.Array(bracket, elements);
+    }
+
     if (match(IDENTIFIER)) {
       return new Expr.Variable(previous());
     }
@@ -677,8 +774,15 @@ class Parser {
     return tokens.get(current - 1);
   }
 
+  private Token peekNext() {
+    if (isAtEnd()) {
+      return peek();
+    }
+    return tokens.get(current + 1);
+  }
+
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    diagnostics.error(token, message);
     return new ParseError();
   }
 
@@ -691,6 +795,7 @@ class Parser {
       }
 
       switch (peek().type) {
+        case ASYNC:
         case CLASS:
         case FUN:
         case LET:
@@ -698,6 +803,7 @@ class Parser {
         case IF:
         case WHILE:
         case RETURN:
+        case YIELD:
           return;
         default: break;
       }
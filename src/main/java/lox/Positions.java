@@ -0,0 +1,252 @@
+package lox;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// finds where nodes are in the source, for reports about them. each
+// visit returns the token a node is reported at, which for the nodes that
+// don't keep a token of their own is that of the node in them; literals
+// have no position and are left out
+class Positions implements Expr.Visitor<Token>, Stmt.Visitor<Token> {
+  private final Map<Object, Token> positions = new IdentityHashMap<>();
+
+  private Positions() {}
+
+  // the position of every node in a program
+  public static Map<Object, Token> of(Program program) {
+    Positions positions = new Positions();
+    positions.walk(program.statements);
+    return positions.positions;
+  }
+
+  // the position of one node, or null if it has none
+  public static Token at(Object node) {
+    Positions positions = new Positions();
+    if (node instanceof Expr) {
+      return positions.walk((Expr) node);
+    }
+    return positions.walk((Stmt) node);
+  }
+
+  private Token walk(Expr expr) {
+    if (expr == null) {
+      return null;
+    }
+    Token token = expr.accept(this);
+    if (token != null) {
+      positions.put(expr, token);
+    }
+    return token;
+  }
+
+  private Token walk(Stmt stmt) {
+    if (stmt == null) {
+      return null;
+    }
+    Token token = stmt.accept(this);
+    if (token != null) {
+      positions.put(stmt, token);
+    }
+    return token;
+  }
+
+  private Token walk(List<? extends Stmt> statements) {
+    Token first = null;
+    for (Stmt statement : statements) {
+      Token token = walk(statement);
+      if (first == null) {
+        first = token;
+      }
+    }
+    return first;
+  }
+
+  private void walkAll(List<Expr> expressions) {
+    for (Expr expression : expressions) {
+      walk(expression);
+    }
+  }
+
+  @Override
+  public Token visitArrayExpr(Expr.Array expr) {
+    walkAll(expr.elements);
+    return expr.bracket;
+  }
+
+  @Override
+  public Token visitAssignExpr(Expr.Assign expr) {
+    walk(expr.value);
+    return expr.name;
+  }
+
+  @Override
+  public Token visitAwaitExpr(Expr.Await expr) {
+    walk(expr.value);
+    return expr.keyword;
+  }
+
+  @Override
+  public Token visitCallExpr(Expr.Call expr) {
+    walk(expr.callee);
+    walkAll(expr.arguments);
+    return expr.paren;
+  }
+
+  @Override
+  public Token visitBinaryExpr(Expr.Binary expr) {
+    walk(expr.left);
+    walk(expr.right);
+    return expr.operator;
+  }
+
+  @Override
+  public Token visitGetExpr(Expr.Get expr) {
+    walk(expr.object);
+    return expr.name;
+  }
+
+  @Override
+  public Token visitGroupingExpr(Expr.Grouping expr) {
+    return walk(expr.expression);
+  }
+
+  @Override
+  public Token visitIndexExpr(Expr.Index expr) {
+    walk(expr.object);
+    walk(expr.index);
+    return expr.bracket;
+  }
+
+  @Override
+  public Token visitLambdaExpr(Expr.Lambda expr) {
+    walk(expr.body);
+    return expr.name;
+  }
+
+  @Override
+  public Token visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Token visitLogicalExpr(Expr.Logical expr) {
+    walk(expr.left);
+    walk(expr.right);
+    return expr.operator;
+  }
+
+  @Override
+  public Token visitSetExpr(Expr.Set expr) {
+    walk(expr.object);
+    walk(expr.value);
+    return expr.name;
+  }
+
+  @Override
+  public Token visitSetIndexExpr(Expr.SetIndex expr) {
+    walk(expr.object);
+    walk(expr.index);
+    walk(expr.value);
+    return expr.bracket;
+  }
+
+  @Override
+  public Token visitSuperExpr(Expr.Super expr) {
+    return expr.keyword;
+  }
+
+  @Override
+  public Token visitTernaryExpr(Expr.Ternary expr) {
+    walk(expr.left);
+    walk(expr.middle);
+    walk(expr.right);
+    return expr.leftOperator;
+  }
+
+  @Override
+  public Token visitThisExpr(Expr.This expr) {
+    return expr.keyword;
+  }
+
+  @Override
+  public Token visitUnaryExpr(Expr.Unary expr) {
+    walk(expr.right);
+    return expr.operator;
+  }
+
+  @Override
+  public Token visitVariableExpr(Expr.Variable expr) {
+    return expr.name;
+  }
+
+  @Override
+  public Token visitBlockStmt(Stmt.Block stmt) {
+    return walk(stmt.statements);
+  }
+
+  @Override
+  public Token visitBreakStmt(Stmt.Break stmt) {
+    walk(stmt.levels);
+    return stmt.token;
+  }
+
+  @Override
+  public Token visitClassStmt(Stmt.Class stmt) {
+    walk(stmt.superclass);
+    walk(stmt.methods);
+    walk(stmt.staticMethods);
+    return stmt.name;
+  }
+
+  @Override
+  public Token visitExpressionStmt(Stmt.Expression stmt) {
+    return walk(stmt.expression);
+  }
+
+  @Override
+  public Token visitForInStmt(Stmt.ForIn stmt) {
+    walk(stmt.iterable);
+    walk(stmt.body);
+    return stmt.name;
+  }
+
+  @Override
+  public Token visitFunctionStmt(Stmt.Function stmt) {
+    walk(stmt.body);
+    return stmt.name;
+  }
+
+  @Override
+  public Token visitIfStmt(Stmt.If stmt) {
+    Token condition = walk(stmt.condition);
+    walk(stmt.thenBranch);
+    walk(stmt.elseBranch);
+    return condition;
+  }
+
+  @Override
+  public Token visitLetStmt(Stmt.Let stmt) {
+    walk(stmt.initializer);
+    return stmt.name;
+  }
+
+  @Override
+  public Token visitReturnStmt(Stmt.Return stmt) {
+    walk(stmt.value);
+    return stmt.keyword;
+  }
+
+  @Override
+  public Token visitWhileStmt(Stmt.While stmt) {
+    Token condition = walk(stmt.condition);
+    walk(stmt.body);
+    return condition;
+  }
+
+  @Override
+  public Token visitYieldStmt(Stmt.Yield stmt) {
+    walk(stmt.value);
+    return stmt.keyword;
+  }
+}
@@ -0,0 +1,198 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+// a sampling profiler for Lox code. a Java profiler only sees the
+// recursion of the tree-walker, so every interpreter keeps a shadow stack
+// of the Lox calls it is in, and a background thread looks at the stacks
+// of the threads running Lox code at a fixed interval. the samples are
+// written as collapsed stacks, one line per distinct stack with the
+// number of times it was seen, which is what flame graph tools read
+class Profiler {
+  private final long intervalNanos;
+  // the stack of the interpreter each thread is running
+  private final Map<Thread, Stack> running = new ConcurrentHashMap<>();
+  // only touched by the sampler until it has stopped
+  private final Map<String, Long> samples = new HashMap<>();
+  private volatile boolean stopped = false;
+  private Thread sampler = null;
+
+  public Profiler(long intervalNanos) {
+    this.intervalNanos = intervalNanos;
+  }
+
+  public Stack stack() {
+    return new Stack(null);
+  }
+
+  public void start() {
+    sampler = new Thread(this::sample, "lox profiler");
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  private void sample() {
+    StringBuilder builder = new StringBuilder();
+    while (!stopped) {
+      LockSupport.parkNanos(intervalNanos);
+      for (Map.Entry<Thread, Stack> entry : running.entrySet()) {
+        // a thread waiting on a task, channel or promise isn't running
+        // Lox code, even though it's in the middle of a call
+        if (entry.getKey().getState() != Thread.State.RUNNABLE) {
+          continue;
+        }
+        builder.setLength(0);
+        entry.getValue().collapse(builder);
+        samples.merge(builder.toString(), 1L, Long::sum);
+      }
+    }
+  }
+
+  // writes the samples when the process exits, however it comes to
+  public void writeOnExit(Path path) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        finish(path);
+      }
+      catch (IOException error) {
+        System.err.println(
+          "Could not write the profile to " + path + ": " + error.getMessage()
+        );
+      }
+    }));
+  }
+
+  // stops sampling and writes what was seen to a file
+  public void finish(Path path) throws IOException {
+    stopped = true;
+    if (sampler != null) {
+      try {
+        sampler.join();
+      }
+      catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    try (PrintWriter writer = new PrintWriter(
+      Files.newBufferedWriter(path, StandardCharsets.UTF_8)
+    )) {
+      for (Map.Entry<String, Long> entry : new TreeMap<>(samples).entrySet()) {
+        writer.println(entry.getKey() + " " + entry.getValue());
+      }
+    }
+  }
+
+  // the calls one interpreter is in. only the thread running the
+  // interpreter writes to it, and the sampler reads it without any
+  // synchronization, so that a call only costs a couple of stores. a
+  // sample can be off by a frame or two, which is in the nature of
+  // sampling anyway
+  final class Stack {
+    private Expr.Call[] sites;
+    private Object[] callees;
+    private int depth;
+
+    // a stack forked from another one starts with the calls of its
+    // parent, so that the work of a task or generator shows up under the
+    // call that started it
+    private Stack(Stack parent) {
+      if (parent == null) {
+        sites = new Expr.Call[16];
+        callees = new Object[16];
+        depth = 0;
+      }
+      else {
+        depth = parent.depth;
+        sites = Arrays.copyOf(parent.sites, Math.max(16, depth * 2));
+        callees = Arrays.copyOf(parent.callees, sites.length);
+      }
+    }
+
+    public Stack fork() {
+      return new Stack(this);
+    }
+
+    public int depth() {
+      return depth;
+    }
+
+    public void push(Expr.Call site, Object callee) {
+      if (depth == sites.length) {
+        sites = Arrays.copyOf(sites, depth * 2);
+        callees = Arrays.copyOf(callees, depth * 2);
+      }
+      sites[depth] = site;
+      callees[depth] = callee;
+      depth++;
+    }
+
+    // drops the calls above the given depth, whether or not the call that
+    // was being made got as far as being pushed
+    public void unwind(int depth) {
+      this.depth = depth;
+    }
+
+    // makes this the stack that samples of the current thread come from,
+    // returning the one it replaces for exit() to put back
+    public Stack enter() {
+      return running.put(Thread.currentThread(), this);
+    }
+
+    public void exit(Stack previous) {
+      if (previous == null) {
+        running.remove(Thread.currentThread());
+      }
+      else {
+        running.put(Thread.currentThread(), previous);
+      }
+    }
+
+    private void collapse(StringBuilder builder) {
+      Expr.Call[] sites = this.sites;
+      Object[] callees = this.callees;
+      int depth = Math.min(
+        this.depth,
+        Math.min(sites.length, callees.length)
+      );
+
+      builder.append("<script>");
+      for (int i = 0; i < depth; i++) {
+        Expr.Call site = sites[i];
+        if (site != null) {
+          builder.append(';');
+          builder.append(name(site, callees[i]));
+          builder.append(':');
+          builder.append(site.paren.line);
+        }
+      }
+    }
+  }
+
+  private static String name(Expr.Call site, Object callee) {
+    if (callee instanceof LoxFunction) {
+      return ((LoxFunction) callee).getDeclaration().getName().lexeme;
+    }
+    if (callee instanceof LoxClass) {
+      return ((LoxClass) callee).name;
+    }
+    // natives are named by how they were called
+    if (site.callee instanceof Expr.Variable) {
+      return ((Expr.Variable) site.callee).name.lexeme;
+    }
+    if (site.callee instanceof Expr.Get) {
+      return ((Expr.Get) site.callee).name.lexeme;
+    }
+    return "<native>";
+  }
+}
@@ -0,0 +1,19 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// a script that has been scanned, parsed and resolved. the resolver leaves
+// everything it works out on the nodes themselves and nothing changes them
+// afterwards, so one program can be run by any number of isolates, on as
+// many threads, without going through the front end again
+public final class Program {
+  final List<Stmt> statements;
+
+  Program(List<Stmt> statements) {
+    this.statements = Collections.unmodifiableList(
+      new ArrayList<>(statements)
+    );
+  }
+}
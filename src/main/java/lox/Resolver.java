@@ -19,13 +19,37 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     SUBCLASS
   }
 
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  private static class Variable {
+    final int slot;
+    boolean defined;
+
+    Variable(int slot, boolean defined) {
+      this.slot = slot;
+      this.defined = defined;
+    }
+  }
+
+  // a function being resolved, and the index of its frame in scopes
+  private static class Frame {
+    final CallableNode function;
+    final int scope;
+
+    Frame(CallableNode function, int scope) {
+      this.function = function;
+      this.scope = scope;
+    }
+  }
+
+  private final Diagnostics diagnostics;
+  private final Stack<Map<String, Variable>> scopes = new Stack<>();
+  private final Stack<Frame> frames = new Stack<>();
   private FunctionType currentFunction = FunctionType.NONE;
+  private boolean inGenerator = false;
+  private boolean inAsync = false;
   private ClassType currentClass = ClassType.NONE;
 
-  public Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+  public Resolver(Diagnostics diagnostics) {
+    this.diagnostics = diagnostics;
   }
 
   public void resolve(List<Stmt> statements) {
@@ -43,12 +67,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
+    scopes.push(new HashMap<String, Variable>());
   }
 
   private void endScope() {
-    if (scopes.peek().containsValue(Boolean.FALSE)) {
-      System.out.println("Found unused var?");
+    for (Variable variable : scopes.peek().values()) {
+      if (!variable.defined) {
+        System.out.println("Found unused var?");
+        break;
+      }
     }
     scopes.pop();
   }
@@ -58,48 +85,61 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       return;
     }
 
-    Map<String, Boolean> scope = scopes.peek();
+    Map<String, Variable> scope = scopes.peek();
     if (scope.containsKey(name.lexeme)) {
-      Lox.error(
+      diagnostics.error(
         name,
         "Variable redeclaration"
       );
     }
 
-    scope.put(name.lexeme, false);
+    // locals get slots in declaration order, which is also the order the
+    // interpreter defines them in
+    scope.put(name.lexeme, new Variable(scope.size(), false));
   }
 
   private void define(Token name) {
     if (scopes.isEmpty()) {
       return;
     }
-    scopes.peek().put(name.lexeme, true);
+    scopes.peek().get(name.lexeme).defined = true;
   }
 
-  private void resolveLocal(Expr expr, Token name) {
+  private void resolveLocal(VariableNode expr, Token name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
+      Variable variable = scopes.get(i).get(name.lexeme);
+      if (variable != null) {
+        expr.resolve(scopes.size() - 1 - i, variable.slot);
         return;
       }
     }
 
-    // not found, assume global
+    // not found, assume global. the slot of a global is its symbol
+    expr.resolve(-1, Globals.symbol(name.lexeme));
   }
 
   private void resolveFunction(CallableNode function, FunctionType type) {
     FunctionType enclosingFunction = currentFunction;
+    boolean enclosingInGenerator = inGenerator;
+    boolean enclosingInAsync = inAsync;
     currentFunction = type;
+    inGenerator = function.isGenerator();
+    inAsync = function.isAsync();
 
     beginScope();
+    frames.push(new Frame(function, scopes.size() - 1));
     for (Token param : function.getParams()) {
       declare(param);
       define(param);
     }
     resolve(function.getBody());
+    function.setFrameSize(scopes.peek().size());
+    frames.pop();
     endScope();
 
     currentFunction = enclosingFunction;
+    inGenerator = enclosingInGenerator;
+    inAsync = enclosingInAsync;
   }
 
   @Override
@@ -112,7 +152,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitBreakStmt(Stmt.Break stmt) {
-    resolve(stmt.levels);
+    if (stmt.levels != null) {
+      resolve(stmt.levels);
+    }
     return null;
   }
 
@@ -132,16 +174,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     if (stmt.superclass != null) {
       beginScope();
-      scopes.peek().put("super", true);
+      scopes.peek().put("super", new Variable(0, true));
     }
 
     beginScope();
-    scopes.peek().put("this", true);
+    scopes.peek().put("this", new Variable(0, true));
 
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
       if (method.name.lexeme.equals("init")) {
         declaration = FunctionType.INITIALIZER;
+        if (method.isAsync) {
+          diagnostics.error(method.name, "Initializer cannot be async");
+        }
       }
 
       resolveFunction(method, declaration);
@@ -167,6 +212,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitForInStmt(Stmt.ForIn stmt) {
+    resolve(stmt.iterable);
+
+    // the loop variable shares a scope with the body, like parameters
+    beginScope();
+    declare(stmt.name);
+    define(stmt.name);
+    resolve(stmt.body);
+    endScope();
+    return null;
+  }
+
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
     declare(stmt.name);
@@ -199,11 +257,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Cannot return outside of function");
+      diagnostics.error(stmt.keyword, "Cannot return outside of function");
     }
     if (stmt.value != null) {
       if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword, "Cannot return a value inside an initializer");
+        diagnostics.error(stmt.keyword, "Cannot return a value inside an initializer");
+      }
+      if (inGenerator) {
+        diagnostics.error(stmt.keyword, "Cannot return a value from a generator");
       }
       resolve(stmt.value);
     }
@@ -217,23 +278,138 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    if (currentFunction == FunctionType.NONE) {
+      diagnostics.error(stmt.keyword, "Cannot yield outside of function");
+    }
+    else if (currentFunction == FunctionType.INITIALIZER) {
+      diagnostics.error(stmt.keyword, "Cannot yield inside an initializer");
+    }
+    else if (inAsync) {
+      diagnostics.error(stmt.keyword, "Cannot yield inside an async function");
+    }
+    if (stmt.value != null) {
+      resolve(stmt.value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    for (Expr element : expr.elements) {
+      resolve(element);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitAwaitExpr(Expr.Await expr) {
+    // the top level can await too, by running the event loop until the
+    // promise settles
+    if (currentFunction != FunctionType.NONE && !inAsync) {
+      diagnostics.error(expr.keyword, "Cannot await outside an async function");
+    }
+    resolve(expr.value);
+    return null;
+  }
+
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
     resolve(expr.value);
     resolveLocal(expr, expr.name);
+    sharedWrite(expr.name, expr.depth);
     return null;
   }
 
+  // note which functions write to a variable declared outside of them, or
+  // change what such a variable holds, so that code running them in
+  // parallel can warn about it. depth is that of the variable
+  private void sharedWrite(Token token, int depth) {
+    int scope = depth < 0 ? -1 : scopes.size() - 1 - depth;
+    for (int i = frames.size() - 1; i >= 0; i--) {
+      Frame frame = frames.get(i);
+      if (frame.scope <= scope) {
+        break;
+      }
+      if (frame.function.getSharedWrite() == null) {
+        frame.function.setSharedWrite(token);
+      }
+    }
+  }
+
+  // a change to an object, through a field, an index or a method that
+  // changes arrays and maps, is a change to whatever variable the object
+  // expression starts from, like counts in counts[k].total. what it can't
+  // tell from the code, like objects that come out of calls, it lets be
+  private void sharedChange(Token token, Expr object) {
+    for (;;) {
+      if (object instanceof Expr.Get) {
+        object = ((Expr.Get) object).object;
+      }
+      else if (object instanceof Expr.Index) {
+        object = ((Expr.Index) object).object;
+      }
+      else if (object instanceof Expr.Grouping) {
+        object = ((Expr.Grouping) object).expression;
+      }
+      else {
+        break;
+      }
+    }
+
+    if (object instanceof Expr.Variable) {
+      sharedWrite(token, ((Expr.Variable) object).depth);
+    }
+    else if (object instanceof Expr.This) {
+      sharedWrite(token, ((Expr.This) object).depth);
+    }
+  }
+
+  private static boolean isMutator(Token name) {
+    switch (name.lexeme) {
+      case "push":
+      case "pop":
+      case "remove":
+        return true;
+      default:
+        return false;
+    }
+  }
+
   @Override
   public Void visitBinaryExpr(Expr.Binary expr) {
+    if (expr.operator.type == TokenType.PLUS && resolveConcatenation(expr)) {
+      return null;
+    }
+
     resolve(expr.left);
     resolve(expr.right);
     return null;
   }
 
+  private boolean resolveConcatenation(Expr.Binary expr) {
+    Concatenation concatenation = Concatenation.flatten(expr);
+    if (concatenation == null) {
+      return false;
+    }
+
+    for (Expr operand : concatenation.operands) {
+      resolve(operand);
+    }
+    expr.concatenation = concatenation;
+    return true;
+  }
+
   @Override
   public Void visitCallExpr(Expr.Call expr) {
     resolve(expr.callee);
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) expr.callee;
+      if (isMutator(get.name)) {
+        sharedChange(get.name, get.object);
+      }
+    }
 
     for (Expr argument : expr.arguments) {
       resolve(argument);
@@ -253,6 +429,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    resolve(expr.object);
+    resolve(expr.index);
+    return null;
+  }
+
   @Override
   public Void visitLambdaExpr(Expr.Lambda expr) {
     resolveFunction(expr, FunctionType.LAMBDA);
@@ -275,16 +458,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitSetExpr(Expr.Set expr) {
     resolve(expr.value);
     resolve(expr.object);
+    sharedChange(expr.name, expr.object);
+    return null;
+  }
+
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    resolve(expr.value);
+    resolve(expr.object);
+    resolve(expr.index);
+    sharedChange(expr.bracket, expr.object);
     return null;
   }
 
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Cannot use 'super' outside of a class");
+      diagnostics.error(expr.keyword, "Cannot use 'super' outside of a class");
     }
     else if (currentClass != ClassType.SUBCLASS) {
-      Lox.error(
+      diagnostics.error(
         expr.keyword,
         "Cannot use 'super' in a class that does not have a superclass"
       );
@@ -304,7 +497,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Cannot use 'this' outside of a class");
+      diagnostics.error(expr.keyword, "Cannot use 'this' outside of a class");
       return null;
     }
     resolveLocal(expr, expr.keyword);
@@ -321,10 +514,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitVariableExpr(Expr.Variable expr) {
     if (
       !scopes.isEmpty()
-      &&
-      scopes.peek().get(expr.name.lexeme) == Boolean.FALSE
+      && scopes.peek().containsKey(expr.name.lexeme)
+      && !scopes.peek().get(expr.name.lexeme).defined
     ) {
-      Lox.error(
+      diagnostics.error(
         expr.name,
         "Cannot read local variable in it's own initializer"
       );
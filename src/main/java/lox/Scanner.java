@@ -25,6 +25,8 @@ class Scanner {
     static {
         keywords = new HashMap<>();
         keywords.put("and", AND);
+        keywords.put("async", ASYNC);
+        keywords.put("await", AWAIT);
         keywords.put("break", BREAK);
         keywords.put("class", CLASS);
         keywords.put("do", DO);
@@ -34,6 +36,7 @@ class Scanner {
         keywords.put("for", FOR);
         keywords.put("fun", FUN);
         keywords.put("if", IF);
+        keywords.put("in", IN);
         keywords.put("let", LET);
         keywords.put("nil", NIL);
         keywords.put("or", OR);
@@ -43,9 +46,11 @@ class Scanner {
         keywords.put("this", THIS);
         keywords.put("true", TRUE);
         keywords.put("while", WHILE);
+        keywords.put("yield", YIELD);
     }
 
     private final String source;
+    private final Diagnostics diagnostics;
     private final List<Token> tokens = new ArrayList<>();
 
     private int start = 0;
@@ -53,8 +58,9 @@ class Scanner {
     private int line = 1;
     private int column = 0;
 
-    Scanner(String source) {
+    Scanner(String source, Diagnostics diagnostics) {
         this.source = source;
+        this.diagnostics = diagnostics;
     }
 
     List<Token> scanTokens() {
@@ -75,6 +81,8 @@ class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ':': addToken(COLON); break;
             case ',': addToken(COMMA); break;
             case '`': addToken(BACKTICK); break;
@@ -174,7 +182,7 @@ class Scanner {
                     identifier();
                 }
                 else {
-                    Lox.error(line, column, "Unexpected character");
+                    diagnostics.error(line, column, "Unexpected character");
                 }
                 break;
         }
@@ -202,19 +210,28 @@ class Scanner {
         }
 
         // decimal stuff
+        boolean isInteger = true;
         if (peek() == '.' && isDigit(peekNext())) {
             // consume the '.'
             advance();
+            isInteger = false;
         }
 
         while (isDigit(peek())) {
             advance();
         }
 
-        addToken(
-            NUMBER,
-            Double.parseDouble(source.substring(start, current))
-        );
+        String text = source.substring(start, current);
+        if (isInteger) {
+            try {
+                addToken(NUMBER, Long.parseLong(text));
+                return;
+            }
+            catch (NumberFormatException error) {
+                // too big for a long, so it has to be a double
+            }
+        }
+        addToken(NUMBER, Double.parseDouble(text));
     }
 
     private void string() {
@@ -237,7 +254,7 @@ class Scanner {
                         value += character;
                     }
                     catch (NumberFormatException error) {
-                        Lox.error(line, column, "Invalid hex character escape");
+                        diagnostics.error(line, column, "Invalid hex character escape");
                         return;
                     }
                 }
@@ -246,7 +263,7 @@ class Scanner {
                     value += replace;
                 }
                 else {
-                    Lox.error(line, column, "Unrecognized escape sequence");
+                    diagnostics.error(line, column, "Unrecognized escape sequence");
                     return;
                 }
             }
@@ -256,7 +273,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, column, "Unterminated string literal");
+            diagnostics.error(line, column, "Unterminated string literal");
             return;
         }
 
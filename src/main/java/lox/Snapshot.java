@@ -0,0 +1,736 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// what a prelude leaves in the globals, saved next to it so that later runs
+// can map it in instead of scanning, parsing, resolving and running the
+// prelude again. functions and classes are saved with their closures and
+// the resolved nodes they run, and the global environment they close over
+// becomes the one of the isolate loading them. the snapshot keeps the
+// source it was made from and is ignored once the prelude changes. a
+// prelude that leaves behind something that can't be saved (a native, a
+// task, a socket) isn't snapshotted, and just runs every time.
+//
+// the format is the nodes' own write() and read(), which genast generates,
+// plus the values here. tokens, function nodes, strings and objects that
+// are reached twice are written once and referred to by number after that
+class Snapshot {
+  private static final int MAGIC = 0x4a4c5853;
+  // bump whenever the way values are written changes
+  private static final int FORMAT = 1;
+
+  // what comes before a node, token or value
+  private static final byte NULL = 0;
+  private static final byte REF = 1;
+  private static final byte NODES = 2;
+
+  private static final byte TRUE = 2;
+  private static final byte FALSE = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte STRING = 6;
+  private static final byte GLOBALS = 7;
+  private static final byte ENVIRONMENT = 8;
+  private static final byte FUNCTION = 9;
+  private static final byte CLASS = 11;
+  private static final byte INSTANCE = 12;
+  private static final byte ARRAY = 13;
+  private static final byte MAP = 14;
+
+  // what comes after the parts an object is made from. a closure can lead
+  // from those parts back to the object, in which case it has already been
+  // written by the time they are
+  private static final byte NEW = 0;
+  private static final byte ALREADY = 1;
+
+  private Snapshot() {}
+
+  public static Path of(Path prelude) {
+    return prelude.resolveSibling(prelude.getFileName() + ".snapshot");
+  }
+
+  // defines the saved globals in the environment, or returns false if there
+  // is no usable snapshot of this source
+  public static boolean load(Path file, String source, Environment globals) {
+    try (FileChannel channel = FileChannel.open(file)) {
+      Reader in = new Reader(
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+        globals
+      );
+      if (
+        in.readInt() != MAGIC
+        || in.readInt() != FORMAT
+        || in.readInt() != Stmt.SCHEMA
+        || in.readInt() != Expr.SCHEMA
+        || !source.equals(in.readString())
+      ) {
+        return false;
+      }
+
+      // read everything before defining anything
+      Map<String, Object> values = new LinkedHashMap<>();
+      for (int count = in.readInt(); count > 0; count--) {
+        values.put(in.readString(), in.readValue());
+      }
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        globals.define(entry.getKey(), entry.getValue());
+      }
+      return true;
+    }
+    catch (NoSuchFileException error) {
+      return false;
+    }
+    catch (IOException | RuntimeException error) {
+      // damaged, or written by another version; it will be replaced
+      return false;
+    }
+  }
+
+  // best effort: a prelude that can't be saved has still run
+  public static void save(
+    Path file,
+    String source,
+    Map<String, Object> values,
+    Environment globals
+  ) {
+    Writer out = new Writer(globals);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeInt(Stmt.SCHEMA);
+      out.writeInt(Expr.SCHEMA);
+      out.writeString(source);
+      out.writeInt(values.size());
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        out.writeString(entry.getKey());
+        out.writeValue(entry.getValue());
+      }
+    }
+    catch (IllegalArgumentException error) {
+      return;
+    }
+
+    Path temporary = null;
+    try {
+      temporary = Files.createTempFile(
+        file.toAbsolutePath().getParent(),
+        file.getFileName().toString(),
+        ".tmp"
+      );
+      Files.write(temporary, out.toByteArray());
+      // another run may be saving the same prelude; either copy will do
+      Files.move(
+        temporary,
+        file,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+      temporary = null;
+    }
+    catch (IOException error) {
+      // nowhere to write it
+    }
+    finally {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        }
+        catch (IOException error) {
+          // leave it
+        }
+      }
+    }
+  }
+
+  static class Writer {
+    private final Environment globals;
+    private byte[] bytes = new byte[8192];
+    private int size = 0;
+    // tokens, function nodes and objects already written, by number
+    private final Map<Object, Integer> objects = new IdentityHashMap<>();
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    Writer(Environment globals) {
+      this.globals = globals;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    private void reserve(int count) {
+      if (size + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(size + count, bytes.length * 2));
+      }
+    }
+
+    void writeByte(int value) {
+      reserve(1);
+      bytes[size++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+      reserve(4);
+      bytes[size++] = (byte) (value >>> 24);
+      bytes[size++] = (byte) (value >>> 16);
+      bytes[size++] = (byte) (value >>> 8);
+      bytes[size++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    void writeBoolean(boolean value) {
+      writeByte(value ? 1 : 0);
+    }
+
+    void writeString(String value) {
+      Integer index = strings.get(value);
+      if (index != null) {
+        writeInt(index);
+        return;
+      }
+      strings.put(value, strings.size());
+      byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+      writeInt(-1);
+      writeInt(encoded.length);
+      reserve(encoded.length);
+      System.arraycopy(encoded, 0, bytes, size, encoded.length);
+      size += encoded.length;
+    }
+
+    // written by a node's write() before its fields
+    void writeNode(int node) {
+      writeByte(NODES + node);
+    }
+
+    private boolean writeReference(Object object) {
+      if (object == null) {
+        writeByte(NULL);
+        return true;
+      }
+      Integer id = objects.get(object);
+      if (id == null) {
+        return false;
+      }
+      writeByte(REF);
+      writeInt(id);
+      return true;
+    }
+
+    void writeToken(Token token) {
+      if (writeReference(token)) {
+        return;
+      }
+      writeByte(NODES);
+      writeString(token.type.name());
+      writeString(token.lexeme);
+      writeLiteral(token.literal);
+      writeInt(token.line);
+      writeInt(token.column);
+      objects.put(token, objects.size());
+    }
+
+    void writeExpr(Expr expr) {
+      if (writeReference(expr)) {
+        return;
+      }
+      expr.write(this);
+      if (expr instanceof CallableNode) {
+        objects.put(expr, objects.size());
+      }
+    }
+
+    void writeStmt(Stmt stmt) {
+      if (writeReference(stmt)) {
+        return;
+      }
+      stmt.write(this);
+      if (stmt instanceof CallableNode) {
+        objects.put(stmt, objects.size());
+      }
+    }
+
+    void writeVariable(Expr.Variable variable) {
+      writeExpr(variable);
+    }
+
+    void writeTokens(List<Token> tokens) {
+      writeInt(tokens.size());
+      for (Token token : tokens) {
+        writeToken(token);
+      }
+    }
+
+    void writeExprs(List<Expr> exprs) {
+      writeInt(exprs.size());
+      for (Expr expr : exprs) {
+        writeExpr(expr);
+      }
+    }
+
+    void writeStmts(List<Stmt> stmts) {
+      writeInt(stmts.size());
+      for (Stmt stmt : stmts) {
+        writeStmt(stmt);
+      }
+    }
+
+    void writeFunctions(List<Stmt.Function> functions) {
+      writeInt(functions.size());
+      for (Stmt.Function function : functions) {
+        writeStmt(function);
+      }
+    }
+
+    // a literal in the source: nil, a boolean, a number or a string
+    void writeLiteral(Object value) {
+      if (value == null) {
+        writeByte(NULL);
+      }
+      else if (value instanceof Boolean) {
+        writeByte((Boolean) value ? TRUE : FALSE);
+      }
+      else if (value instanceof Long) {
+        writeByte(LONG);
+        writeLong((Long) value);
+      }
+      else if (value instanceof Double) {
+        writeByte(DOUBLE);
+        writeLong(Double.doubleToRawLongBits((Double) value));
+      }
+      else if (value instanceof CharSequence) {
+        writeByte(STRING);
+        writeString(value.toString());
+      }
+      else {
+        throw new IllegalArgumentException("Can't save " + value);
+      }
+    }
+
+    void writeValue(Object value) {
+      if (
+        value == null
+        || value instanceof Boolean
+        || value instanceof Long
+        || value instanceof Double
+        || value instanceof CharSequence
+      ) {
+        writeLiteral(value);
+      }
+      else if (value == globals) {
+        writeByte(GLOBALS);
+      }
+      else if (writeReference(value)) {
+        return;
+      }
+      else if (value.getClass() == Environment.class) {
+        writeEnvironment((Environment) value);
+      }
+      else if (value.getClass() == LoxFunction.class) {
+        writeFunction((LoxFunction) value);
+      }
+      else if (value.getClass() == LoxClass.class) {
+        writeClass((LoxClass) value);
+      }
+      else if (value.getClass() == LoxInstance.class) {
+        LoxInstance instance = (LoxInstance) value;
+        writeByte(INSTANCE);
+        writeValue(instance.getLoxClass());
+        if (begin(instance)) {
+          writeFields(instance.getFields());
+        }
+      }
+      else if (value.getClass() == LoxArray.class) {
+        LoxArray array = (LoxArray) value;
+        writeByte(ARRAY);
+        if (begin(array)) {
+          writeInt(array.length());
+          for (int i = 0; i < array.length(); i++) {
+            writeValue(array.get(i));
+          }
+        }
+      }
+      else if (value.getClass() == LoxMap.class) {
+        LoxMap map = (LoxMap) value;
+        writeByte(MAP);
+        if (begin(map)) {
+          LoxArray keys = map.keys();
+          LoxArray values = map.values();
+          writeInt(keys.length());
+          for (int i = 0; i < keys.length(); i++) {
+            writeValue(keys.get(i));
+            writeValue(values.get(i));
+          }
+        }
+      }
+      else {
+        throw new IllegalArgumentException("Can't save " + value);
+      }
+    }
+
+    // returns whether the rest of the object has to be written
+    private boolean begin(Object object) {
+      Integer id = objects.get(object);
+      if (id != null) {
+        writeByte(ALREADY);
+        writeInt(id);
+        return false;
+      }
+      writeByte(NEW);
+      objects.put(object, objects.size());
+      return true;
+    }
+
+    private void writeEnvironment(Environment environment) {
+      writeByte(ENVIRONMENT);
+      writeValue(environment.enclosing);
+      if (begin(environment)) {
+        writeInt(environment.size());
+        for (int i = 0; i < environment.size(); i++) {
+          writeValue(environment.get(i));
+        }
+      }
+    }
+
+    private void writeFunction(LoxFunction function) {
+      writeByte(FUNCTION);
+      writeValue(function.getClosure());
+      CallableNode declaration = function.getDeclaration();
+      if (declaration instanceof Stmt) {
+        writeBoolean(true);
+        writeStmt((Stmt) declaration);
+      }
+      else {
+        writeBoolean(false);
+        writeExpr((Expr) declaration);
+      }
+      writeInt(function.getFrameSize());
+      writeBoolean(function.isInitializer());
+      begin(function);
+    }
+
+    private void writeClass(LoxClass klass) {
+      writeByte(CLASS);
+      writeString(klass.name);
+      writeValue(klass.superclass);
+      writeMethods(klass.getMethods());
+      writeMethods(klass.getLoxClass().getMethods());
+      if (begin(klass)) {
+        writeFields(klass.getFields());
+      }
+    }
+
+    private void writeMethods(Map<String, LoxFunction> methods) {
+      writeInt(methods.size());
+      for (Map.Entry<String, LoxFunction> method : methods.entrySet()) {
+        writeString(method.getKey());
+        writeValue(method.getValue());
+      }
+    }
+
+    private void writeFields(Map<String, Object> fields) {
+      writeInt(fields.size());
+      for (Map.Entry<String, Object> field : fields.entrySet()) {
+        writeString(field.getKey());
+        writeValue(field.getValue());
+      }
+    }
+  }
+
+  static class Reader {
+    private final ByteBuffer buffer;
+    private final Environment globals;
+    private final List<Object> objects = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+
+    Reader(ByteBuffer buffer, Environment globals) {
+      this.buffer = buffer;
+      this.globals = globals;
+    }
+
+    int readInt() {
+      return buffer.getInt();
+    }
+
+    boolean readBoolean() {
+      return buffer.get() != 0;
+    }
+
+    String readString() {
+      int index = buffer.getInt();
+      if (index >= 0) {
+        return strings.get(index);
+      }
+      byte[] encoded = new byte[buffer.getInt()];
+      buffer.get(encoded);
+      String value = new String(encoded, StandardCharsets.UTF_8);
+      strings.add(value);
+      return value;
+    }
+
+    Token readToken() {
+      byte marker = buffer.get();
+      if (marker == NULL) {
+        return null;
+      }
+      if (marker == REF) {
+        return (Token) objects.get(buffer.getInt());
+      }
+      Token token = new Token(
+        TokenType.valueOf(readString()),
+        readString(),
+        readLiteral(),
+        readInt(),
+        readInt()
+      );
+      objects.add(token);
+      return token;
+    }
+
+    Expr readExpr() {
+      byte marker = buffer.get();
+      if (marker == NULL) {
+        return null;
+      }
+      if (marker == REF) {
+        return (Expr) objects.get(buffer.getInt());
+      }
+      Expr expr = Expr.read(this, marker - NODES);
+      if (expr instanceof CallableNode) {
+        objects.add(expr);
+      }
+      return expr;
+    }
+
+    Stmt readStmt() {
+      byte marker = buffer.get();
+      if (marker == NULL) {
+        return null;
+      }
+      if (marker == REF) {
+        return (Stmt) objects.get(buffer.getInt());
+      }
+      Stmt stmt = Stmt.read(this, marker - NODES);
+      if (stmt instanceof CallableNode) {
+        objects.add(stmt);
+      }
+      return stmt;
+    }
+
+    Expr.Variable readVariable() {
+      return (Expr.Variable) readExpr();
+    }
+
+    List<Token> readTokens() {
+      int size = readInt();
+      List<Token> tokens = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        tokens.add(readToken());
+      }
+      return tokens;
+    }
+
+    List<Expr> readExprs() {
+      int size = readInt();
+      List<Expr> exprs = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        exprs.add(readExpr());
+      }
+      return exprs;
+    }
+
+    List<Stmt> readStmts() {
+      int size = readInt();
+      List<Stmt> stmts = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        stmts.add(readStmt());
+      }
+      return stmts;
+    }
+
+    List<Stmt.Function> readFunctions() {
+      int size = readInt();
+      List<Stmt.Function> functions = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        functions.add((Stmt.Function) readStmt());
+      }
+      return functions;
+    }
+
+    Object readLiteral() {
+      return readLiteral(buffer.get());
+    }
+
+    private Object readLiteral(byte tag) {
+      switch (tag) {
+        case NULL:
+          return null;
+        case TRUE:
+          return true;
+        case FALSE:
+          return false;
+        case LONG:
+          return buffer.getLong();
+        case DOUBLE:
+          return Double.longBitsToDouble(buffer.getLong());
+        case STRING:
+          return readString();
+        default:
+          throw new IllegalStateException("Unknown literal " + tag);
+      }
+    }
+
+    Object readValue() {
+      byte tag = buffer.get();
+      switch (tag) {
+        case REF:
+          return objects.get(buffer.getInt());
+        case GLOBALS:
+          return globals;
+        case ENVIRONMENT:
+          return readEnvironment();
+        case FUNCTION:
+          return readFunction();
+        case CLASS:
+          return readClass();
+        case INSTANCE:
+          return readInstance();
+        case ARRAY:
+          return readArray();
+        case MAP:
+          return readMap();
+        default:
+          return readLiteral(tag);
+      }
+    }
+
+    // the object, if it was read along with the parts it is made from
+    private Object already() {
+      if (buffer.get() == ALREADY) {
+        return objects.get(buffer.getInt());
+      }
+      return null;
+    }
+
+    private Object readEnvironment() {
+      Environment enclosing = (Environment) readValue();
+      Object existing = already();
+      if (existing != null) {
+        return existing;
+      }
+      int size = readInt();
+      Environment environment = new Environment(enclosing, size);
+      objects.add(environment);
+      for (int i = 0; i < size; i++) {
+        environment.defineSlot(readValue());
+      }
+      return environment;
+    }
+
+    private Object readFunction() {
+      Environment closure = (Environment) readValue();
+      CallableNode declaration = readBoolean()
+        ? (CallableNode) readStmt()
+        : (CallableNode) readExpr();
+      int frameSize = readInt();
+      boolean isInitializer = readBoolean();
+      Object existing = already();
+      if (existing != null) {
+        return existing;
+      }
+      LoxFunction function = new LoxFunction(
+        declaration,
+        closure,
+        frameSize,
+        isInitializer
+      );
+      objects.add(function);
+      return function;
+    }
+
+    private Object readClass() {
+      String name = readString();
+      LoxClass superclass = (LoxClass) readValue();
+      Map<String, LoxFunction> methods = readMethods();
+      Map<String, LoxFunction> staticMethods = readMethods();
+      Object existing = already();
+      if (existing != null) {
+        return existing;
+      }
+      LoxClass klass = new LoxClass(name, superclass, methods, staticMethods);
+      objects.add(klass);
+      readFields(klass.getFields());
+      return klass;
+    }
+
+    private Object readInstance() {
+      LoxClass klass = (LoxClass) readValue();
+      Object existing = already();
+      if (existing != null) {
+        return existing;
+      }
+      LoxInstance instance = new LoxInstance(klass);
+      objects.add(instance);
+      readFields(instance.getFields());
+      return instance;
+    }
+
+    private Object readArray() {
+      Object existing = already();
+      if (existing != null) {
+        return existing;
+      }
+      LoxArray array = new LoxArray();
+      objects.add(array);
+      for (int size = readInt(); size > 0; size--) {
+        array.push(readValue());
+      }
+      return array;
+    }
+
+    private Object readMap() {
+      Object existing = already();
+      if (existing != null) {
+        return existing;
+      }
+      int size = readInt();
+      LoxMap map = new LoxMap(size);
+      objects.add(map);
+      for (int i = 0; i < size; i++) {
+        map.put(readValue(), readValue());
+      }
+      return map;
+    }
+
+    private Map<String, LoxFunction> readMethods() {
+      Map<String, LoxFunction> methods = new HashMap<>();
+      for (int size = readInt(); size > 0; size--) {
+        methods.put(readString(), (LoxFunction) readValue());
+      }
+      return methods;
+    }
+
+    private void readFields(Map<String, Object> fields) {
+      for (int size = readInt(); size > 0; size--) {
+        fields.put(readString(), readValue());
+      }
+    }
+  }
+}
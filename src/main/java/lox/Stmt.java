@@ -8,15 +8,52 @@ abstract class Stmt {
     R visitBreakStmt(Break stmt);
     R visitClassStmt(Class stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForInStmt(ForIn stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
     R visitLetStmt(Let stmt);
     R visitReturnStmt(Return stmt);
     R visitWhileStmt(While stmt);
+    R visitYieldStmt(Yield stmt);
   }
 
   abstract <R> R accept(Visitor<R> visitor);
 
+  // identifies this version of the nodes in snapshots
+  static final int SCHEMA = 0xbb05abc;
+
+  abstract void write(Snapshot.Writer out);
+
+  // the node write() saved in a snapshot, given the number it wrote first
+  static Stmt read(Snapshot.Reader in, int node) {
+    switch (node) {
+      case 0:
+        return Block.read(in);
+      case 1:
+        return Break.read(in);
+      case 2:
+        return Class.read(in);
+      case 3:
+        return Expression.read(in);
+      case 4:
+        return ForIn.read(in);
+      case 5:
+        return Function.read(in);
+      case 6:
+        return If.read(in);
+      case 7:
+        return Let.read(in);
+      case 8:
+        return Return.read(in);
+      case 9:
+        return While.read(in);
+      case 10:
+        return Yield.read(in);
+      default:
+        throw new IllegalStateException("Unknown Stmt node " + node);
+    }
+  }
+
   static class Block extends Stmt {
     final List<Stmt> statements;
 
@@ -27,6 +64,18 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(0);
+      out.writeStmts(statements);
+    }
+
+    static Block read(Snapshot.Reader in) {
+      Block node = new Block(
+        in.readStmts()
+      );
+      return node;
+    }
   }
 
   static class Break extends Stmt {
@@ -43,6 +92,22 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBreakStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(1);
+      out.writeToken(token);
+      out.writeExpr(levels);
+      out.writeInt(maxLevels);
+    }
+
+    static Break read(Snapshot.Reader in) {
+      Break node = new Break(
+        in.readToken(),
+        in.readExpr(),
+        in.readInt()
+      );
+      return node;
+    }
   }
 
   static class Class extends Stmt {
@@ -61,6 +126,24 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitClassStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(2);
+      out.writeToken(name);
+      out.writeVariable(superclass);
+      out.writeFunctions(methods);
+      out.writeFunctions(staticMethods);
+    }
+
+    static Class read(Snapshot.Reader in) {
+      Class node = new Class(
+        in.readToken(),
+        in.readVariable(),
+        in.readFunctions(),
+        in.readFunctions()
+      );
+      return node;
+    }
   }
 
   static class Expression extends Stmt {
@@ -73,17 +156,69 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitExpressionStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(3);
+      out.writeExpr(expression);
+    }
+
+    static Expression read(Snapshot.Reader in) {
+      Expression node = new Expression(
+        in.readExpr()
+      );
+      return node;
+    }
+  }
+
+  static class ForIn extends Stmt {
+    final Token name;
+    final Token in;
+    final Expr iterable;
+    final List<Stmt> body;
+
+    public ForIn(Token name, Token in, Expr iterable, List<Stmt> body) {
+      this.name = name;
+      this.in = in;
+      this.iterable = iterable;
+      this.body = body;
+    }
+    
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForInStmt(this);
+    }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(4);
+      out.writeToken(name);
+      out.writeToken(in);
+      out.writeExpr(iterable);
+      out.writeStmts(body);
+    }
+
+    static ForIn read(Snapshot.Reader in) {
+      ForIn node = new ForIn(
+        in.readToken(),
+        in.readToken(),
+        in.readExpr(),
+        in.readStmts()
+      );
+      return node;
+    }
   }
 
   static class Function extends Stmt implements CallableNode {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    final boolean isGenerator;
+    final boolean isAsync;
 
-    public Function(Token name, List<Token> params, List<Stmt> body) {
+    public Function(Token name, List<Token> params, List<Stmt> body, boolean isGenerator, boolean isAsync) {
       this.name = name;
       this.params = params;
       this.body = body;
+      this.isGenerator = isGenerator;
+      this.isAsync = isAsync;
     }
     
     public List<Token> getParams() {
@@ -98,9 +233,63 @@ abstract class Stmt {
       return this.name;
     }
 
+    public boolean isGenerator() {
+      return this.isGenerator;
+    }
+
+    public boolean isAsync() {
+      return this.isAsync;
+    }
+
+    public int getFrameSize() {
+      return this.frameSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+      this.frameSize = frameSize;
+    }
+
+    public Token getSharedWrite() {
+      return this.sharedWrite;
+    }
+
+    public void setSharedWrite(Token sharedWrite) {
+      this.sharedWrite = sharedWrite;
+    }
+
+    // set by the resolver: how many slots a call's environment needs
+    int frameSize = 0;
+    // set by the resolver: the name in the first assignment to a variable
+    // from outside the function, if the body makes one
+    Token sharedWrite = null;
+
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(5);
+      out.writeToken(name);
+      out.writeTokens(params);
+      out.writeStmts(body);
+      out.writeBoolean(isGenerator);
+      out.writeBoolean(isAsync);
+      out.writeInt(frameSize);
+      out.writeToken(sharedWrite);
+    }
+
+    static Function read(Snapshot.Reader in) {
+      Function node = new Function(
+        in.readToken(),
+        in.readTokens(),
+        in.readStmts(),
+        in.readBoolean(),
+        in.readBoolean()
+      );
+      node.frameSize = in.readInt();
+      node.sharedWrite = in.readToken();
+      return node;
+    }
   }
 
   static class If extends Stmt {
@@ -117,6 +306,22 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitIfStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(6);
+      out.writeExpr(condition);
+      out.writeStmt(thenBranch);
+      out.writeStmt(elseBranch);
+    }
+
+    static If read(Snapshot.Reader in) {
+      If node = new If(
+        in.readExpr(),
+        in.readStmt(),
+        in.readStmt()
+      );
+      return node;
+    }
   }
 
   static class Let extends Stmt {
@@ -131,6 +336,20 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLetStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(7);
+      out.writeToken(name);
+      out.writeExpr(initializer);
+    }
+
+    static Let read(Snapshot.Reader in) {
+      Let node = new Let(
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
   static class Return extends Stmt {
@@ -145,6 +364,20 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitReturnStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(8);
+      out.writeToken(keyword);
+      out.writeExpr(value);
+    }
+
+    static Return read(Snapshot.Reader in) {
+      Return node = new Return(
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
   static class While extends Stmt {
@@ -159,6 +392,48 @@ abstract class Stmt {
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitWhileStmt(this);
     }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(9);
+      out.writeExpr(condition);
+      out.writeStmt(body);
+    }
+
+    static While read(Snapshot.Reader in) {
+      While node = new While(
+        in.readExpr(),
+        in.readStmt()
+      );
+      return node;
+    }
+  }
+
+  static class Yield extends Stmt {
+    final Token keyword;
+    final Expr value;
+
+    public Yield(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+    
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitYieldStmt(this);
+    }
+
+    void write(Snapshot.Writer out) {
+      out.writeNode(10);
+      out.writeToken(keyword);
+      out.writeExpr(value);
+    }
+
+    static Yield read(Snapshot.Reader in) {
+      Yield node = new Yield(
+        in.readToken(),
+        in.readExpr()
+      );
+      return node;
+    }
   }
 
 }
\ No newline at end of file
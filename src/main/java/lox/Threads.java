@@ -0,0 +1,63 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// starts the threads that tasks and generators run on. these are virtual
+// threads when the JVM has them, so that blocking on a channel or waiting
+// for a generator parks the task instead of holding on to an OS thread.
+// the build still targets a JDK without them, so they're looked up when
+// the class loads, falling back to daemon platform threads
+final class Threads {
+  private static final MethodHandle OF_VIRTUAL;
+  private static final MethodHandle UNSTARTED;
+
+  static {
+    MethodHandle ofVirtual = null;
+    MethodHandle unstarted = null;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      Class<?> virtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      ofVirtual = lookup.findStatic(
+        Thread.class,
+        "ofVirtual",
+        MethodType.methodType(virtual)
+      );
+      unstarted = lookup.findVirtual(
+        builder,
+        "unstarted",
+        MethodType.methodType(Thread.class, Runnable.class)
+      );
+    }
+    catch (ReflectiveOperationException error) {
+      ofVirtual = null;
+      unstarted = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    UNSTARTED = unstarted;
+  }
+
+  private Threads() {}
+
+  // threads started here never keep the process alive on their own
+  public static Thread start(String name, Runnable body) {
+    Thread thread;
+    if (OF_VIRTUAL != null) {
+      try {
+        thread = (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(), body);
+      }
+      catch (Throwable error) {
+        throw new IllegalStateException(error);
+      }
+    }
+    else {
+      thread = new Thread(body);
+      thread.setDaemon(true);
+    }
+    thread.setName(name);
+    thread.start();
+    return thread;
+  }
+}
@@ -3,6 +3,7 @@ package lox;
 enum TokenType {
     // single character tokens
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+    LEFT_BRACKET, RIGHT_BRACKET,
     COMMA, DOT, SEMICOLON, QUESTION_MARK, COLON,
 
     // one or two (or three) character tokens
@@ -27,8 +28,9 @@ enum TokenType {
     IDENTIFIER, STRING, NUMBER,
 
     // keywords
-    AND, BREAK, CLASS, CONST, DO, ELSE, END, FALSE, FUN, FOR,
-    IF, LET, NIL, OR, RETURN, STATIC, SUPER, THIS, TRUE, WHILE,
+    AND, ASYNC, AWAIT, BREAK, CLASS, CONST, DO, ELSE, END, FALSE, FUN,
+    FOR, IF, IN, LET, NIL, OR, RETURN, STATIC, SUPER, THIS, TRUE, WHILE,
+    YIELD,
 
     EOF
 }
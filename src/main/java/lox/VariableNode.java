@@ -0,0 +1,5 @@
+package lox;
+
+interface VariableNode {
+  public void resolve(int depth, int slot);
+}
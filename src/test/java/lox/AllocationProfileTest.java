@@ -0,0 +1,41 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import junit.framework.TestCase;
+
+public class AllocationProfileTest extends TestCase {
+  public void testAttributesAllocationsToLines() {
+    AllocationProfile allocations = new AllocationProfile();
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    try (Isolate isolate = new Isolate(
+      new ByteArrayOutputStream(),
+      new PrintStream(errors, true),
+      false
+    )) {
+      isolate.profileAllocations(allocations);
+      isolate.run(
+        "class Thing end\n"
+          + "fun make() return Thing(); end\n"
+          + "let i = 0;\n"
+          + "while i < 100 do make(); i = i + 1; end\n"
+      );
+      assertFalse(errors.toString(), isolate.hadRuntimeError());
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    allocations.print(new PrintStream(out, true));
+    String[] lines = out.toString(Charset.defaultCharset()).split("\n");
+
+    assertEquals("", lines[0]);
+    assertTrue(lines[1].matches("kind +allocations +bytes"));
+    assertTrue(lines[2].matches("block environment +100 +\\d+"));
+    assertTrue(lines[3].matches("call environment +100 +\\d+"));
+    assertTrue(lines[4].matches("instance +100 +\\d+"));
+    assertEquals("", lines[5]);
+    assertTrue(lines[6].matches("line +kind +allocations +bytes"));
+    assertTrue(lines[7], lines[7].matches("2:25 +instance +100 +\\d+"));
+    assertEquals(10, lines.length);
+  }
+}
@@ -0,0 +1,52 @@
+package lox;
+
+public class BenchTest extends LoxTestCase {
+  public void testClockIsMonotonicNanoseconds() {
+    String output = run(
+      "let a = clock_ns();\n"
+        + "let b = clock_ns();\n"
+        + "println(b >= a);\n"
+        + "println(a == a + 0);\n"
+    );
+    assertEquals("true\ntrue\n", output);
+  }
+
+  public void testReportsEveryIteration() {
+    String output = run(
+      "let calls = 0;\n"
+        + "fun work() calls = calls + 1; end\n"
+        + "let options = Map();\n"
+        + "options[\"warmup\"] = 3;\n"
+        + "options[\"iterations\"] = 20;\n"
+        + "let result = bench(work, options);\n"
+        + "println(calls);\n"
+        + "println(result[\"iterations\"]);\n"
+        + "println(result[\"p50\"] <= result[\"p99\"]);\n"
+        + "println(result[\"mean\"] >= 0);\n"
+        + "println(result.has(\"bytesPerOp\"));\n"
+    );
+    assertEquals("23\n20\ntrue\ntrue\ntrue\n", output);
+  }
+
+  public void testRejectsFunctionsWithParameters() {
+    execute("fun f(x) end\nbench(f, nil);\n");
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("must take no arguments"));
+  }
+
+  public void testRejectsBadIterationCounts() {
+    String[] counts = { "0", "-1", "0.5", "1000000000000", "nil" };
+    for (String count : counts) {
+      errors.reset();
+      execute(
+        "fun f() end\n"
+          + "let options = Map();\n"
+          + "options[\"iterations\"] = " + count + ";\n"
+          + "bench(f, options);\n"
+      );
+      assertTrue(count, isolate.hadRuntimeError());
+      assertTrue(errors.toString(), errors.toString().contains("[line 4:"));
+      isolate.close();
+    }
+  }
+}
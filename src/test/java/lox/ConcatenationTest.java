@@ -0,0 +1,31 @@
+package lox;
+
+public class ConcatenationTest extends LoxTestCase {
+  public void testChainsStringifyEachOperand() {
+    String output = run(
+      "let a = 1;\n"
+        + "let b = 2.5;\n"
+        + "println(a + \", \" + b + \"!\" + true + nil);\n"
+        + "println(1 + 2 + \"x\" + 3.0 + -0.0);\n"
+    );
+    assertEquals("1, 2.5!truenil\n3x3-0\n", output);
+  }
+
+  public void testChainsEvaluateOperandsInOrder() {
+    String output = run(
+      "let log = \"\";\n"
+        + "fun f(x)\n"
+        + "  log = log + x;\n"
+        + "  return x;\n"
+        + "end\n"
+        + "println(f(\"a\") + f(1) + f(\"c\"));\n"
+        + "println(log);\n"
+    );
+    assertEquals("a1c\na1c\n", output);
+  }
+
+  public void testAddingNumbersToNonStringsIsAnError() {
+    execute("println(1 + nil);");
+    assertTrue(isolate.hadRuntimeError());
+  }
+}
@@ -0,0 +1,80 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class DaemonTest extends TestCase {
+  private Path directory;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("lox");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted((a, b) -> b.compareTo(a)).forEach(path -> {
+        path.toFile().delete();
+      });
+    }
+  }
+
+  public void testRefusesToListenInASharedDirectory() throws IOException {
+    Files.setPosixFilePermissions(
+      directory,
+      PosixFilePermissions.fromString("rwxrwxrwx")
+    );
+    try {
+      Daemon.serve(directory.resolve("jlox.sock"));
+      fail("listened in a directory anyone can write to");
+    }
+    catch (IOException error) {
+      assertTrue(error.getMessage(), error.getMessage().contains("only"));
+    }
+  }
+
+  public void testRefusesToConnectInASharedDirectory() throws IOException {
+    Path script = directory.resolve("script.lox");
+    Files.writeString(script, "println(1);");
+    Files.setPosixFilePermissions(
+      directory,
+      PosixFilePermissions.fromString("rwxr-xr-x")
+    );
+    try {
+      Daemon.submit(directory.resolve("jlox.sock"), script.toString());
+      fail("connected in a directory others can read");
+    }
+    catch (IOException error) {
+      assertTrue(error.getMessage(), error.getMessage().contains("only"));
+    }
+  }
+
+  // what the daemon does with the working directory a client sends
+  public void testRelativePathsAreRelativeToTheIsolate() throws IOException {
+    Files.writeString(directory.resolve("data.txt"), "hullo\n");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    try (Isolate isolate = new Isolate(out, new PrintStream(err), false)) {
+      isolate.setDirectory(directory);
+      isolate.run(
+        "print(await readFile(\"data.txt\"));\n"
+          + "await writeFile(\"copy.txt\", \"copied\");\n"
+      );
+      assertFalse(err.toString(), isolate.hadRuntimeError());
+    }
+    assertEquals("hullo\n", out.toString(Charset.defaultCharset()));
+    assertEquals(
+      "copied",
+      Files.readString(directory.resolve("copy.txt"), StandardCharsets.UTF_8)
+    );
+  }
+}
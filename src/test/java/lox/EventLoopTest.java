@@ -0,0 +1,139 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class EventLoopTest extends LoxTestCase {
+  public void testFileRoundTrip() throws IOException {
+    Path path = Files.createTempFile("lox", ".txt");
+    try {
+      String output = run(
+        "let path = \"" + path + "\";\n"
+          + "await writeFile(path, \"h\u00e9llo\\nworld\\n\");\n"
+          + "println(await readFile(path) == \"h\u00e9llo\\nworld\\n\");\n"
+      );
+      assertEquals("true\n", output);
+      assertEquals(
+        "h\u00e9llo\nworld\n",
+        new String(Files.readAllBytes(path), StandardCharsets.UTF_8)
+      );
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+  public void testReadingAMissingFileRejects() {
+    String output = execute(
+      "await readFile(\"/nonexistent/lox/file\");\n"
+        + "println(\"never\");\n"
+    );
+    assertEquals("", output);
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(
+      errors.toString(),
+      errors.toString().contains("File '/nonexistent/lox/file' does not exist")
+    );
+  }
+
+  public void testListenAndConnectOverLoopback() {
+    String output = run(
+      "let server = listen(\"127.0.0.1\", 0);\n"
+        + "async fun serve()\n"
+        + "  let client = await server.accept();\n"
+        + "  let line = await client.read();\n"
+        + "  await client.write(\"echo: \" + line);\n"
+        + "  client.close();\n"
+        + "end\n"
+        + "async fun ask(text)\n"
+        + "  let socket = await connect(\"127.0.0.1\", server.port);\n"
+        + "  await socket.write(text);\n"
+        + "  let reply = \"\";\n"
+        + "  let chunk = await socket.read();\n"
+        + "  while chunk != nil do\n"
+        + "    reply = reply + chunk;\n"
+        + "    chunk = await socket.read();\n"
+        + "  end\n"
+        + "  socket.close();\n"
+        + "  return reply;\n"
+        + "end\n"
+        + "serve();\n"
+        + "serve();\n"
+        + "let one = ask(\"one\");\n"
+        + "let two = ask(\"two\");\n"
+        + "println(await one);\n"
+        + "println(await two);\n"
+        + "server.close();\n"
+    );
+    assertEquals("echo: one\necho: two\n", output);
+  }
+
+  public void testUnhandledRejectionIsARuntimeError() {
+    String output = execute(
+      "async fun boom() return 1 + nil; end\n"
+        + "boom();\n"
+        + "println(\"after\");\n"
+    );
+    assertEquals("after\n", output);
+    assertFalse(isolate.hadError());
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString(), errors.size() > 0);
+  }
+
+  public void testAwaitedRejectionIsNotReportedTwice() {
+    String output = execute(
+      "async fun boom() return 1 + nil; end\n"
+        + "let failed = boom();\n"
+        + "println(\"before\");\n"
+        + "await failed;\n"
+        + "println(\"never\");\n"
+    );
+    assertEquals("before\n", output);
+    assertTrue(isolate.hadRuntimeError());
+    // the message and the line it happened on, once
+    String[] lines = errors.toString().trim().split("\n");
+    assertEquals(errors.toString(), 2, lines.length);
+  }
+
+  // two async calls waiting on each other, which nothing will ever settle
+  private static final String DEADLOCK =
+    "let first = nil;\n"
+      + "let second = nil;\n"
+      + "async fun a() await second; end\n"
+      + "async fun b() await first; end\n"
+      + "first = a();\n"
+      + "second = b();\n";
+
+  public void testClosingUnwindsWaitingCoroutines() {
+    int before = LoxCoroutine.threads();
+    run(DEADLOCK);
+    assertEquals(before + 2, LoxCoroutine.threads());
+
+    isolate.close();
+    assertEquals(before, LoxCoroutine.threads());
+    assertEquals("", errors.toString());
+  }
+
+  public void testDroppedIsolatesUnwindTheirCoroutines()
+    throws InterruptedException {
+    int before = LoxCoroutine.threads();
+    Isolate dropped = new Isolate(
+      new ByteArrayOutputStream(),
+      new PrintStream(new ByteArrayOutputStream()),
+      false
+    );
+    dropped.run(DEADLOCK);
+    assertEquals(before + 2, LoxCoroutine.threads());
+
+    dropped = null;
+    for (int i = 0; i < 100 && LoxCoroutine.threads() > before; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertEquals(before, LoxCoroutine.threads());
+  }
+}
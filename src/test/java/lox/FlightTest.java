@@ -0,0 +1,77 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.consumer.RecordingStream;
+import junit.framework.TestCase;
+
+public class FlightTest extends TestCase {
+  public void testRecordsPhasesCallsErrorsAndAllocations()
+    throws InterruptedException {
+    Set<String> phases = ConcurrentHashMap.newKeySet();
+    CountDownLatch executed = new CountDownLatch(1);
+    CountDownLatch called = new CountDownLatch(1);
+    CountDownLatch failed = new CountDownLatch(1);
+    CountDownLatch allocated = new CountDownLatch(1);
+
+    try (RecordingStream stream = new RecordingStream()) {
+      stream.enable("lox.Phase");
+      stream.enable("lox.Call").withThreshold(Duration.ZERO);
+      stream.enable("lox.RuntimeError");
+      stream.enable("lox.InstanceAllocations")
+        .withPeriod(Duration.ofMillis(10));
+      stream.onEvent("lox.Phase", event -> {
+        phases.add(event.getString("phase"));
+        if (event.getString("phase").equals("execute")) {
+          executed.countDown();
+        }
+      });
+      stream.onEvent("lox.Call", event -> {
+        if (event.getString("function").equals("make")
+          && event.getInt("line") == 2) {
+          called.countDown();
+        }
+      });
+      stream.onEvent("lox.RuntimeError", event -> {
+        if (event.getInt("line") == 7) {
+          failed.countDown();
+        }
+      });
+      stream.onEvent("lox.InstanceAllocations", event -> {
+        if (event.getString("loxClass").equals("Thing")) {
+          allocated.countDown();
+        }
+      });
+      stream.startAsync();
+
+      try (Isolate isolate = new Isolate(
+        new ByteArrayOutputStream(),
+        new PrintStream(new ByteArrayOutputStream()),
+        false
+      )) {
+        isolate.run(
+          "class Thing end\n"
+            + "fun make()\n"
+            + "  return Thing();\n"
+            + "end\n"
+            + "let until = clock_ns() + 100000000;\n"
+            + "while clock_ns() < until do make(); end\n"
+            + "println(1 + nil);\n"
+        );
+        assertTrue(isolate.hadRuntimeError());
+      }
+
+      // the periodic events can take a second or so to begin
+      assertTrue(executed.await(10, TimeUnit.SECONDS));
+      assertTrue(called.await(10, TimeUnit.SECONDS));
+      assertTrue(failed.await(10, TimeUnit.SECONDS));
+      assertTrue(allocated.await(10, TimeUnit.SECONDS));
+      assertEquals(Set.of("scan", "parse", "resolve", "execute"), phases);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package lox;
+
+public class GeneratorTest extends LoxTestCase {
+  private static final String NUMBERS =
+    "fun numbers()\n"
+      + "  let i = 0;\n"
+      + "  while true do yield i; i = i + 1; end\n"
+      + "end\n";
+
+  public void testYieldsUntilClosed() {
+    String output = run(
+      NUMBERS
+        + "let g = numbers();\n"
+        + "println(g.next());\n"
+        + "println(g.next());\n"
+        + "g.close();\n"
+        + "println(g.next());\n"
+    );
+    assertEquals("0\n1\nnil\n", output);
+  }
+
+  public void testDroppedGeneratorsFinishTheirThreads()
+    throws InterruptedException {
+    int before = LoxGenerator.threads();
+    run(
+      NUMBERS
+        + "let suspended = [];\n"
+        + "let i = 0;\n"
+        + "while i < 100 do\n"
+        + "  let g = numbers();\n"
+        + "  g.next();\n"
+        + "  suspended.push(g);\n"
+        + "  i = i + 1;\n"
+        + "end\n"
+    );
+    assertEquals(before + 100, LoxGenerator.threads());
+
+    isolate.run("suspended = nil;");
+    for (int i = 0; i < 100 && LoxGenerator.threads() > before; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertEquals(before, LoxGenerator.threads());
+  }
+}
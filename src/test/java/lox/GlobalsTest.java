@@ -0,0 +1,27 @@
+package lox;
+
+public class GlobalsTest extends LoxTestCase {
+  public void testNamesPastTheLimitAreLookedUpByName() {
+    // fill the table with names no other test uses
+    int symbol = 0;
+    for (int i = 0; i <= Globals.SYMBOLS && symbol >= 0; i++) {
+      symbol = Globals.symbol("globals test " + i);
+    }
+    assertEquals(Globals.UNINTERNED, Globals.symbol("uninterned"));
+
+    String output = run(
+      "let uninterned = 1;\n"
+        + "fun bump() uninterned = uninterned + 1; end\n"
+        + "bump();\n"
+        + "println(uninterned);\n"
+    );
+    assertEquals("2\n", output);
+
+    execute("println(undefinedAndUninterned);");
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(
+      errors.toString(),
+      errors.toString().contains("Undefined variable")
+    );
+  }
+}
@@ -0,0 +1,104 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+public class IntegerTest extends LoxTestCase {
+  public void testScansIntegerLiteralsAsLongs() {
+    Diagnostics diagnostics = new Diagnostics(
+      new PrintStream(new ByteArrayOutputStream()),
+      new Output(new ByteArrayOutputStream(), false)
+    );
+    List<Token> tokens = new Scanner(
+      "42 4.5 3.0 9223372036854775807 9223372036854775808",
+      diagnostics
+    ).scanTokens();
+
+    assertEquals(Long.valueOf(42), tokens.get(0).literal);
+    assertEquals(Double.valueOf(4.5), tokens.get(1).literal);
+    assertEquals(Double.valueOf(3.0), tokens.get(2).literal);
+    assertEquals(Long.valueOf(Long.MAX_VALUE), tokens.get(3).literal);
+    assertEquals(Double.valueOf(0x1p63), tokens.get(4).literal);
+  }
+
+  public void testPromotesToDoubleOnOverflow() {
+    String output = run(
+      "let max = 9223372036854775807;\n"
+        + "println(max);\n"
+        + "println(max + 1 == 9223372036854775808);\n"
+        + "println(-max - 2);\n"
+        + "println(max * 2);\n"
+        + "println(-(-max - 1));\n"
+        + "println(3037000500 * 3037000500);\n"
+        + "println(3037000499 * 3037000499);\n"
+        + "println(max - 1);\n"
+    );
+    assertEquals(
+      "9223372036854775807\ntrue\n-9.223372036854776E18\n"
+        + "1.8446744073709552E19\n9.223372036854776E18\n"
+        + "9.22337203700025E18\n9223372030926249001\n"
+        + "9223372036854775806\n",
+      output
+    );
+  }
+
+  public void testDivisionIsNotTruncated() {
+    String output = run(
+      "println(7 / 2);\n"
+        + "println(6 / 2);\n"
+        + "println(6 / 2 == 3);\n"
+        + "println(1 / 0);\n"
+        + "println(-7 % 3);\n"
+        + "println(7 % 0);\n"
+    );
+    assertEquals("3.5\n3\ntrue\nInfinity\n-1\nNaN\n", output);
+  }
+
+  public void testBitwiseOperatorsUseAll64Bits() {
+    String output = run(
+      "println(1 << 40 == 1099511627776);\n"
+        + "println((1 << 62) >> 61);\n"
+        + "println(-1 >> 63);\n"
+        + "println(6 & 3);\n"
+        + "println(6 | 3);\n"
+        + "println(6 ^ 3);\n"
+        + "println(4294967296 | 1);\n"
+        + "println(5.75 | 0);\n"
+    );
+    assertEquals("true\n2\n-1\n2\n7\n5\n4.294967297E9\n5\n", output);
+  }
+
+  public void testPrintsTheSameHoweverComputed() {
+    String output = run(
+      "println(10000000);\n"
+        + "println(20000000 / 2);\n"
+        + "println(10000000.0);\n"
+        + "println(9999999);\n"
+        + "println(1099511627776 + \"\");\n"
+        + "println(1099511627776.0 + \"\");\n"
+        + "println(9007199254740993);\n"
+    );
+    assertEquals(
+      "1.0E7\n1.0E7\n1.0E7\n9999999\n"
+        + "1.099511627776E12\n1.099511627776E12\n"
+        + "9007199254740993\n",
+      output
+    );
+  }
+
+  public void testZeroIsNotNegativeZero() {
+    String output = run(
+      "println(0 == -0.0);\n"
+        + "println(0 == 0.0);\n"
+        + "println(-0);\n"
+        + "println(-0 == 0);\n"
+        + "println(0 * -3);\n"
+        + "println(-4 % 2);\n"
+        + "let m = Map();\n"
+        + "m[0] = \"zero\";\n"
+        + "println(m[-0.0]);\n"
+    );
+    assertEquals("false\ntrue\n-0\nfalse\n-0\n-0\nnil\n", output);
+  }
+}
@@ -0,0 +1,31 @@
+package lox;
+
+public class InterpreterTest extends LoxTestCase {
+  public void testNegationEvaluatesItsOperandOnce() {
+    String output = run(
+      "let calls = 0;\n"
+        + "fun f()\n"
+        + "  calls = calls + 1;\n"
+        + "  return 2;\n"
+        + "end\n"
+        + "println(-f());\n"
+        + "let x = -f();\n"
+        + "println(x);\n"
+        + "println(calls);\n"
+    );
+    assertEquals("-2\n-2\n2\n", output);
+  }
+
+  public void testNotEvaluatesItsOperandOnce() {
+    String output = run(
+      "let calls = 0;\n"
+        + "fun f()\n"
+        + "  calls = calls + 1;\n"
+        + "  return nil;\n"
+        + "end\n"
+        + "println(!f());\n"
+        + "println(calls);\n"
+    );
+    assertEquals("true\n1\n", output);
+  }
+}
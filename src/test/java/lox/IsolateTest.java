@@ -0,0 +1,106 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+
+public class IsolateTest extends TestCase {
+  private static final int THREADS = 8;
+
+  private static final String COUNT =
+    "let total = 0;\n"
+      + "let i = 0;\n"
+      + "while i < 20000 do total = total + id; i = i + 1; end\n"
+      + "println(id + \":\" + total);\n";
+
+  private ExecutorService pool;
+
+  @Override
+  protected void setUp() {
+    pool = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @Override
+  protected void tearDown() {
+    pool.shutdownNow();
+  }
+
+  public void testIsolatesRunInParallelWithoutSharing() throws Exception {
+    List<Future<String>> results = new ArrayList<>();
+    for (int id = 0; id < THREADS; id++) {
+      String source = "let id = " + id + ";\n" + COUNT;
+      results.add(pool.submit(() -> {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Isolate isolate = isolate(out)) {
+          isolate.run(source);
+          assertFalse(isolate.hadRuntimeError());
+        }
+        return out.toString(Charset.defaultCharset());
+      }));
+    }
+
+    for (int id = 0; id < THREADS; id++) {
+      assertEquals(id + ":" + id * 20000 + "\n", results.get(id).get());
+    }
+  }
+
+  public void testErrorsStayInTheirIsolate() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Isolate failing = isolate(out); Isolate fine = isolate(out)) {
+      failing.run("println(1 + nil);");
+      fine.run("println(\"ok\");");
+      assertTrue(failing.hadRuntimeError());
+      assertFalse(fine.hadRuntimeError());
+      assertFalse(fine.hadError());
+    }
+    assertEquals("ok\n", out.toString(Charset.defaultCharset()));
+  }
+
+  public void testOneProgramRunsInManyIsolatesAtOnce() throws Exception {
+    Program program;
+    try (Isolate compiler = isolate(new ByteArrayOutputStream())) {
+      program = compiler.compile(
+        "fun counter()\n"
+          + "  let n = 0;\n"
+          + "  return \\-> n = n + 1;\n"
+          + "end\n"
+          + "class Box\n"
+          + "  init(value) this.value = value; end\n"
+          + "end\n"
+          + "let next = counter();\n"
+          + "let box = Box(0);\n"
+          + "while box.value < 5000 do box.value = next(); end\n"
+          + "println(box.value);\n"
+      );
+    }
+    assertNotNull(program);
+
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < THREADS * 4; i++) {
+      results.add(pool.submit(() -> {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Isolate isolate = isolate(out)) {
+          isolate.run(program);
+          isolate.run(program);
+          assertFalse(isolate.hadRuntimeError());
+        }
+        return out.toString(Charset.defaultCharset());
+      }));
+    }
+
+    for (Future<String> result : results) {
+      assertEquals("5000\n5000\n", result.get());
+    }
+  }
+
+  private static Isolate isolate(ByteArrayOutputStream out) {
+    PrintStream err = new PrintStream(new ByteArrayOutputStream());
+    return new Isolate(out, err, false);
+  }
+}
@@ -0,0 +1,63 @@
+package lox;
+
+public class LoxArrayTest extends LoxTestCase {
+  public void testMixedIntegersAndDoubles() {
+    String output = run(
+      "let a = [0, 0.5];\n"
+        + "a.push(2);\n"
+        + "println(a);\n"
+        + "println(a[0] == 0);\n"
+        + "let b = [0.5, 1];\n"
+        + "println(b);\n"
+    );
+    assertEquals("[0, 0.5, 2]\ntrue\n[0.5, 1]\n", output);
+  }
+
+  public void testIntegersTooLargeForDoublesStayExact() {
+    String output = run(
+      "let a = [9007199254740993];\n"
+        + "a.push(0.5);\n"
+        + "println(a[0]);\n"
+    );
+    assertEquals("9007199254740993\n", output);
+  }
+
+  public void testMixedKindsAreBoxed() {
+    String output = run(
+      "let a = [1, 2];\n"
+        + "a.push(\"three\");\n"
+        + "a[0] = true;\n"
+        + "println(a);\n"
+    );
+    assertEquals("[true, 2, three]\n", output);
+  }
+
+  public void testIndexingAndMethods() {
+    String output = run(
+      "let a = [];\n"
+        + "for i in [0, 1, 2, 3, 4] do a.push(i * i); end\n"
+        + "println(a.length);\n"
+        + "println(a.pop());\n"
+        + "a[1] = 10;\n"
+        + "println(a[1.0] + a[3]);\n"
+        + "println(a.slice(1, 3));\n"
+        + "println(a.slice(4, 4).length);\n"
+        + "let flags = [true, false];\n"
+        + "flags.push(true);\n"
+        + "println(flags);\n"
+    );
+    assertEquals("5\n16\n19\n[10, 4]\n0\n[true, false, true]\n", output);
+  }
+
+  public void testOutOfRangeIndexIsAnError() {
+    execute("let a = [1];\nprintln(a[1]);\n");
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("Array index out of range"));
+  }
+
+  public void testPopFromEmptyIsAnError() {
+    execute("[].pop();\n");
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("Cannot pop from an empty array"));
+  }
+}
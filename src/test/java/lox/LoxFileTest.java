@@ -0,0 +1,92 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LoxFileTest extends LoxTestCase {
+  private Path path;
+
+  @Override
+  protected void setUp() {
+    super.setUp();
+    try {
+      path = Files.createTempFile("lox", ".txt");
+      Files.writeString(path, "apple pie\nbanana split\napple crumble");
+    }
+    catch (IOException error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  @Override
+  protected void tearDown() {
+    super.tearDown();
+    path.toFile().delete();
+  }
+
+  public void testLines() {
+    String output = run(
+      "let file = mapFile(\"" + path + "\");\n"
+        + "println(file.countLines());\n"
+        + "for line in file.lines() do\n"
+        + "  if line.startsWith(\"apple\") do\n"
+        + "    println(line.field(1, \" \"));\n"
+        + "  end\n"
+        + "end\n"
+    );
+    assertEquals("3\npie\ncrumble\n", output);
+  }
+
+  public void testLinesAreStrings() {
+    String output = run(
+      "let lines = mapFile(\"" + path + "\").lines();\n"
+        + "let first = lines.next();\n"
+        + "let second = lines.next();\n"
+        + "println(first + \"!\");\n"
+        + "println(\"> \" + first);\n"
+        + "println(first + \", \" + second + \" \" + 2);\n"
+        + "println(first + second);\n"
+        + "println(first == \"apple pie\");\n"
+        + "let long = first;\n"
+        + "let expected = \"apple pie\";\n"
+        + "let i = 0;\n"
+        + "while i < 40 do\n"
+        + "  long = long + first;\n"
+        + "  expected = expected + \"apple pie\";\n"
+        + "  i = i + 1;\n"
+        + "end\n"
+        + "println(long == expected);\n"
+    );
+    assertEquals(
+      "apple pie!\n> apple pie\napple pie, banana split 2\n"
+        + "apple piebanana split\ntrue\ntrue\n",
+      output
+    );
+  }
+
+  public void testEncodeFromManyThreads() throws InterruptedException {
+    LoxFile file = LoxFile.map(path.toString());
+    AtomicBoolean mixedUp = new AtomicBoolean(false);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      String text = "needle " + t;
+      byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          if (!Arrays.equals(expected, file.encode(text))) {
+            mixedUp.set(true);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(mixedUp.get());
+  }
+}
@@ -0,0 +1,64 @@
+package lox;
+
+public class LoxMapTest extends LoxTestCase {
+  public void testKeepsInsertionOrder() {
+    String output = run(
+      "let m = Map();\n"
+        + "m[\"b\"] = 1;\n"
+        + "m[\"a\"] = 2;\n"
+        + "m[\"c\"] = 3;\n"
+        + "m.remove(\"a\");\n"
+        + "m[\"a\"] = 4;\n"
+        + "for k in m do print(k + \"=\" + m[k] + \" \"); end\n"
+        + "println(\"\");\n"
+        + "println(m.size);\n"
+        + "println(m.keys());\n"
+        + "println(m.values());\n"
+    );
+    assertEquals("b=1 c=3 a=4 \n3\n[b, c, a]\n[1, 3, 4]\n", output);
+  }
+
+  public void testIntegralNumbersAreOneKey() {
+    String output = run(
+      "let m = Map();\n"
+        + "m[1] = \"one\";\n"
+        + "println(m[1.0]);\n"
+        + "println(m.has(\"1\"));\n"
+        + "println(m.get(2, \"none\"));\n"
+        + "println(m[2]);\n"
+    );
+    assertEquals("one\nfalse\nnone\nnil\n", output);
+  }
+
+  public void testGrowsPastPresizedCapacity() {
+    String output = run(
+      "let m = sizedMap(4);\n"
+        + "let i = 0;\n"
+        + "while i < 1000 do m[i] = i * 2; i = i + 1; end\n"
+        + "let sum = 0;\n"
+        + "for k in m do sum = sum + m[k]; end\n"
+        + "println(m.size);\n"
+        + "println(sum);\n"
+    );
+    assertEquals("1000\n999000\n", output);
+  }
+
+  public void testResizingWhileIteratingIsAnError() {
+    execute(
+      "let m = Map();\n"
+        + "m[1] = 1;\n"
+        + "for k in m do\n"
+        + "  for i in [1, 2, 3, 4, 5, 6, 7, 8, 9, 10] do m[i * 10] = i; end\n"
+        + "end\n"
+    );
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("resized during iteration"));
+  }
+
+  public void testPresizingTooLargeIsAnError() {
+    execute("let m = 1;\nm = sizedMap(2000000000);\n");
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("Map size must be at most"));
+    assertTrue(errors.toString(), errors.toString().contains("[line 2:"));
+  }
+}
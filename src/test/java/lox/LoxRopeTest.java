@@ -0,0 +1,81 @@
+package lox;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LoxRopeTest extends LoxTestCase {
+  private static final String BUILD =
+    "fun build(piece, count)\n"
+      + "  let s = \"\";\n"
+      + "  let i = 0;\n"
+      + "  while i < count do s = s + piece; i = i + 1; end\n"
+      + "  return s;\n"
+      + "end\n";
+
+  public void testLongAppendsPrintAndCompareAsStrings() {
+    String output = run(
+      BUILD
+        + "let a = build(\"ab\", 2000);\n"
+        + "let b = build(\"a\", 1) + build(\"ba\", 1999) + \"b\";\n"
+        + "println(a == b);\n"
+        + "println(a == build(\"ab\", 1999));\n"
+        + "print(a);\n"
+    );
+    assertEquals("true\nfalse\n" + "ab".repeat(2000), output);
+  }
+
+  public void testRopesAreFlatForMapsAndNatives() {
+    String output = run(
+      BUILD
+        + "let m = Map();\n"
+        + "m[build(\"x\", 300)] = 1;\n"
+        + "println(m[build(\"x\", 300)]);\n"
+        + "assert(true, build(\"x\", 300));\n"
+    );
+    assertEquals("1\n", output);
+  }
+
+  public void testFlattensAtMostOnce() {
+    LoxRope rope = new LoxRope(
+      "a".repeat(LoxRope.THRESHOLD),
+      "b"
+    );
+    String flat = rope.toString();
+    assertEquals(LoxRope.THRESHOLD + 1, rope.length());
+    assertSame(flat, rope.toString());
+    assertEquals('b', rope.charAt(LoxRope.THRESHOLD));
+  }
+
+  public void testFlatteningFromManyThreads() throws InterruptedException {
+    for (int round = 0; round < 50; round++) {
+      LoxRope[] ropes = new LoxRope[200];
+      String[] expected = new String[ropes.length];
+      CharSequence text = "x".repeat(LoxRope.THRESHOLD);
+      StringBuilder builder = new StringBuilder(text);
+      for (int i = 0; i < ropes.length; i++) {
+        ropes[i] = new LoxRope(text, Integer.toString(i));
+        builder.append(i);
+        expected[i] = builder.toString();
+        text = ropes[i];
+      }
+
+      AtomicBoolean mixedUp = new AtomicBoolean(false);
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+        int first = t;
+        threads[t] = new Thread(() -> {
+          // each thread starts at a different depth of the same ropes
+          for (int i = first; i < ropes.length; i += 1 + first) {
+            if (!expected[i].equals(ropes[i].toString())) {
+              mixedUp.set(true);
+            }
+          }
+        });
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertFalse(mixedUp.get());
+    }
+  }
+}
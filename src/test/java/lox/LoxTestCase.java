@@ -0,0 +1,40 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import junit.framework.TestCase;
+
+// runs scripts in a fresh isolate and collects what they print
+public abstract class LoxTestCase extends TestCase {
+  protected ByteArrayOutputStream errors;
+  protected Isolate isolate;
+
+  @Override
+  protected void setUp() {
+    errors = new ByteArrayOutputStream();
+  }
+
+  @Override
+  protected void tearDown() {
+    if (isolate != null) {
+      isolate.close();
+    }
+  }
+
+  // the output of a script, failing the test if it has an error
+  protected String run(String source) {
+    String output = execute(source);
+    assertFalse(errors.toString(), isolate.hadError());
+    assertFalse(errors.toString(), isolate.hadRuntimeError());
+    return output;
+  }
+
+  // the output of a script that may have errors, which are left in errors
+  protected String execute(String source) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    isolate = new Isolate(out, new PrintStream(errors, true), false);
+    isolate.run(source);
+    return out.toString(Charset.defaultCharset());
+  }
+}
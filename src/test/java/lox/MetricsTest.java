@@ -0,0 +1,86 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import junit.framework.TestCase;
+
+public class MetricsTest extends TestCase {
+  private static final String POP = "Cannot pop from an empty array";
+
+  public void testCountsWhatAScriptDid() throws Exception {
+    LoxMetricsMXBean metrics = metrics();
+
+    long scripts = metrics.getScriptsExecuted();
+    long calls = metrics.getCalls();
+    long outputBytes = metrics.getOutputBytes();
+    long executions = total(metrics.getPhaseLatencies().get("execute"));
+    long pops = metrics.getRuntimeErrors().getOrDefault(POP, 0L);
+
+    int live = metrics.getLiveIsolates();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Isolate isolate = new Isolate(
+      out,
+      new PrintStream(new ByteArrayOutputStream()),
+      false
+    )) {
+      isolate.run(
+        "fun f() end\n"
+          + "let i = 0;\n"
+          + "while i < 100 do f(); i = i + 1; end\n"
+          + "println(\"metrics\");\n"
+          + "[].pop();\n"
+      );
+      assertTrue(isolate.hadRuntimeError());
+      assertEquals(live + 1, metrics.getLiveIsolates());
+    }
+    assertEquals(live, metrics.getLiveIsolates());
+
+    assertEquals(8, out.size());
+    assertTrue(metrics.getScriptsExecuted() >= scripts + 1);
+    assertTrue(metrics.getCalls() >= calls + 100);
+    assertTrue(metrics.getOutputBytes() >= outputBytes + 8);
+    assertTrue(
+      total(metrics.getPhaseLatencies().get("execute")) >= executions + 1
+    );
+    assertEquals(
+      metrics.getPhaseLatencies().get("execute").length,
+      metrics.getLatencyBucketMicros().length
+    );
+
+    Map<String, Long> errors = metrics.getRuntimeErrors();
+    assertEquals(Long.valueOf(pops + 1), errors.get(POP));
+  }
+
+  public void testClosingTwiceCountsOnce() throws Exception {
+    int live = metrics().getLiveIsolates();
+    Isolate isolate = new Isolate(
+      new ByteArrayOutputStream(),
+      new PrintStream(new ByteArrayOutputStream()),
+      false
+    );
+    isolate.close();
+    isolate.close();
+    assertEquals(live, metrics().getLiveIsolates());
+  }
+
+  private static LoxMetricsMXBean metrics() throws Exception {
+    Metrics.register();
+    return JMX.newMXBeanProxy(
+      ManagementFactory.getPlatformMBeanServer(),
+      new ObjectName("lox:type=Metrics"),
+      LoxMetricsMXBean.class
+    );
+  }
+
+  private static long total(long[] buckets) {
+    long total = 0;
+    for (long count : buckets) {
+      total += count;
+    }
+    return total;
+  }
+}
@@ -0,0 +1,36 @@
+package lox;
+
+import junit.framework.TestCase;
+
+public class NativeFunctionTest extends TestCase {
+  private static final NativeFunction PAIR = new NativeFunction(2) {
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+      return "" + a + b;
+    }
+  };
+
+  public void testArrayCallsTheEntryPointForItsLength() {
+    assertEquals("ab", PAIR.call(null, new Object[] { "a", "b" }));
+  }
+
+  public void testMissingEntryPointIsARuntimeError() {
+    try {
+      PAIR.call1(null, "a");
+      fail("called a native with the wrong number of arguments");
+    }
+    catch (RuntimeError error) {
+      assertEquals("Expected 2 arguments but got 1", error.getMessage());
+    }
+  }
+
+  public void testManyArgumentsWithoutCallIsARuntimeError() {
+    try {
+      PAIR.call(null, new Object[5]);
+      fail("called a native with the wrong number of arguments");
+    }
+    catch (RuntimeError error) {
+      assertEquals("Expected 2 arguments but got 5", error.getMessage());
+    }
+  }
+}
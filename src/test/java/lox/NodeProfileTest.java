@@ -0,0 +1,52 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import junit.framework.TestCase;
+
+public class NodeProfileTest extends TestCase {
+  private static final String SOURCE =
+    "let i = 0;\n"
+      + "while i < 3 do\n"
+      + "  i = i + 1;\n"
+      + "end\n";
+
+  public void testCountsEveryNodeThatRan() throws IOException {
+    Path directory = Files.createTempDirectory("lox");
+    Path prefix = directory.resolve("profile");
+    NodeProfile nodes = new NodeProfile(prefix);
+    try (Isolate isolate = new Isolate(
+      new Output(new ByteArrayOutputStream(), false),
+      new PrintStream(new ByteArrayOutputStream()),
+      nodes
+    )) {
+      Program program = isolate.compile(SOURCE);
+      isolate.run(program);
+      nodes.write(program, SOURCE);
+    }
+
+    try {
+      String[] lines = Files.readString(Path.of(prefix + ".txt")).split("\n");
+      assertTrue(lines[2], lines[2].matches(" +4 .*while i < 3 do"));
+      // assignment statements don't go through evaluate()
+      assertTrue(lines[3], lines[3].matches(" +3 .*  i = i \\+ 1;"));
+
+      String json = Files.readString(Path.of(prefix + ".json"));
+      assertTrue(
+        json,
+        json.contains(
+          "{\"kind\": \"Expr.Assign\", \"line\": 3, \"column\": 3,"
+            + " \"count\": 3,"
+        )
+      );
+    }
+    finally {
+      Files.deleteIfExists(Path.of(prefix + ".txt"));
+      Files.deleteIfExists(Path.of(prefix + ".json"));
+      Files.delete(directory);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import junit.framework.TestCase;
+
+public class OutputTest extends TestCase {
+  // fails the first write, like a pipe whose reader has gone away
+  private static class Broken extends OutputStream {
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    boolean broken = true;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+      throws IOException {
+      if (broken) {
+        broken = false;
+        throw new IOException("Broken pipe");
+      }
+      written.write(bytes, offset, length);
+    }
+  }
+
+  public void testBuffersUntilFlushed() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Output output = new Output(stream, false);
+    output.println("one");
+    output.print("two");
+    assertEquals(0, stream.size());
+    output.flush();
+    assertEquals("one\ntwo", stream.toString());
+  }
+
+  public void testLineBufferedFlushesEachLine() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Output output = new Output(stream, true);
+    output.println("one");
+    assertEquals("one\n", stream.toString());
+  }
+
+  public void testStopsWritingAfterAnError() {
+    Broken stream = new Broken();
+    Output output = new Output(stream, false);
+    output.println("lost");
+    output.flush();
+    output.println("dropped");
+    output.flush();
+    output.flush();
+    assertEquals(0, stream.written.size());
+  }
+}
@@ -0,0 +1,118 @@
+package lox;
+
+public class ParallelTest extends LoxTestCase {
+  private static final String NUMBERS =
+    "let numbers = [];\n"
+      + "let i = 0;\n"
+      + "while i < 10000 do numbers.push(i); i = i + 1; end\n";
+
+  public void testMapKeepsOrder() {
+    String output = run(
+      NUMBERS
+        + "let squares = parallelMap(numbers, \\x -> x * x);\n"
+        + "println(squares.length);\n"
+        + "println(squares[0] + \" \" + squares[9999]);\n"
+        + "let ordered = true;\n"
+        + "i = 1;\n"
+        + "while i < squares.length do\n"
+        + "  if squares[i] <= squares[i - 1] do ordered = false; end\n"
+        + "  i = i + 1;\n"
+        + "end\n"
+        + "println(ordered);\n"
+    );
+    assertEquals("10000\n0 9.9980001E7\ntrue\n", output);
+  }
+
+  public void testFilterAndReduce() {
+    String output = run(
+      NUMBERS
+        + "let even = parallelFilter(numbers, \\x -> x % 2 == 0);\n"
+        + "println(even.length);\n"
+        + "println(even.slice(0, 3));\n"
+        + "println(parallelReduce(numbers, \\a, b -> a + b, 0));\n"
+        + "println(parallelReduce([], \\a, b -> a + b, 42));\n"
+    );
+    assertEquals("5000\n[0, 2, 4]\n4.9995E7\n42\n", output);
+  }
+
+  public void testWarnsAboutSharedWrites() {
+    String output = run(
+      "let count = 0;\n"
+        + "fun tally(x)\n"
+        + "  count = count + 1;\n"
+        + "  return x;\n"
+        + "end\n"
+        + "println(parallelMap([1, 2], tally));\n"
+    );
+    assertEquals("[1, 2]\n", output);
+    assertTrue(errors.toString().contains("changes a variable or value"));
+  }
+
+  public void testWarnsAboutChangesToSharedValues() {
+    String[] changes = {
+      "counts[x] = 1;",
+      "counts[x % 2] = x;",
+      "box.total = x;",
+      "(box).total = x;",
+      "seen.push(x);",
+      "seen.pop();",
+      "counts.remove(x);",
+      "boxes[0].total = x;",
+    };
+    for (String change : changes) {
+      errors.reset();
+      run(
+        "let counts = Map();\n"
+          + "let seen = [0, 0, 0, 0];\n"
+          + "class Box end\n"
+          + "let box = Box();\n"
+          + "let boxes = [Box()];\n"
+          + "fun each(x)\n"
+          + "  " + change + "\n"
+          + "  return x;\n"
+          + "end\n"
+          + "parallelMap([1, 2, 3], each);\n"
+      );
+      assertTrue(
+        change,
+        errors.toString().contains("changes a variable or value")
+      );
+      assertTrue(errors.toString(), errors.toString().contains("[line 7:"));
+    }
+  }
+
+  public void testWarnsAboutChangesToThis() {
+    run(
+      "class Counter\n"
+        + "  init() this.count = 0; end\n"
+        + "  add(x) this.count = this.count + x; return x; end\n"
+        + "end\n"
+        + "parallelMap([1, 2], Counter().add);\n"
+    );
+    assertTrue(errors.toString().contains("changes a variable or value"));
+  }
+
+  public void testLocalValuesAreTheWorkersOwn() {
+    String output = run(
+      "class Box end\n"
+        + "fun each(x)\n"
+        + "  let pair = [];\n"
+        + "  pair.push(x);\n"
+        + "  pair[0] = x * 2;\n"
+        + "  let box = Box();\n"
+        + "  box.value = pair;\n"
+        + "  box.value.push(x);\n"
+        + "  return box.value;\n"
+        + "end\n"
+        + "println(parallelMap([1, 2], each));\n"
+    );
+    assertEquals("[[2, 1], [4, 2]]\n", output);
+    assertEquals("", errors.toString());
+  }
+
+  public void testRejectsTheWrongArity() {
+    execute("parallelMap([1], \\a, b -> a);\n");
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("takes one argument"));
+  }
+}
@@ -0,0 +1,54 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class ProfilerTest extends TestCase {
+  public void testWritesCollapsedLoxStacks() throws IOException {
+    Profiler profiler = new Profiler(1_000_000);
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    try (Isolate isolate = new Isolate(
+      new ByteArrayOutputStream(),
+      new PrintStream(errors, true),
+      false
+    )) {
+      isolate.profile(profiler);
+      profiler.start();
+      isolate.run(
+        "fun spin(until)\n"
+          + "  while clock_ns() < until do end\n"
+          + "end\n"
+          + "fun outer()\n"
+          + "  spin(clock_ns() + 300000000);\n"
+          + "end\n"
+          + "outer();\n"
+      );
+      assertFalse(errors.toString(), isolate.hadRuntimeError());
+    }
+
+    Path path = Files.createTempFile("jlox-profile", ".txt");
+    try {
+      profiler.finish(path);
+      List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+      assertFalse(lines.isEmpty());
+
+      long spinning = 0;
+      for (String line : lines) {
+        assertTrue(line, line.matches("<script>(;[^; ]+:\\d+)* \\d+"));
+        if (line.startsWith("<script>;outer:7;spin:5")) {
+          spinning += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+      }
+      assertTrue(lines.toString(), spinning > 0);
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class SnapshotTest extends TestCase {
+  private static final String PRELUDE =
+    "println(\"prelude ran\");\n"
+      + "fun counter()\n"
+      + "  let n = 0;\n"
+      + "  return \\-> n = n + 1;\n"
+      + "end\n"
+      + "let next = counter();\n"
+      + "next();\n"
+      + "let double = \\x -> x * 2;\n"
+      + "class Point\n"
+      + "  init(x, y) this.x = x; this.y = y; end\n"
+      + "  sum() return this.x + this.y; end\n"
+      + "end\n"
+      + "let origin = Point(1, 2.5);\n"
+      + "let names = [\"a\", \"b\"];\n"
+      + "let ages = Map();\n"
+      + "ages[\"a\"] = 1;\n"
+      + "let same = names;\n";
+
+  private static final String SCRIPT =
+    "println(next());\n"
+      + "println(double(21));\n"
+      + "println(origin.sum());\n"
+      + "println(Point(3, 4).sum());\n"
+      + "println(names);\n"
+      + "println(ages[\"a\"]);\n"
+      + "same.push(\"c\");\n"
+      + "println(names.length);\n";
+
+  private static final String EXPECTED =
+    "2\n42\n3.5\n7\n[a, b]\n1\n3\n";
+
+  private Path directory;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("jlox-snapshot");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+        path.toFile().delete();
+      });
+    }
+  }
+
+  public void testLoadedPreludeBehavesLikeTheOneThatRan() throws IOException {
+    Path prelude = directory.resolve("prelude.lox");
+    Files.writeString(prelude, PRELUDE);
+
+    assertEquals("prelude ran\n" + EXPECTED, runWith(prelude));
+    assertTrue(Files.exists(Snapshot.of(prelude)));
+    assertEquals(EXPECTED, runWith(prelude));
+  }
+
+  public void testChangedPreludeRunsAgain() throws IOException {
+    Path prelude = directory.resolve("prelude.lox");
+    Files.writeString(prelude, PRELUDE);
+    runWith(prelude);
+
+    Files.writeString(prelude, PRELUDE + "let extra = 1;\n");
+    assertEquals("prelude ran\n" + EXPECTED, runWith(prelude));
+  }
+
+  private static String runWith(Path prelude) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    PrintStream err = new PrintStream(errors, true);
+    try (Isolate isolate = new Isolate(out, err, false)) {
+      isolate.runPrelude(prelude);
+      isolate.run(SCRIPT);
+      assertFalse(errors.toString(), isolate.hadError());
+      assertFalse(errors.toString(), isolate.hadRuntimeError());
+    }
+    return out.toString(Charset.defaultCharset());
+  }
+}
@@ -0,0 +1,51 @@
+package lox;
+
+public class TaskTest extends LoxTestCase {
+  public void testJoinReturnsWhatTheTaskReturned() {
+    String output = run(
+      "let tasks = [];\n"
+        + "for n in [1, 2, 3, 4] do\n"
+        + "  tasks.push(spawn(\\-> n * n));\n"
+        + "end\n"
+        + "let sum = 0;\n"
+        + "for task in tasks do sum = sum + task.join(); end\n"
+        + "println(sum);\n"
+        + "println(tasks[0].done);\n"
+    );
+    assertEquals("30\ntrue\n", output);
+  }
+
+  public void testChannelsHandValuesBetweenTasks() {
+    String output = run(
+      "let numbers = Channel();\n"
+        + "fun produce()\n"
+        + "  let i = 0;\n"
+        + "  while i < 100 do numbers.send(i); i = i + 1; end\n"
+        + "  numbers.close();\n"
+        + "end\n"
+        + "let producer = spawn(produce);\n"
+        + "let sum = 0;\n"
+        + "for n in numbers do sum = sum + n; end\n"
+        + "producer.join();\n"
+        + "println(sum);\n"
+        + "println(numbers.recv());\n"
+    );
+    assertEquals("4950\nnil\n", output);
+  }
+
+  public void testSendingOnAClosedChannelIsAnError() {
+    execute(
+      "let c = bufferedChannel(1);\n"
+        + "c.close();\n"
+        + "c.send(1);\n"
+    );
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("Cannot send on a closed channel"));
+  }
+
+  public void testJoiningAFailedTaskIsAnError() {
+    execute("spawn(\\-> 1 + nil).join();\n");
+    assertTrue(isolate.hadRuntimeError());
+    assertTrue(errors.toString().contains("Joined a task that failed"));
+  }
+}